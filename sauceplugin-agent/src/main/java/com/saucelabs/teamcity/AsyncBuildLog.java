@@ -0,0 +1,208 @@
+package com.saucelabs.teamcity;
+
+import jetbrains.buildServer.agent.BuildProgressLogger;
+import jetbrains.buildServer.log.Loggers;
+import jetbrains.buildServer.messages.BuildMessage1;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Writes messages to the log of a build in the background, in batches and in the order they were logged, so that the
+ * threads logging them, eg. the thread reading the output of Sauce Connect, don't wait for the build log.
+ * <p>
+ * The batches are written by an executor shared by the logs of all the builds. When the queue is full, the logging
+ * thread waits for room rather than dropping or reordering messages. Closing writes the messages still queued, and
+ * the messages logged once closed are written to the build log directly.
+ */
+public class AsyncBuildLog {
+
+    private static final int CAPACITY = 10000;
+
+    private static final int BATCH_SIZE = 256;
+
+    private final BuildProgressLogger buildLogger;
+
+    private final Executor executor;
+
+    private final Object lock = new Object();
+
+    /**
+     * The messages not written yet, guarded by {@link #lock}.
+     */
+    private final ArrayDeque<BuildMessage1> queue = new ArrayDeque<BuildMessage1>();
+
+    /**
+     * Number of messages queued and written so far, guarded by {@link #lock}.
+     */
+    private long queued;
+    private long written;
+
+    /**
+     * Whether a batch is waiting for or being written by the executor, guarded by {@link #lock}.
+     */
+    private boolean writing;
+
+    /**
+     * Guarded by {@link #lock}.
+     */
+    private boolean closed;
+
+    private final Runnable writer = new Runnable() {
+        @Override
+        public void run() {
+            writeBatch();
+        }
+    };
+
+    /**
+     * @param buildLogger the log of the build
+     * @param executor    writes the batches of messages
+     */
+    public AsyncBuildLog(BuildProgressLogger buildLogger, Executor executor) {
+        this.buildLogger = buildLogger;
+        this.executor = executor;
+    }
+
+    public BuildProgressLogger getBuildLogger() {
+        return buildLogger;
+    }
+
+    /**
+     * @param message the message to write to the build log
+     */
+    public void logMessage(BuildMessage1 message) {
+        boolean schedule;
+        synchronized (lock) {
+            while (!closed && queue.size() >= CAPACITY) {
+                try {
+                    lock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+            if (closed || queue.size() >= CAPACITY) {
+                //written directly once closed, close() has written the queued messages under the same lock
+                buildLogger.logMessage(message);
+                return;
+            }
+            queue.add(message);
+            queued++;
+            schedule = !writing;
+            writing = true;
+        }
+        if (schedule) {
+            schedule();
+        }
+    }
+
+    /**
+     * Waits until the messages logged so far have been written to the build log.
+     *
+     * @param timeoutMillis maximum time to wait
+     * @return false if the messages weren't written in time
+     */
+    public boolean flush(long timeoutMillis) {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        synchronized (lock) {
+            long target = queued;
+            while (written < target) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    return false;
+                }
+                try {
+                    lock.wait(remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Waits for the queued messages to be written, then writes the ones still queued directly.
+     *
+     * @param timeoutMillis maximum time to wait for the queued messages to be written in the background
+     */
+    public void close(long timeoutMillis) {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        if (!flush(timeoutMillis)) {
+            Loggers.AGENT.warn("[sauceplugin] Sauce messages weren't written to the build log in time, writing the rest directly");
+        }
+        synchronized (lock) {
+            //the batch being written goes first, unless it's stuck
+            while (written + queue.size() < queued) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    break;
+                }
+                try {
+                    lock.wait(remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+            closed = true;
+            for (BuildMessage1 message = queue.poll(); message != null; message = queue.poll()) {
+                write(message);
+                written++;
+            }
+            lock.notifyAll();
+        }
+    }
+
+    private void schedule() {
+        try {
+            executor.execute(writer);
+        } catch (RejectedExecutionException e) {
+            //the agent is shutting down
+            writeBatch();
+        }
+    }
+
+    /**
+     * Writes a batch of messages, then gives the executor back to the logs of the other builds until the next batch.
+     */
+    private void writeBatch() {
+        List<BuildMessage1> batch = new ArrayList<BuildMessage1>(BATCH_SIZE);
+        synchronized (lock) {
+            while (batch.size() < BATCH_SIZE && !queue.isEmpty()) {
+                batch.add(queue.poll());
+            }
+            if (batch.isEmpty()) {
+                writing = false;
+                return;
+            }
+            lock.notifyAll();
+        }
+        for (BuildMessage1 message : batch) {
+            write(message);
+        }
+        boolean more;
+        synchronized (lock) {
+            written += batch.size();
+            lock.notifyAll();
+            more = !queue.isEmpty();
+            writing = more;
+        }
+        if (more) {
+            schedule();
+        }
+    }
+
+    private void write(BuildMessage1 message) {
+        try {
+            buildLogger.logMessage(message);
+        } catch (RuntimeException e) {
+            Loggers.AGENT.warn("[sauceplugin] Unable to write to the build log", e);
+        }
+    }
+}
@@ -0,0 +1,286 @@
+package com.saucelabs.teamcity;
+
+import com.saucelabs.ci.Browser;
+import com.saucelabs.ci.BrowserFactory;
+import jetbrains.buildServer.agent.BuildAgentConfiguration;
+import jetbrains.buildServer.agent.BuildProgressLogger;
+import jetbrains.buildServer.serverSide.TeamCityProperties;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.slf4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * The WebDriver browsers supported by Sauce, indexed by key, so that the browsers selected in a build feature can be
+ * looked up without calling the Sauce platforms API for every build.
+ * <p>
+ * The catalog is persisted in the agent cache directory. A persisted catalog younger than
+ * {@code saucePlugin.browserCatalog.ttlMillis} is used as is, an older one is used while a fresh catalog is retrieved
+ * in the background. Without a persisted catalog, the catalog is retrieved in the background too, and the browsers are
+ * looked up one by one meanwhile. A build never waits for the whole catalog to be retrieved, it only looks up the
+ * selected browsers which aren't in the catalog.
+ */
+public class BrowserCatalog {
+
+    static final String TTL_PROPERTY = "saucePlugin.browserCatalog.ttlMillis";
+
+    private static final String CACHE_KEY = "saucePlugin";
+
+    private static final String FILE_NAME = "browsers.json";
+
+    private static final long RETRY_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    private final BrowserFactory browserFactory;
+    private final BuildAgentConfiguration agentConfiguration;
+    private final long ttlMillis;
+
+    private final Object loadLock = new Object();
+
+    /**
+     * The browsers by key, never modified once published.
+     */
+    private volatile Map<String, Browser> browsers;
+
+    private volatile long loadedAt;
+
+    private volatile long retrievedAt;
+
+    private final AtomicBoolean refreshing = new AtomicBoolean();
+
+    private final ExecutorService refresher;
+
+    private final Logger logger = new LoggerBuildAndAgent((BuildProgressLogger) null, false);
+
+    public BrowserCatalog(BrowserFactory browserFactory, BuildAgentConfiguration agentConfiguration) {
+        this.browserFactory = browserFactory;
+        this.agentConfiguration = agentConfiguration;
+        this.ttlMillis = TeamCityProperties.getLong(TTL_PROPERTY, TimeUnit.HOURS.toMillis(24));
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(0, 1, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "sauce-browser-catalog");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        this.refresher = executor;
+    }
+
+    /**
+     * @param key the key of a browser, as selected in the build feature
+     * @return the browser, or null if Sauce doesn't support a browser with the key
+     */
+    public Browser webDriverBrowserForKey(String key) {
+        Browser browser = getBrowsers().get(key);
+        if (browser == null) {
+            logger.debug("Browser {} isn't in the browser catalog, looking it up", key);
+            browser = browserFactory.webDriverBrowserForKey(key);
+        }
+        return browser;
+    }
+
+    /**
+     * Loads the persisted catalog in the background, and retrieves a fresh one if it is out of date. Agents which
+     * never ran a Sauce build don't have a persisted catalog, and don't call the Sauce platforms API.
+     */
+    public void preload() {
+        File file = getFile();
+        if (file == null || !file.isFile()) {
+            return;
+        }
+        try {
+            refresher.execute(new Runnable() {
+                @Override
+                public void run() {
+                    getBrowsers();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            //shutting down
+        }
+    }
+
+    public void shutdown() {
+        refresher.shutdownNow();
+    }
+
+    private Map<String, Browser> getBrowsers() {
+        Map<String, Browser> current = browsers;
+        if (current == null) {
+            synchronized (loadLock) {
+                current = browsers;
+                if (current == null) {
+                    current = load();
+                }
+            }
+        }
+        long now = System.currentTimeMillis();
+        if (now - loadedAt > ttlMillis && now - retrievedAt > RETRY_MILLIS) {
+            refreshInBackground();
+        }
+        return current;
+    }
+
+    /**
+     * Loads the persisted catalog. If there is none, an empty catalog is published, which is out of date so that the
+     * catalog is retrieved in the background.
+     */
+    private Map<String, Browser> load() {
+        File file = getFile();
+        if (file != null && file.isFile()) {
+            try {
+                publish(read(file), file.lastModified());
+                return browsers;
+            } catch (IOException | JSONException e) {
+                logger.warn("Unable to read the browser catalog from {}", file, e);
+            }
+        }
+        //browsers are looked up one by one until the catalog is retrieved in the background
+        publish(new HashMap<String, Browser>(), 0);
+        return browsers;
+    }
+
+    private void refreshInBackground() {
+        if (!refreshing.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            refresher.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        retrieve();
+                    } finally {
+                        refreshing.set(false);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            refreshing.set(false);
+        }
+    }
+
+    /**
+     * Retrieves the catalog from Sauce, and persists it. The catalog is kept as it is if it can't be retrieved.
+     */
+    private void retrieve() {
+        retrievedAt = System.currentTimeMillis();
+        List<Browser> retrieved;
+        try {
+            retrieved = browserFactory.getWebDriverBrowsers();
+        } catch (RuntimeException e) {
+            logger.warn("Unable to retrieve the Sauce browsers", e);
+            return;
+        }
+        if (retrieved == null || retrieved.isEmpty()) {
+            logger.warn("No Sauce browsers retrieved, keeping the browser catalog");
+            return;
+        }
+        Map<String, Browser> byKey = new HashMap<String, Browser>(retrieved.size() * 2);
+        for (Browser browser : retrieved) {
+            byKey.put(browser.getKey(), browser);
+        }
+        publish(byKey, System.currentTimeMillis());
+
+        File file = getFile();
+        if (file != null) {
+            try {
+                write(file, retrieved);
+            } catch (IOException | JSONException e) {
+                logger.warn("Unable to write the browser catalog to {}", file, e);
+            }
+        }
+    }
+
+    private void publish(Map<String, Browser> byKey, long loadedAt) {
+        synchronized (loadLock) {
+            this.loadedAt = loadedAt;
+            this.browsers = Collections.unmodifiableMap(byKey);
+        }
+        logger.debug("Browser catalog loaded with {} browsers", byKey.size());
+    }
+
+    private File getFile() {
+        try {
+            return new File(agentConfiguration.getCacheDirectory(CACHE_KEY), FILE_NAME);
+        } catch (RuntimeException e) {
+            logger.warn("Unable to locate the agent cache directory", e);
+            return null;
+        }
+    }
+
+    private static Map<String, Browser> read(File file) throws IOException {
+        JSONArray json = new JSONArray(new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8));
+        Map<String, Browser> byKey = new HashMap<String, Browser>(json.length() * 2);
+        for (int i = 0; i < json.length(); i++) {
+            JSONObject item = json.getJSONObject(i);
+            Browser browser = new Browser(
+                    item.getString("key"),
+                    item.optString("os", null),
+                    item.optString("browserName", null),
+                    item.optString("longName", null),
+                    item.optString("version", null),
+                    item.optString("longVersion", null),
+                    item.optString("name", null));
+            browser.setDevice(item.optString("device", null));
+            browser.setDeviceType(item.optString("deviceType", null));
+            browser.setDeviceOrientation(item.optString("deviceOrientation", null));
+            byKey.put(browser.getKey(), browser);
+        }
+        if (byKey.isEmpty()) {
+            throw new IOException("The browser catalog is empty");
+        }
+        return byKey;
+    }
+
+    /**
+     * Writes the catalog to a temporary file first, so that a catalog being written is never read.
+     */
+    private static void write(File file, List<Browser> browsers) throws IOException {
+        JSONArray json = new JSONArray();
+        for (Browser browser : browsers) {
+            JSONObject item = new JSONObject();
+            item.put("key", browser.getKey());
+            item.putOpt("os", browser.getOs());
+            item.putOpt("browserName", browser.getBrowserName());
+            item.putOpt("longName", browser.getLongName());
+            item.putOpt("version", browser.getVersion());
+            item.putOpt("longVersion", browser.getLongVersion());
+            item.putOpt("name", browser.getName());
+            item.putOpt("device", browser.getDevice());
+            item.putOpt("deviceType", browser.getDeviceType());
+            item.putOpt("deviceOrientation", browser.getDeviceOrientation());
+            json.put(item);
+        }
+        File parent = file.getParentFile();
+        if (!parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("Unable to create directory " + parent);
+        }
+        File temp = new File(parent, file.getName() + ".tmp");
+        Files.write(temp.toPath(), json.toString().getBytes(StandardCharsets.UTF_8));
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    @Override
+    public String toString() {
+        Map<String, Browser> current = browsers;
+        return "BrowserCatalog{browsers=" + (current == null ? 0 : current.size()) + ", loadedAt=" + loadedAt + "}";
+    }
+}
@@ -0,0 +1,70 @@
+package com.saucelabs.teamcity;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * The Sauce Connect tunnels of a running build, keyed by {@link SauceTunnel#getKey()}.
+ * <p>
+ * A tunnel started in the background is only available once its future completes. The future completes with null if
+ * the tunnel couldn't be started.
+ */
+class BuildTunnels {
+
+    private final Map<String, CompletableFuture<SauceTunnel>> tunnels = new ConcurrentHashMap<String, CompletableFuture<SauceTunnel>>();
+
+    private final AtomicBoolean runnerStarted = new AtomicBoolean();
+
+    private final SauceConnectLogFile logFile;
+
+    /**
+     * @param logFile receives the complete output of the tunnels of the build
+     */
+    BuildTunnels(SauceConnectLogFile logFile) {
+        this.logFile = logFile;
+    }
+
+    SauceConnectLogFile getLogFile() {
+        return logFile;
+    }
+
+    void put(String key, CompletableFuture<SauceTunnel> tunnel) {
+        tunnels.put(key, tunnel);
+    }
+
+    CompletableFuture<SauceTunnel> get(String key) {
+        return tunnels.get(key);
+    }
+
+    CompletableFuture<SauceTunnel> remove(String key) {
+        return tunnels.remove(key);
+    }
+
+    /**
+     * @return true for the first build step of the build only
+     */
+    boolean startRunner() {
+        return runnerStarted.compareAndSet(false, true);
+    }
+
+    /**
+     * Waits for the tunnel to be started.
+     *
+     * @param tunnel
+     * @return the tunnel, or null if it couldn't be started
+     * @throws InterruptedException
+     */
+    static SauceTunnel await(CompletableFuture<SauceTunnel> tunnel) throws InterruptedException {
+        if (tunnel == null) {
+            return null;
+        }
+        try {
+            return tunnel.get();
+        } catch (ExecutionException e) {
+            return null;
+        }
+    }
+}
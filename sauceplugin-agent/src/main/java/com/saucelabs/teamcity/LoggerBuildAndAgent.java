@@ -2,6 +2,7 @@ package com.saucelabs.teamcity;
 
 import jetbrains.buildServer.agent.BuildProgressLogger;
 import jetbrains.buildServer.log.Loggers;
+import jetbrains.buildServer.messages.BuildMessage1;
 import jetbrains.buildServer.messages.DefaultMessagesInfo;
 import jetbrains.buildServer.messages.Status;
 import org.slf4j.Marker;
@@ -9,15 +10,44 @@ import org.slf4j.event.Level;
 import org.slf4j.helpers.MessageFormatter;
 
 
+/**
+ * Logs the messages of the plugin to both the build log and the agent log.
+ * <p>
+ * Messages are only formatted if one of the logs accepts their level. Debug and trace messages only go to the build
+ * log in verbose mode.
+ */
 public class LoggerBuildAndAgent extends org.slf4j.helpers.AbstractLogger {
-  BuildProgressLogger buildLogger;
+  private static final String[] PREFIXES = new String[Level.values().length];
+
+  static {
+    for (Level level : Level.values()) {
+      PREFIXES[level.ordinal()] = "[sauceplugin] [" + level + "] ";
+    }
+  }
+
+  volatile BuildProgressLogger buildLogger;
+  volatile AsyncBuildLog buildLog;
   Boolean verbose;
 
+  /**
+   * @param logger  the build log, or null to only log to the agent log
+   * @param verbose whether debug and trace messages are logged to the build log
+   */
   public LoggerBuildAndAgent(BuildProgressLogger logger, Boolean verbose) {
     this.buildLogger = logger;
     this.verbose = verbose;
   }
 
+  /**
+   * @param buildLog the build log, written to in the background
+   * @param verbose  whether debug and trace messages are logged to the build log
+   */
+  public LoggerBuildAndAgent(AsyncBuildLog buildLog, Boolean verbose) {
+    this.buildLogger = buildLog.getBuildLogger();
+    this.buildLog = buildLog;
+    this.verbose = verbose;
+  }
+
   @Override
   protected String getFullyQualifiedCallerName() {
     return null;
@@ -25,17 +55,44 @@ public class LoggerBuildAndAgent extends org.slf4j.helpers.AbstractLogger {
 
   @Override
   protected void handleNormalizedLoggingCall(Level level, Marker marker, String s, Object[] objects, Throwable throwable) {
-    String msg = MessageFormatter.basicArrayFormat(s, objects);
-    logUsingBuildLogger(level, msg, throwable);
-    logUsingAgentLogger(level, msg, throwable);
+    boolean toBuildLog = isLoggedToBuild(level);
+    boolean toAgentLog = isLoggedToAgent(level);
+    if (!toBuildLog && !toAgentLog) {
+      return;
+    }
+
+    String msg = objects == null || objects.length == 0 ? s : MessageFormatter.basicArrayFormat(s, objects);
+    if (toBuildLog) {
+      synchronized (this) {
+        if (buildLogger != null) {
+          logUsingBuildLogger(level, msg, throwable);
+        }
+      }
+    }
+    if (toAgentLog) {
+      logUsingAgentLogger(level, msg, throwable);
+    }
   }
 
-  private void logUsingBuildLogger(Level level, String msg, Throwable throwable) {
-    String msgWithPrefix = "[sauceplugin] [" + level + "] " + msg;
+  /**
+   * Stops logging to the build log, eg. for the tasks left running in the background when the build finishes. Waits for
+   * the messages being logged to the build log, so the build log can be closed once this returns.
+   */
+  public synchronized void detachBuildLog() {
+    buildLogger = null;
+    buildLog = null;
+  }
 
-    if (!verbose && (level == Level.TRACE || level == Level.DEBUG)) {
-      return;
-    }
+  private boolean isLoggedToBuild(Level level) {
+    return buildLogger != null && (verbose || (level != Level.TRACE && level != Level.DEBUG));
+  }
+
+  private static boolean isLoggedToAgent(Level level) {
+    return (level != Level.TRACE && level != Level.DEBUG) || Loggers.AGENT.isDebugEnabled();
+  }
+
+  private void logUsingBuildLogger(Level level, String msg, Throwable throwable) {
+    String msgWithPrefix = PREFIXES[level.ordinal()].concat(String.valueOf(msg));
 
     Status status = Status.NORMAL;
     if (level == Level.WARN) {
@@ -44,10 +101,16 @@ public class LoggerBuildAndAgent extends org.slf4j.helpers.AbstractLogger {
       status = Status.ERROR;
     }
 
+    BuildMessage1 message;
     if (throwable == null) {
-      buildLogger.logMessage(DefaultMessagesInfo.createTextMessage(msgWithPrefix, status));
+      message = DefaultMessagesInfo.createTextMessage(msgWithPrefix, status);
     } else {
-      buildLogger.logMessage(DefaultMessagesInfo.createError(msgWithPrefix, null, throwable));
+      message = DefaultMessagesInfo.createError(msgWithPrefix, null, throwable);
+    }
+    if (buildLog != null) {
+      buildLog.logMessage(message);
+    } else {
+      buildLogger.logMessage(message);
     }
   }
 
@@ -68,27 +131,27 @@ public class LoggerBuildAndAgent extends org.slf4j.helpers.AbstractLogger {
   }
 
   //
-  // Ignore methods below, they are implemented just to satisfy the slf4j logger interface
+  // The methods below let slf4j skip the messages no log accepts before formatting them
   //
 
   @Override
   public boolean isTraceEnabled() {
-    return true;
+    return isLoggedToBuild(Level.TRACE) || isLoggedToAgent(Level.TRACE);
   }
 
   @Override
   public boolean isTraceEnabled(Marker marker) {
-    return true;
+    return isTraceEnabled();
   }
 
   @Override
   public boolean isDebugEnabled() {
-    return true;
+    return isLoggedToBuild(Level.DEBUG) || isLoggedToAgent(Level.DEBUG);
   }
 
   @Override
   public boolean isDebugEnabled(Marker marker) {
-    return true;
+    return isDebugEnabled();
   }
 
   @Override
@@ -0,0 +1,156 @@
+package com.saucelabs.teamcity;
+
+import com.saucelabs.ci.Browser;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Generates the value of the SAUCE_ONDEMAND_BROWSERS environment variable, which lists the browsers selected in the
+ * build feature.
+ * <p>
+ * The JSON is written field by field to the output, rather than built as a tree of JSON objects first, so that a
+ * matrix of hundreds of browsers can be streamed to a file without being held in memory.
+ */
+public class SauceBrowsersJSON {
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private SauceBrowsersJSON() {
+    }
+
+    /**
+     * @param userName String representing Sauce Username
+     * @param apiKey   String representing Sauce API Key
+     * @param browsers the selected browsers
+     * @return JSON array with an object per browser
+     */
+    public static String toJSON(String userName, String apiKey, List<Browser> browsers) {
+        StringBuilder json = new StringBuilder(browsers.size() * 320 + 2);
+        try {
+            write(json, userName, apiKey, browsers);
+        } catch (IOException e) {
+            //a StringBuilder doesn't throw
+            throw new IllegalStateException(e);
+        }
+        return json.toString();
+    }
+
+    /**
+     * Writes the JSON array to a file, for test runners which read the browsers from SAUCE_ONDEMAND_BROWSERS_FILE.
+     *
+     * @param file     the file to write
+     * @param userName String representing Sauce Username
+     * @param apiKey   String representing Sauce API Key
+     * @param browsers the selected browsers
+     * @throws IOException
+     */
+    public static void writeToFile(File file, String userName, String apiKey, List<Browser> browsers) throws IOException {
+        File parent = file.getParentFile();
+        if (!parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("Unable to create directory " + parent);
+        }
+        Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8));
+        try {
+            write(writer, userName, apiKey, browsers);
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * @param out      receives the JSON array with an object per browser
+     * @param userName String representing Sauce Username
+     * @param apiKey   String representing Sauce API Key
+     * @param browsers the selected browsers
+     * @throws IOException
+     */
+    public static void write(Appendable out, String userName, String apiKey, List<Browser> browsers) throws IOException {
+        out.append('[');
+        boolean first = true;
+        for (Browser browser : browsers) {
+            if (browser == null) {
+                continue;
+            }
+            if (!first) {
+                out.append(',');
+            }
+            first = false;
+            writeBrowser(out, userName, apiKey, browser);
+        }
+        out.append(']');
+    }
+
+    /**
+     * Writes the fields of the browser, leaving out the fields without a value.
+     */
+    private static void writeBrowser(Appendable out, String userName, String apiKey, Browser browser) throws IOException {
+        out.append('{');
+        boolean first = writeField(out, true, "os", browser.getOs());
+        first = writeField(out, first, "browser", browser.getBrowserName());
+        first = writeField(out, first, "browser-version", browser.getVersion());
+        first = writeField(out, first, "long-name", browser.getLongName());
+        first = writeField(out, first, "long-version", browser.getLongVersion());
+        first = writeField(out, first, "url", browser.getUri(userName, apiKey));
+        first = writeField(out, first, "device", browser.getDevice());
+        first = writeField(out, first, "device-type", browser.getDeviceType());
+        writeField(out, first, "device-orientation", browser.getDeviceOrientation());
+        out.append('}');
+    }
+
+    /**
+     * @return whether the next field is the first field of the object
+     */
+    private static boolean writeField(Appendable out, boolean first, String name, String value) throws IOException {
+        if (value == null) {
+            return first;
+        }
+        if (!first) {
+            out.append(',');
+        }
+        writeString(out, name);
+        out.append(':');
+        writeString(out, value);
+        return false;
+    }
+
+    private static void writeString(Appendable out, String value) throws IOException {
+        out.append('"');
+        int start = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c >= 0x20 && c != '"' && c != '\\') {
+                continue;
+            }
+            out.append(value, start, i);
+            switch (c) {
+                case '"':
+                    out.append("\\\"");
+                    break;
+                case '\\':
+                    out.append("\\\\");
+                    break;
+                case '\n':
+                    out.append("\\n");
+                    break;
+                case '\r':
+                    out.append("\\r");
+                    break;
+                case '\t':
+                    out.append("\\t");
+                    break;
+                default:
+                    out.append("\\u00").append(HEX_DIGITS[c >> 4]).append(HEX_DIGITS[c & 0x0f]);
+            }
+            start = i + 1;
+        }
+        out.append(value, start, value.length());
+        out.append('"');
+    }
+}
@@ -0,0 +1,84 @@
+package com.saucelabs.teamcity;
+
+import jetbrains.buildServer.log.Loggers;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * The complete output of the Sauce Connect tunnels of a build, gzip compressed, published as a hidden build artifact
+ * once the tunnels are closed.
+ * <p>
+ * The file is only created once a tunnel logs a line. If the file can't be written, the output is only kept in the
+ * build log.
+ */
+class SauceConnectLogFile {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final File file;
+
+    private Writer writer;
+
+    private boolean closed;
+
+    private long lines;
+
+    /**
+     * @param file the file to write, in the temporary directory of the build
+     */
+    SauceConnectLogFile(File file) {
+        this.file = file;
+    }
+
+    File getFile() {
+        return file;
+    }
+
+    /**
+     * @param line a line logged by Sauce Connect
+     */
+    synchronized void write(String line) {
+        if (closed) {
+            return;
+        }
+        try {
+            if (writer == null) {
+                File parent = file.getParentFile();
+                if (!parent.isDirectory() && !parent.mkdirs()) {
+                    throw new IOException("Unable to create directory " + parent);
+                }
+                writer = new BufferedWriter(new OutputStreamWriter(new GZIPOutputStream(new FileOutputStream(file), BUFFER_SIZE), StandardCharsets.UTF_8), BUFFER_SIZE);
+            }
+            writer.write(line);
+            writer.write('\n');
+            lines++;
+        } catch (IOException e) {
+            Loggers.AGENT.warn("[sauceplugin] Unable to write the Sauce Connect log to " + file, e);
+            close();
+        }
+    }
+
+    /**
+     * @return the number of lines written to the file, 0 if the file wasn't created
+     */
+    synchronized long close() {
+        closed = true;
+        if (writer != null) {
+            try {
+                writer.close();
+            } catch (IOException e) {
+                Loggers.AGENT.warn("[sauceplugin] Unable to write the Sauce Connect log to " + file, e);
+                lines = 0;
+            }
+            writer = null;
+        }
+        return lines;
+    }
+}
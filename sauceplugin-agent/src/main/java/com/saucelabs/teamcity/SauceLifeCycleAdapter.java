@@ -1,26 +1,48 @@
 package com.saucelabs.teamcity;
 
 import com.saucelabs.ci.Browser;
-import com.saucelabs.ci.BrowserFactory;
 import com.saucelabs.ci.sauceconnect.AbstractSauceTunnelManager;
 import com.saucelabs.ci.sauceconnect.SauceConnectManager;
 import com.saucelabs.saucerest.DataCenter;
 import jetbrains.buildServer.BuildProblemData;
 import jetbrains.buildServer.agent.*;
-import jetbrains.buildServer.messages.DefaultMessagesInfo;
+import jetbrains.buildServer.log.Loggers;
+import jetbrains.buildServer.messages.BuildMessage1;
+import jetbrains.buildServer.messages.serviceMessages.ServiceMessage;
+import jetbrains.buildServer.serverSide.TeamCityProperties;
 import jetbrains.buildServer.util.EventDispatcher;
-import org.apache.commons.io.output.NullOutputStream;
 import org.apache.commons.lang3.StringUtils;
 import org.jetbrains.annotations.NotNull;
 import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
 import org.slf4j.Logger;
 
+import java.io.File;
 import java.io.IOException;
-import java.io.PrintStream;
-import java.util.Arrays;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
 
 // https://confluence.jetbrains.com/display/TCD10/Agent-side+Object+Model
 
@@ -31,31 +53,118 @@ import java.util.Collection;
  */
 public class SauceLifeCycleAdapter extends AgentLifeCycleAdapter {
 
+    /**
+     * Matches the tunnel name in the Sauce Connect options.
+     */
+    private static final Pattern TUNNEL_NAME_OPTION = Pattern.compile("(^|\\s)(--tunnel-name|--tunnel-identifier|-i)(=|\\s+)\\S+");
+
+    static final String CLOSE_TIMEOUT_PROPERTY = "saucePlugin.sauceConnect.closeTimeoutMillis";
+    static final String BUILD_LOG_FLUSH_TIMEOUT_PROPERTY = "saucePlugin.buildLog.flushTimeoutMillis";
+    static final String REPORT_SESSION_IDS_PROPERTY = "saucePlugin.sessionIds.reportFromAgent";
+    static final String SESSION_IDS_BATCH_SIZE_PROPERTY = "saucePlugin.sessionIds.batchSize";
+    static final String SESSION_IDS_FLUSH_INTERVAL_PROPERTY = "saucePlugin.sessionIds.flushIntervalMillis";
+
     /**
      * Singleton Sauce Connect Manager instance, populated by Spring.
      */
     private final SauceConnectManager sauceConnectManager;
     /**
-     * Singleton instance used to retrieve browser information supported by Sauce, populated by Spring.
+     * Held while the Sauce Connect version is set on {@link #sauceConnectManager} and a tunnel is launched with it.
+     */
+    private final Object sauceConnectLock = new Object();
+    /**
+     * Singleton catalog of the browsers supported by Sauce, populated by Spring.
+     */
+    private final BrowserCatalog browserCatalog;
+    /**
+     * Singleton pool of the tunnels kept open between builds, populated by Spring.
+     */
+    private final SauceTunnelPool tunnelPool;
+    /**
+     * The settings of the Sauce build features of the running builds, keyed by build id.
+     */
+    private final ConcurrentMap<Long, List<SauceFeatureConfig>> featureConfigs = new ConcurrentHashMap<Long, List<SauceFeatureConfig>>();
+    /**
+     * The logs of the running builds with the Sauce build feature, written to in the background, keyed by build id.
+     */
+    private final ConcurrentMap<Long, AsyncBuildLog> buildLogs = new ConcurrentHashMap<Long, AsyncBuildLog>();
+    /**
+     * The tunnels opened or reused by the running builds, keyed by build id.
+     */
+    private final ConcurrentMap<Long, BuildTunnels> buildTunnels = new ConcurrentHashMap<Long, BuildTunnels>();
+    /**
+     * Picks the session ids out of the output of the running builds, keyed by build id.
      */
-    private BrowserFactory sauceBrowserFactory;
+    private final ConcurrentMap<Long, SessionIdReporter> sessionIdReporters = new ConcurrentHashMap<Long, SessionIdReporter>();
+    /**
+     * Reports the session ids which have waited long enough for their batch to fill up, keyed by build id.
+     */
+    private final ConcurrentMap<Long, ScheduledFuture<?>> sessionIdTimers = new ConcurrentHashMap<Long, ScheduledFuture<?>>();
+    /**
+     * Runs the timers of the session id reporters of all the running builds.
+     */
+    private final ScheduledThreadPoolExecutor sessionIdTimer = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "sauce-session-id-reporter");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+    /**
+     * Starts the tunnels of the builds which don't wait for Sauce Connect at build start.
+     */
+    private final ExecutorService tunnelStarter = Executors.newCachedThreadPool(new ThreadFactory() {
+        private final AtomicInteger threadNumber = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "sauce-connect-starter-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    /**
+     * Writes the messages of the build logs in the background, for all the running builds.
+     */
+    private final ThreadPoolExecutor buildLogWriter = new ThreadPoolExecutor(2, 2, 1, TimeUnit.MINUTES, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+        private final AtomicInteger threadNumber = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "sauce-build-log-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
 
     /**
      * @param agentDispatcher     ???
-     * @param sauceBrowserFactory Singleton instance used to retrieve browser information supported by Sauce, populated by Spring.
+     * @param browserCatalog      Singleton catalog of the browsers supported by Sauce, populated by Spring.
      * @param sauceConnectManager Singleton Sauce Connect Manager instance, populated by Spring.
+     * @param tunnelPool          Singleton pool of the tunnels kept open between builds, populated by Spring.
      */
     public SauceLifeCycleAdapter(
             @NotNull EventDispatcher<AgentLifeCycleListener> agentDispatcher,
-            BrowserFactory sauceBrowserFactory,
-            SauceConnectManager sauceConnectManager) {
+            BrowserCatalog browserCatalog,
+            SauceConnectManager sauceConnectManager,
+            SauceTunnelPool tunnelPool) {
         agentDispatcher.addListener(this);
-        this.sauceBrowserFactory = sauceBrowserFactory;
+        buildLogWriter.allowCoreThreadTimeOut(true);
+        sessionIdTimer.setRemoveOnCancelPolicy(true);
+        this.browserCatalog = browserCatalog;
         this.sauceConnectManager = sauceConnectManager;
+        this.tunnelPool = tunnelPool;
     }
 
     /**
-     * If Sauce Connect is enabled, then close the Sauce Connect process.
+     * If Sauce Connect is enabled, then close the Sauce Connect processes, or keep them open for the next build if the
+     * tunnels should be kept warm.
+     * <p>
+     * The tunnels of all the features are closed concurrently. The build waits at most
+     * {@code saucePlugin.sauceConnect.closeTimeoutMillis} for them, the processes of the tunnels still open or starting
+     * after that are killed, and the build log is closed once the tasks closing them no longer write to it.
      *
      * @param build       the current build
      * @param buildStatus state of the build
@@ -64,18 +173,304 @@ public class SauceLifeCycleAdapter extends AgentLifeCycleAdapter {
     public void beforeBuildFinish(@NotNull final AgentRunningBuild build, @NotNull BuildFinishedStatus buildStatus) {
         super.beforeBuildFinish(build, buildStatus);
 
-        Logger logger = new LoggerBuildAndAgent(build.getBuildLogger(), isDebugMode(build));
-        String agentName = build.getAgentConfiguration().getName();
+        SessionIdReporter reporter = stopReportingSessionIds(build);
+        if (reporter != null) {
+            reportSessionIds(build, reporter, reporter.drain(), true);
+        }
+        Logger logger = getLogger(build);
+
+        BuildTunnels tunnels = buildTunnels.remove(build.getBuildId());
+        List<SauceFeatureConfig> configs = getFeatureConfigs(build);
+        if (configs.isEmpty()) {
+            closeBuildLog(build);
+            return;
+        }
+
+        long start = System.currentTimeMillis();
+        TunnelClosing closing = new TunnelClosing();
+        LoggerBuildAndAgent closeLogger = new LoggerBuildAndAgent(getBuildLog(build), isDebugMode(build));
+        closing.addLogger(closeLogger);
+        Queue<SauceConnectMetrics> metrics = new ConcurrentLinkedQueue<SauceConnectMetrics>();
+        List<CompletableFuture<Void>> closed = new ArrayList<CompletableFuture<Void>>();
+        for (SauceFeatureConfig config : configs) {
+            if (config.isSauceConnect()) {
+                logger.info("Closing Sauce Connect");
+                for (String options : getTunnelOptions(build, config)) {
+                    closed.add(closeTunnel(tunnels, closing, metrics, config, options, closeLogger));
+                }
+            }
+        }
+        if (closed.isEmpty()) {
+            closeBuildLog(build);
+            return;
+        }
+
+        long timeoutMillis = TeamCityProperties.getLong(CLOSE_TIMEOUT_PROPERTY, TimeUnit.MINUTES.toMillis(1));
+        try {
+            CompletableFuture.allOf(closed.toArray(new CompletableFuture[0])).get(timeoutMillis, TimeUnit.MILLISECONDS);
+            logger.info("Closed {} Sauce Connect tunnel(s) in {} ms", closed.size(), System.currentTimeMillis() - start);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            closing.abandon();
+        } catch (ExecutionException e) {
+            logger.error("Unable to close Sauce Connect", e.getCause());
+        } catch (TimeoutException e) {
+            int killed = closing.abandon();
+            logger.warn("Sauce Connect didn't close within {} ms, killing {} tunnel(s) still starting or closing", timeoutMillis, killed);
+        }
+        publishLogFile(build, tunnels);
+        closeBuildLog(build);
+        publishStatistics(build, metrics);
+    }
+
+    /**
+     * Publishes the complete output of the tunnels of the build, which was only summarized in the build log.
+     */
+    private void publishLogFile(AgentRunningBuild build, BuildTunnels tunnels) {
+        if (tunnels == null) return;
+        SauceConnectLogFile logFile = tunnels.getLogFile();
+        if (logFile.close() > 0) {
+            String artifactDirectory = new File(Constants.SAUCE_CONNECT_LOG_ARTIFACT).getParent().replace(File.separatorChar, '/');
+            build.getBuildLogger().message(ServiceMessage.asString("publishArtifacts", logFile.getFile().getAbsolutePath() + " => " + artifactDirectory));
+        }
+    }
+
+    /**
+     * Publishes the metrics of the tunnels used by the build as build statistic values, so they can be charted
+     * across builds.
+     */
+    private void publishStatistics(AgentRunningBuild build, Collection<SauceConnectMetrics> metrics) {
+        for (Map.Entry<String, Long> statistic : SauceConnectMetrics.toStatistics(new ArrayList<SauceConnectMetrics>(metrics)).entrySet()) {
+            Map<String, String> attributes = new HashMap<String, String>();
+            attributes.put("key", statistic.getKey());
+            attributes.put("value", String.valueOf(statistic.getValue()));
+            build.getBuildLogger().message(ServiceMessage.asString("buildStatisticValue", attributes));
+        }
+    }
+
+    /**
+     * Closes a tunnel of the build in the background, or keeps it open for the next build.
+     *
+     * @param closing the tunnels of the build being closed
+     * @param metrics receives the metrics of the tunnel
+     * @return completes once the tunnel is closed
+     */
+    private CompletableFuture<Void> closeTunnel(final BuildTunnels tunnels, final TunnelClosing closing, final Queue<SauceConnectMetrics> metrics,
+                                                final SauceFeatureConfig config, final String options, final Logger logger) {
+        final CompletableFuture<Void> closed = new CompletableFuture<Void>();
+        CompletableFuture<SauceTunnel> started = tunnels == null ? null : tunnels.remove(getTunnelKey(config, options));
+        final CompletableFuture<SauceTunnel> tunnelStarted = started == null ? CompletableFuture.<SauceTunnel>completedFuture(null) : started;
+        closing.add(tunnelStarted);
+        Runnable close = new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    //a tunnel still starting in the background has to be started before it can be closed
+                    SauceTunnel tunnel = BuildTunnels.await(tunnelStarted);
+                    String tunnelName = AbstractSauceTunnelManager.getTunnelName(options, "default");
+                    if (tunnel != null) {
+                        metrics.add(tunnel.getOutput().getMetrics());
+                    }
+                    if (tunnel != null && config.isKeepSauceConnectWarm()) {
+                        //once abandoned, the tunnel is being killed and can't be kept for the next build
+                        if (closing.remove(tunnelStarted)) {
+                            logger.info("Keeping Sauce Connect tunnel {} open for the next build", tunnelName);
+                            tunnelPool.release(tunnel);
+                        }
+                    } else {
+                        long start = System.currentTimeMillis();
+                        closeConnection(config.getUsername(), options, logger);
+                        if (closing.remove(tunnelStarted) && tunnel != null) {
+                            tunnel.getOutput().setBuildLog(null, null);
+                        }
+                        logger.info("Closed Sauce Connect tunnel {} in {} ms", tunnelName, System.currentTimeMillis() - start);
+                    }
+                    closed.complete(null);
+                } catch (Throwable t) {
+                    closed.completeExceptionally(t);
+                }
+            }
+        };
+        try {
+            tunnelStarter.execute(close);
+        } catch (RejectedExecutionException e) {
+            close.run();
+        }
+        return closed;
+    }
+
+    /**
+     * Forgets the settings of the build features once the build has finished.
+     *
+     * @param build
+     * @param buildStatus
+     */
+    @Override
+    public void buildFinished(@NotNull AgentRunningBuild build, @NotNull BuildFinishedStatus buildStatus) {
+        super.buildFinished(build, buildStatus);
+        featureConfigs.remove(build.getBuildId());
+        stopReportingSessionIds(build);
+        closeBuildLog(build);
+    }
+
+    /**
+     * Picks the session ids out of the build output as it is logged, and reports them to the server in batches.
+     *
+     * @param build        the current build
+     * @param buildMessage the message logged
+     */
+    @Override
+    public void messageLogged(@NotNull AgentRunningBuild build, @NotNull BuildMessage1 buildMessage) {
+        super.messageLogged(build, buildMessage);
+        SessionIdReporter reporter = sessionIdReporters.get(build.getBuildId());
+        if (reporter == null) return;
+        reportSessionIds(build, reporter, reporter.accept(SessionIdCollector.getText(buildMessage.getValue()), System.currentTimeMillis()), false);
+    }
+
+    /**
+     * Reports the session ids logged by the build step which haven't been reported yet.
+     *
+     * @param runner the build step which finished
+     * @param status state of the build step
+     */
+    @Override
+    public void runnerFinished(@NotNull BuildRunnerContext runner, @NotNull BuildFinishedStatus status) {
+        super.runnerFinished(runner, status);
+        AgentRunningBuild build = runner.getBuild();
+        SessionIdReporter reporter = sessionIdReporters.get(build.getBuildId());
+        if (reporter != null) {
+            reportSessionIds(build, reporter, reporter.drain(), false);
+        }
+    }
+
+    /**
+     * Waits for the tunnels started in the background before the build steps which need them.
+     *
+     * @param runner the build step about to start
+     */
+    @Override
+    public void beforeRunnerStart(@NotNull BuildRunnerContext runner) {
+        super.beforeRunnerStart(runner);
+        AgentRunningBuild build = runner.getBuild();
+        BuildTunnels tunnels = buildTunnels.get(build.getBuildId());
+        if (tunnels == null) return;
+        boolean firstRunner = tunnels.startRunner();
+
+        Logger logger = getLogger(build);
+        for (SauceFeatureConfig config : getFeatureConfigs(build)) {
+            if (!config.isSauceConnect() || !config.isStartSauceConnectInBackground()
+                    || !shouldWaitForSauceConnect(config, runner.getName(), firstRunner)) {
+                continue;
+            }
+            for (String options : getTunnelOptions(build, config)) {
+                CompletableFuture<SauceTunnel> tunnel = tunnels.get(getTunnelKey(config, options));
+                if (tunnel != null && !tunnel.isDone()) {
+                    logger.info("Waiting for Sauce Connect to start before step {}", runner.getName());
+                    try {
+                        BuildTunnels.await(tunnel);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * If the agent is configured to, opens a tunnel in the background as soon as the agent starts, so that Sauce
+     * Connect is already resolved and extracted when the first build needs it. The tunnel is then either closed, or
+     * kept open in the tunnel pool for the first build with the same tunnel key.
+     * <p>
+     * The tunnel is configured by agent configuration parameters named like the build feature parameters, with the
+     * {@link Constants#PREWARM_PREFIX} prefix instead of {@code saucePlugin.}, eg. {@code saucePlugin.prewarm.userId}.
+     * <p>
+     * The browser catalog persisted by a previous run of the agent is also loaded in the background.
+     *
+     * @param agent
+     */
+    @Override
+    public void agentStarted(@NotNull final BuildAgent agent) {
+        super.agentStarted(agent);
+        browserCatalog.preload();
+        final Map<String, String> configuration = agent.getConfiguration().getConfigurationParameters();
+        if (!"true".equals(configuration.get(Constants.PREWARM_SAUCE_CONNECT))) return;
+        try {
+            tunnelStarter.execute(new Runnable() {
+                @Override
+                public void run() {
+                    prewarmSauceConnect(agent.getConfiguration().getName(), configuration);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            Loggers.AGENT.warn("Unable to start Sauce Connect at agent startup", e);
+        }
+    }
 
-        Collection<AgentBuildFeature> features = build.getBuildFeaturesOfType(Constants.BUILD_FEATURE_TYPE);
-        if (features.isEmpty()) return;
-        for (AgentBuildFeature feature : features) {
-            logger.info("Closing Sauce Connect");
-            if (shouldStartSauceConnect(feature)) {
-                String options = getSauceConnectOptions(build, feature, null);
-                sauceConnectManager.closeTunnelsForPlan(getUsername(feature, agentName), options, logger);
+    private void prewarmSauceConnect(String agentName, Map<String, String> configuration) {
+        Logger logger = new LoggerBuildAndAgent((BuildProgressLogger) null, false);
+        Map<String, String> parameters = getPrewarmParameters(configuration);
+        if (parameters.get(Constants.SAUCE_USER_ID_KEY) == null || parameters.get(Constants.SAUCE_PLUGIN_ACCESS_KEY) == null) {
+            logger.warn("Not starting Sauce Connect at agent startup, {}userId and {}accessKey are required", Constants.PREWARM_PREFIX, Constants.PREWARM_PREFIX);
+            return;
+        }
+        SauceFeatureConfig config = SauceFeatureConfig.parse(parameters, agentName);
+        DataCenter region = config.getSauceRESTDataCenter();
+        boolean useLatestSauceConnect = config.isUseLatestSauceConnect();
+        String options = getSauceConnectOptions(config.getSauceConnectOptions(), agentName, region);
+        String key = SauceTunnel.key(config.getUsername(), region, useLatestSauceConnect, options);
+
+        logger.info("Starting Sauce Connect at agent startup");
+        long start = System.currentTimeMillis();
+        TunnelOutput printStream = new TunnelOutput(null, null);
+        SauceTunnel tunnel;
+        try {
+            Process process = openConnection(
+                useLatestSauceConnect,
+                config.getUsername(),
+                config.getAccessKey(),
+                region,
+                options,
+                logger,
+                printStream
+            );
+            tunnel = new SauceTunnel(key, config.getUsername(), options, process, printStream);
+        } catch (IOException e) {
+            logger.warn("Unable to start Sauce Connect at agent startup", e);
+            return;
+        }
+        logger.info("Sauce Connect started at agent startup in {} ms", System.currentTimeMillis() - start);
+
+        if ("true".equals(configuration.get(Constants.PREWARM_KEEP_OPEN))) {
+            tunnelPool.release(tunnel);
+        } else {
+            closeConnection(tunnel.getUsername(), options, logger);
+        }
+    }
+
+    /**
+     * @param configuration the agent configuration parameters
+     * @return the parameters with the {@link Constants#PREWARM_PREFIX} prefix, named like the build feature parameters
+     */
+    static Map<String, String> getPrewarmParameters(Map<String, String> configuration) {
+        Map<String, String> parameters = new HashMap<String, String>();
+        for (Map.Entry<String, String> entry : configuration.entrySet()) {
+            if (entry.getKey().startsWith(Constants.PREWARM_PREFIX)) {
+                parameters.put("saucePlugin." + entry.getKey().substring(Constants.PREWARM_PREFIX.length()), entry.getValue());
             }
         }
+        return parameters;
+    }
+
+    /**
+     * Stops starting tunnels when the agent shuts down.
+     */
+    @Override
+    public void agentShutdown() {
+        super.agentShutdown();
+        tunnelStarter.shutdownNow();
+        buildLogWriter.shutdown();
+        sessionIdTimer.shutdownNow();
     }
 
     /**
@@ -86,149 +481,264 @@ public class SauceLifeCycleAdapter extends AgentLifeCycleAdapter {
     @Override
     public void buildStarted(@NotNull AgentRunningBuild runningBuild) {
         super.buildStarted(runningBuild);
-        Logger logger = new LoggerBuildAndAgent(runningBuild.getBuildLogger(), isDebugMode(runningBuild));
+        List<SauceFeatureConfig> configs = getFeatureConfigs(runningBuild);
+        if (configs.isEmpty()) return;
+        Logger logger = getLogger(runningBuild);
         logger.info("Build Started, setting Sauce environment variables");
-        Collection<AgentBuildFeature> features = runningBuild.getBuildFeaturesOfType(Constants.BUILD_FEATURE_TYPE);
-        if (features.isEmpty()) return;
-        for (AgentBuildFeature feature : features) {
-            populateEnvironmentVariables(runningBuild, feature, logger);
-            if (shouldStartSauceConnect(feature)) {
-                startSauceConnect(runningBuild, feature);
+        startReportingSessionIds(runningBuild);
+        for (SauceFeatureConfig config : configs) {
+            populateEnvironmentVariables(runningBuild, config, logger);
+            if (config.isSauceConnect()) {
+                startSauceConnect(runningBuild, config);
             }
         }
     }
 
     /**
-     * Starts Sauce Connect.
+     * Starts Sauce Connect, either before returning or in the background. If the feature asks for several tunnels,
+     * they are started concurrently.
      *
      * @param runningBuild
-     * @param feature      contains the Sauce information set by the user within the build configuration
+     * @param config       the settings of the build feature
      */
-    private void startSauceConnect(final AgentRunningBuild runningBuild, AgentBuildFeature feature) {
-        Logger logger = new LoggerBuildAndAgent(runningBuild.getBuildLogger(), isDebugMode(runningBuild));
-        String agentName = runningBuild.getAgentConfiguration().getName();
-        ParametersProvider provider = new ParametersProvider(feature.getParameters(), agentName);
-        DataCenter region = provider.getSauceRESTDataCenter();
+    private void startSauceConnect(final AgentRunningBuild runningBuild, final SauceFeatureConfig config) {
+        Logger logger = getLogger(runningBuild);
 
-        logger.info("Starting Sauce Connect");
-        String options = getSauceConnectOptions(runningBuild, feature, region);
-        addSharedEnvironmentVariable(runningBuild, Constants.TUNNEL_IDENTIFIER, AbstractSauceTunnelManager.getTunnelName(options, "default"), logger);
+        List<String> tunnelOptions = getTunnelOptions(runningBuild, config);
+        List<String> tunnelNames = new ArrayList<String>();
+        for (String options : tunnelOptions) {
+            tunnelNames.add(AbstractSauceTunnelManager.getTunnelName(options, "default"));
+        }
+        addSharedEnvironmentVariable(runningBuild, Constants.TUNNEL_IDENTIFIER, tunnelNames.get(0), logger);
+        if (tunnelNames.size() > 1) {
+            for (int i = 0; i < tunnelNames.size(); i++) {
+                addSharedEnvironmentVariable(runningBuild, Constants.TUNNEL_IDENTIFIER + "_" + i, tunnelNames.get(i), logger);
+            }
+            addSharedEnvironmentVariable(runningBuild, Constants.TUNNEL_IDENTIFIERS, new JSONArray(tunnelNames).toString(), logger);
+        }
+
+        boolean inBackground = config.isStartSauceConnectInBackground();
+        if (!inBackground && tunnelOptions.size() == 1) {
+            startTunnel(runningBuild, config, tunnelOptions.get(0), false, logger);
+            return;
+        }
 
-        PrintStream printStream = createPrintStream(runningBuild);
+        List<CompletableFuture<SauceTunnel>> started = new ArrayList<CompletableFuture<SauceTunnel>>();
+        for (String options : tunnelOptions) {
+            started.add(startTunnel(runningBuild, config, options, true, logger));
+        }
+        if (!inBackground) {
+            try {
+                for (CompletableFuture<SauceTunnel> tunnel : started) {
+                    BuildTunnels.await(tunnel);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
 
-        // set to use latest sauce if set
-        sauceConnectManager.setUseLatestSauceConnect(shouldUseLatestSauceConnect(feature));
+    /**
+     * Reuses a tunnel kept open by a previous build, or opens a new one.
+     *
+     * @param inBackground whether to open the tunnel on another thread
+     * @return completes once the tunnel is started
+     */
+    private CompletableFuture<SauceTunnel> startTunnel(final AgentRunningBuild runningBuild, final SauceFeatureConfig config, final String options, boolean inBackground, final Logger logger) {
+        final String key = getTunnelKey(config, options);
+        if (config.isKeepSauceConnectWarm()) {
+            SauceTunnel tunnel = tunnelPool.acquire(key, getBuildLog(runningBuild), getBuildTunnels(runningBuild).getLogFile());
+            if (tunnel != null) {
+                logger.info("Reusing Sauce Connect tunnel kept open by a previous build");
+                CompletableFuture<SauceTunnel> reused = CompletableFuture.completedFuture(tunnel);
+                getBuildTunnels(runningBuild).put(key, reused);
+                return reused;
+            }
+        }
 
+        if (!inBackground) {
+            CompletableFuture<SauceTunnel> opened = CompletableFuture.completedFuture(openTunnel(runningBuild, config, key, options, logger));
+            getBuildTunnels(runningBuild).put(key, opened);
+            return opened;
+        }
+
+        final CompletableFuture<SauceTunnel> tunnel = new CompletableFuture<SauceTunnel>();
+        getBuildTunnels(runningBuild).put(key, tunnel);
         try {
-            sauceConnectManager.openConnection(
-                getUsername(feature, agentName),
-                getAccessKey(feature, agentName),
-                provider.getSauceRESTDataCenter(),
+            tunnelStarter.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        tunnel.complete(openTunnel(runningBuild, config, key, options, logger));
+                    } catch (Throwable t) {
+                        tunnel.completeExceptionally(t);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            tunnel.complete(openTunnel(runningBuild, config, key, options, logger));
+        }
+        return tunnel;
+    }
+
+    /**
+     * Opens a tunnel, and reports a build problem if it couldn't be opened.
+     *
+     * @return the tunnel, or null if it couldn't be opened
+     */
+    private SauceTunnel openTunnel(AgentRunningBuild runningBuild, SauceFeatureConfig config, String key, String options, Logger logger) {
+        logger.info("Starting Sauce Connect");
+        TunnelOutput printStream = new TunnelOutput(getBuildLog(runningBuild), getBuildTunnels(runningBuild).getLogFile());
+
+        try {
+            long start = System.currentTimeMillis();
+            Process process = openConnection(
+                config.isUseLatestSauceConnect(),
+                config.getUsername(),
+                config.getAccessKey(),
+                config.getSauceRESTDataCenter(),
                 options,
                 logger,
-                printStream,
-                true
+                printStream
             );
+            printStream.getMetrics().setStartMillis(System.currentTimeMillis() - start);
+            return new SauceTunnel(key, config.getUsername(), options, process, printStream);
         } catch (IOException e) {
             runningBuild.getBuildLogger().logBuildProblem(BuildProblemData.createBuildProblem(
                     "SAUCE_CONNECT",
                     "FAILED_TO_START_SAUCE_CONNECT",
                     "Failed to start sauce connect: " + e.getMessage()
             ));
+            return null;
         }
     }
 
-    private String getSauceConnectOptions(AgentRunningBuild runningBuild, AgentBuildFeature feature, DataCenter region) {
-        String options = feature.getParameters().get(Constants.SAUCE_CONNECT_OPTIONS);
-
-        if (options == null || options.isEmpty()) {
-            //default tunnel identifier to teamcity-%teamcity.agent.name%
-            options = "--tunnel-name teamcity-" + StringUtils.deleteWhitespace(runningBuild.getSharedConfigParameters().get("teamcity.agent.name"));
-        }
-
-        if (region != null) {
-            String regionName = region.name().toLowerCase().replace("_", "-");
-            options = "--region " + regionName + " " + options;
+    /**
+     * Launches Sauce Connect with the version asked for. The version is a setting of the shared Sauce Connect manager
+     * which is read when the process is launched, so it's set and used under a single lock, otherwise a tunnel started
+     * at the same time by another build or at agent startup could switch it in between.
+     */
+    Process openConnection(boolean useLatestSauceConnect, String username, String accessKey, DataCenter region,
+                           String options, Logger logger, TunnelOutput printStream) throws IOException {
+        synchronized (sauceConnectLock) {
+            sauceConnectManager.setUseLatestSauceConnect(useLatestSauceConnect);
+            return sauceConnectManager.openConnection(username, accessKey, region, options, logger, printStream, true);
         }
-
-        return options;
     }
 
     /**
-     * @param feature contains the Sauce information set by the user within the build configuration
-     * @return
+     * Closes the Sauce Connect process opened with the options.
      */
-    private String getSeleniumHost(AgentBuildFeature feature) {
-        String host = feature.getParameters().get(Constants.SELENIUM_HOST_KEY);
-        if (host == null || host.equals("")) {
-            if (shouldStartSauceConnect(feature)) {
-                host = "localhost";
-            } else {
-                host = "ondemand.saucelabs.com";
+    void closeConnection(String username, String options, Logger logger) {
+        sauceConnectManager.closeTunnelsForPlan(username, options, logger);
+    }
+
+    private BuildTunnels getBuildTunnels(AgentRunningBuild runningBuild) {
+        BuildTunnels tunnels = buildTunnels.get(runningBuild.getBuildId());
+        if (tunnels == null) {
+            File logFile = new File(new File(runningBuild.getBuildTempDirectory(), "sauce"), new File(Constants.SAUCE_CONNECT_LOG_ARTIFACT).getName());
+            tunnels = new BuildTunnels(new SauceConnectLogFile(logFile));
+            BuildTunnels existing = buildTunnels.putIfAbsent(runningBuild.getBuildId(), tunnels);
+            if (existing != null) {
+                tunnels = existing;
             }
         }
-        return host;
+        return tunnels;
     }
 
     /**
-     * @param feature contains the Sauce information set by the user within the build configuration
-     * @return
+     * @param config  the settings of the build feature
+     * @param options the Sauce Connect options of one of the tunnels of the feature
+     * @return the key of the tunnel, see {@link SauceTunnel#key}
      */
-    private String getSeleniumPort(AgentBuildFeature feature) {
-        String port = feature.getParameters().get(Constants.SELENIUM_PORT_KEY);
-        if (port == null || port.equals("")) {
-            if (shouldStartSauceConnect(feature)) {
-                port = "4445";
-            } else {
-                port = "80";
-            }
-
-        }
-        return port;
-
+    private String getTunnelKey(SauceFeatureConfig config, String options) {
+        return SauceTunnel.key(config.getUsername(), config.getSauceRESTDataCenter(), config.isUseLatestSauceConnect(), options);
     }
 
     /**
-     * @param feature contains the Sauce information set by the user within the build configuration
-     * @return
+     * Returns the Sauce Connect options of each tunnel the feature needs. When the feature asks for several tunnels,
+     * each one is named after the tunnel name of the options, followed by its index, eg. teamcity-agent-0.
+     *
+     * @param runningBuild
+     * @param config       the settings of the build feature
+     * @return the options of each tunnel, in order
      */
-    private boolean shouldStartSauceConnect(AgentBuildFeature feature) {
-        String useSauceConnect = feature.getParameters().get(Constants.SAUCE_CONNECT_KEY);
-        return useSauceConnect != null && useSauceConnect.equals("true");
+    private List<String> getTunnelOptions(AgentRunningBuild runningBuild, SauceFeatureConfig config) {
+        String options = getSauceConnectOptions(config.getSauceConnectOptions(),
+                runningBuild.getSharedConfigParameters().get("teamcity.agent.name"), config.getSauceRESTDataCenter());
+
+        int count = config.getSauceConnectTunnels();
+        if (count == 1) {
+            return Collections.singletonList(options);
+        }
+        String tunnelName = AbstractSauceTunnelManager.getTunnelName(options, "default");
+        String unnamedOptions = TUNNEL_NAME_OPTION.matcher(options).replaceAll(" ").trim().replaceAll("\\s+", " ");
+        List<String> tunnelOptions = new ArrayList<String>();
+        for (int i = 0; i < count; i++) {
+            tunnelOptions.add(unnamedOptions + " --tunnel-name " + tunnelName + "-" + i);
+        }
+        return tunnelOptions;
+    }
+
+    private static String getSauceConnectOptions(String options, String agentName, DataCenter region) {
+        if (options == null || options.isEmpty()) {
+            //default tunnel identifier to teamcity-%teamcity.agent.name%
+            options = "--tunnel-name teamcity-" + StringUtils.deleteWhitespace(agentName);
+        }
+
+        if (region != null) {
+            String regionName = region.name().toLowerCase().replace("_", "-");
+            options = "--region " + regionName + " " + options;
+        }
+
+        return options;
     }
 
     /**
-     * @param feature contains the Sauce information set by the user within the build configuration
-     * @return boolean indicating whether the latest Sauce Connect should be used
+     * @param config      the settings of the build feature
+     * @param runnerName  the name of the build step about to start
+     * @param firstRunner whether it is the first build step of the build
+     * @return boolean indicating whether the build step needs Sauce Connect to be started, which is the first build
+     * step unless the steps are listed in the feature
      */
-    private boolean shouldUseLatestSauceConnect(AgentBuildFeature feature) {
-        String useSauceConnect = feature.getParameters().get(Constants.USE_LATEST_SAUCE_CONNECT);
-        return useSauceConnect != null && useSauceConnect.equals("true");
+    private boolean shouldWaitForSauceConnect(SauceFeatureConfig config, String runnerName, boolean firstRunner) {
+        List<String> steps = config.getSauceConnectSteps();
+        if (steps.isEmpty()) {
+            return firstRunner;
+        }
+        return steps.contains(runnerName);
     }
 
     /**
      * @param runningBuild
-     * @param feature      contains the Sauce information set by the user within the build configuration
+     * @param config       the settings of the build feature
      */
-    private void populateEnvironmentVariables(AgentRunningBuild runningBuild, AgentBuildFeature feature, Logger logger) {
-        String agentName = runningBuild.getAgentConfiguration().getName();
+    private void populateEnvironmentVariables(AgentRunningBuild runningBuild, SauceFeatureConfig config, Logger logger) {
         logger.info("Populating environment variables");
-        String userName = getUsername(feature, agentName);
-        String apiKey = getAccessKey(feature, agentName);
-        String dataCenter = getDataCenter(feature, agentName);
+        String userName = config.getUsername();
+        String apiKey = config.getAccessKey();
+        String dataCenter = config.getDataCenter();
 
-        String[] selectedBrowsers = getSelectedBrowsers(logger, feature);
-        if (selectedBrowsers.length == 0) {
+        List<String> selectedBrowsers = config.getSelectedBrowsers();
+        if (selectedBrowsers.isEmpty()) {
             logger.info("No selected browsers found");
         } else {
-            logger.info("Selected browsers: {}", Arrays.toString(selectedBrowsers));
-            if (selectedBrowsers.length == 1) {
-                Browser browser = sauceBrowserFactory.webDriverBrowserForKey(selectedBrowsers[0]);
+            logger.info("Selected browsers: {}", selectedBrowsers);
+            List<Browser> browsers = new ArrayList<Browser>();
+            for (String browser : selectedBrowsers) {
+                Browser browserInstance = browserCatalog.webDriverBrowserForKey(browser);
+                if (browserInstance != null) {
+                    browsers.add(browserInstance);
+                }
+            }
+
+            if (selectedBrowsers.size() == 1) {
+                Browser browser = browsers.isEmpty() ? null : browsers.get(0);
                 if (browser == null) {
-                    logger.info("No browser found for: {}", selectedBrowsers[0]);
-                    logger.info("Browsers: {}", sauceBrowserFactory);
+                    logger.info("No browser found for: {}", selectedBrowsers.get(0));
+                    logger.info("Browsers: {}", browserCatalog);
                 } else {
-                    String sodDriverURI = getSodDriverUri(userName, apiKey, browser, feature);
+                    String sodDriverURI = getSodDriverUri(userName, apiKey, browser, config);
                     addSharedEnvironmentVariable(runningBuild, Constants.SELENIUM_BROWSER_ENV, browser.getBrowserName(), logger);
                     addSharedEnvironmentVariable(runningBuild, Constants.SELENIUM_VERSION_ENV, browser.getVersion(), logger);
                     addSharedEnvironmentVariable(runningBuild, Constants.SELENIUM_PLATFORM_ENV, browser.getOs(), logger);
@@ -238,15 +748,17 @@ public class SauceLifeCycleAdapter extends AgentLifeCycleAdapter {
                     addSharedEnvironmentVariable(runningBuild, Constants.SELENIUM_DEVICE_TYPE, browser.getDeviceType(), logger);
                 }
             }
-
-            JSONArray browsersJSON = new JSONArray();
-            for (String browser : selectedBrowsers) {
-                Browser browserInstance = sauceBrowserFactory.webDriverBrowserForKey(browser);
-                if (browserInstance != null) {
-                    browserAsJSON(logger, userName, apiKey, browsersJSON, browserInstance);
+            if (config.isBrowsersFile()) {
+                File browsersFile = new File(new File(runningBuild.getBuildTempDirectory(), "sauce"), "browsers.json");
+                try {
+                    SauceBrowsersJSON.writeToFile(browsersFile, userName, apiKey, browsers);
+                    addSharedEnvironmentVariable(runningBuild, Constants.SAUCE_BROWSERS_FILE_ENV, browsersFile.getAbsolutePath(), logger);
+                } catch (IOException e) {
+                    logger.error("Unable to write the selected browsers to {}", browsersFile, e);
                 }
+            } else {
+                addSharedEnvironmentVariable(runningBuild, Constants.SAUCE_BROWSERS_ENV, SauceBrowsersJSON.toJSON(userName, apiKey, browsers), logger);
             }
-            addSharedEnvironmentVariable(runningBuild, Constants.SAUCE_BROWSERS_ENV, browsersJSON.toString(), logger);
 
         }
         addSharedEnvironmentVariable(runningBuild, Constants.SAUCE_USER_NAME, userName, logger);
@@ -256,42 +768,14 @@ public class SauceLifeCycleAdapter extends AgentLifeCycleAdapter {
         addSharedEnvironmentVariable(runningBuild, Constants.SAUCE_ACCESS_KEY, apiKey, logger);
         addSharedEnvironmentVariable(runningBuild, Constants.SAUCE_DATA_CENTER, dataCenter, logger);
 
-        addSharedEnvironmentVariable(runningBuild, Constants.SELENIUM_HOST_ENV, getSeleniumHost(feature), logger);
-        addSharedEnvironmentVariable(runningBuild, Constants.SELENIUM_PORT_ENV, getSeleniumPort(feature), logger);
-        addSharedEnvironmentVariable(runningBuild, Constants.SELENIUM_STARTING_URL_ENV, feature.getParameters().get(Constants.SELENIUM_STARTING_URL_KEY), logger);
-        addSharedEnvironmentVariable(runningBuild, Constants.SELENIUM_MAX_DURATION_ENV, feature.getParameters().get(Constants.SELENIUM_MAX_DURATION_KEY), logger);
-        addSharedEnvironmentVariable(runningBuild, Constants.SELENIUM_IDLE_TIMEOUT_ENV, feature.getParameters().get(Constants.SELENIUM_IDLE_TIMEOUT_KEY), logger);
+        addSharedEnvironmentVariable(runningBuild, Constants.SELENIUM_HOST_ENV, config.getSeleniumHost(), logger);
+        addSharedEnvironmentVariable(runningBuild, Constants.SELENIUM_PORT_ENV, config.getSeleniumPort(), logger);
+        addSharedEnvironmentVariable(runningBuild, Constants.SELENIUM_STARTING_URL_ENV, config.getStartingUrl(), logger);
+        addSharedEnvironmentVariable(runningBuild, Constants.SELENIUM_MAX_DURATION_ENV, config.getMaxDuration(), logger);
+        addSharedEnvironmentVariable(runningBuild, Constants.SELENIUM_IDLE_TIMEOUT_ENV, config.getIdleTimeout(), logger);
         addSharedEnvironmentVariable(runningBuild, Constants.BUILD_NUMBER_ENV, runningBuild.getBuildTypeExternalId() + runningBuild.getBuildNumber(), logger);
     }
 
-    private void browserAsJSON(Logger logger, String userName, String apiKey, JSONArray browsersJSON, Browser browserInstance) {
-        if (browserInstance == null) {
-            return;
-        }
-        JSONObject config = new JSONObject();
-        try {
-            config.put("os", browserInstance.getOs());
-            config.put("browser", browserInstance.getBrowserName());
-            config.put("browser-version", browserInstance.getVersion());
-            config.put("long-name", browserInstance.getLongName());
-            config.put("long-version", browserInstance.getLongVersion());
-            config.put("url", browserInstance.getUri(userName, apiKey));
-            if (browserInstance.getDevice() != null) {
-                config.put("device", browserInstance.getDevice());
-            }
-            if (browserInstance.getDeviceType() != null) {
-                config.put("device-type", browserInstance.getDeviceType());
-            }
-            if (browserInstance.getDeviceOrientation() != null) {
-                config.put("device-orientation", browserInstance.getDeviceOrientation());
-            }
-
-        } catch (JSONException e) {
-            logger.error("Unable to create JSON Object", e);
-        }
-        browsersJSON.put(config);
-    }
-
     private void addSharedEnvironmentVariable(AgentRunningBuild runningBuild, String key, String value, Logger logger) {
         if (value != null) {
             logger.info("Setting environment variable {}", key);
@@ -299,31 +783,16 @@ public class SauceLifeCycleAdapter extends AgentLifeCycleAdapter {
         }
     }
 
-    private String getAccessKey(AgentBuildFeature feature, String agentName) {
-        ParametersProvider provider = new ParametersProvider(feature.getParameters(), agentName);
-        return provider.getAccessKey();
-    }
-
-    private String getUsername(AgentBuildFeature feature, String agentName) {
-        ParametersProvider provider = new ParametersProvider(feature.getParameters(), agentName);
-        return provider.getUsername();
-    }
-
-    private String getDataCenter(AgentBuildFeature feature, String agentName) {
-        ParametersProvider provider = new ParametersProvider(feature.getParameters(), agentName);
-        return provider.getDataCenter();
-    }
-
     /**
      * Generates a String that represents the Sauce OnDemand driver URL. This is used by the
      * <a href="http://selenium-client-factory.infradna.com/">selenium-client-factory</a> library to instantiate the Sauce-specific drivers.
      *
      * @param username String representing Sauce Username
      * @param apiKey   String representing Sauce API Key
-     * @param feature  Plugin configuration
+     * @param config   Plugin configuration
      * @return String representing the Sauce OnDemand driver URI
      */
-    protected String getSodDriverUri(String username, String apiKey, Browser browser, AgentBuildFeature feature) {
+    protected String getSodDriverUri(String username, String apiKey, Browser browser, SauceFeatureConfig config) {
         StringBuilder sb = new StringBuilder("sauce-ondemand:?username=");
         sb.append(username);
         sb.append("&access-key=").append(apiKey);
@@ -332,48 +801,131 @@ public class SauceLifeCycleAdapter extends AgentLifeCycleAdapter {
             sb.append("&browser=").append(browser.getBrowserName());
             sb.append("&browser-version=").append(browser.getVersion());
         }
-        sb.append("&max-duration=").append(feature.getParameters().get(Constants.SELENIUM_MAX_DURATION_KEY));
-        sb.append("&idle-timeout=").append(feature.getParameters().get(Constants.SELENIUM_IDLE_TIMEOUT_KEY));
+        sb.append("&max-duration=").append(config.getMaxDuration());
+        sb.append("&idle-timeout=").append(config.getIdleTimeout());
 
         return sb.toString();
     }
 
     /**
-     * @param feature      contains the Sauce information set by the user within the build configuration
+     * Tells the server that the session ids of the build are reported by the agent, so that the server stops scanning
+     * the build log for them.
      */
-    private String[] getSelectedBrowsers(Logger logger, AgentBuildFeature feature) {
-        logger.info("Retrieving parameter: {}", Constants.SELENIUM_SELECTED_BROWSER);
-        String selectedBrowser = feature.getParameters().get(Constants.SELENIUM_SELECTED_BROWSER);
-        logger.info("Parameter value: {}", selectedBrowser);
-        if (selectedBrowser != null) {
-            String[] selectedBrowsers = selectedBrowser.split(",");
-            if (selectedBrowsers.length != 0) {
-                return selectedBrowsers;
+    private void startReportingSessionIds(final AgentRunningBuild runningBuild) {
+        if (!TeamCityProperties.getBooleanOrTrue(REPORT_SESSION_IDS_PROPERTY)) return;
+        final SessionIdReporter reporter = new SessionIdReporter(
+                TeamCityProperties.getInteger(SESSION_IDS_BATCH_SIZE_PROPERTY, 20),
+                TeamCityProperties.getLong(SESSION_IDS_FLUSH_INTERVAL_PROPERTY, TimeUnit.SECONDS.toMillis(5)));
+        sessionIdReporters.put(runningBuild.getBuildId(), reporter);
+        runningBuild.getBuildLogger().message(ServiceMessage.asString(Constants.SESSION_IDS_SERVICE_MESSAGE, ""));
+
+        long period = Math.max(100L, reporter.getFlushIntervalMillis());
+        try {
+            sessionIdTimers.put(runningBuild.getBuildId(), sessionIdTimer.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        reportSessionIds(runningBuild, reporter, reporter.poll(System.currentTimeMillis()), false);
+                    } catch (RuntimeException e) {
+                        Loggers.AGENT.warn("[sauceplugin] Unable to report the Sauce session ids", e);
+                    }
+                }
+            }, period, period, TimeUnit.MILLISECONDS));
+        } catch (RejectedExecutionException e) {
+            //the agent is shutting down, the session ids are still reported as lines arrive and when steps finish
+        }
+    }
+
+    /**
+     * @return the session id reporter of the build, or null if the session ids of the build aren't reported
+     */
+    private SessionIdReporter stopReportingSessionIds(AgentRunningBuild build) {
+        ScheduledFuture<?> timer = sessionIdTimers.remove(build.getBuildId());
+        if (timer != null) {
+            timer.cancel(false);
+        }
+        return sessionIdReporters.remove(build.getBuildId());
+    }
+
+    /**
+     * Sends the session ids and their job names to the server as a {@code saucePluginSessionIds} service message, one
+     * session per line, along with the number of duplicate session ids removed on the agent since the last report.
+     * The service message doesn't contain 'SauceOnDemandSessionID', so it isn't picked up again when it is logged.
+     *
+     * @param last whether this is the last report of the build, which carries the remaining duplicate count even
+     *             without session ids
+     */
+    private void reportSessionIds(AgentRunningBuild build, SessionIdReporter reporter, List<String> sessions, boolean last) {
+        if (sessions.isEmpty() && !last) return;
+        long duplicates = reporter.takeDuplicateCount();
+        if (sessions.isEmpty() && duplicates == 0) return;
+        Map<String, String> attributes = new LinkedHashMap<String, String>();
+        attributes.put(Constants.SESSION_IDS_SESSIONS_ATTRIBUTE, StringUtils.join(sessions, '\n'));
+        attributes.put(Constants.SESSION_IDS_DUPLICATES_ATTRIBUTE, String.valueOf(duplicates));
+        build.getBuildLogger().message(ServiceMessage.asString(Constants.SESSION_IDS_SERVICE_MESSAGE, attributes));
+    }
+
+    /**
+     * @return the settings of the Sauce build features of the build, resolved when first needed by the build
+     */
+    private List<SauceFeatureConfig> getFeatureConfigs(@NotNull AgentRunningBuild runningBuild) {
+        List<SauceFeatureConfig> configs = featureConfigs.get(runningBuild.getBuildId());
+        if (configs == null) {
+            String agentName = runningBuild.getAgentConfiguration().getName();
+            List<SauceFeatureConfig> parsed = new ArrayList<SauceFeatureConfig>();
+            for (AgentBuildFeature feature : runningBuild.getBuildFeaturesOfType(Constants.BUILD_FEATURE_TYPE)) {
+                parsed.add(SauceFeatureConfig.parse(feature.getParameters(), agentName));
             }
+            configs = Collections.unmodifiableList(parsed);
+            featureConfigs.put(runningBuild.getBuildId(), configs);
         }
-        logger.info("Retrieving parameter: {}", Constants.SELENIUM_WEB_DRIVER_BROWSERS);
-        selectedBrowser = feature.getParameters().get(Constants.SELENIUM_WEB_DRIVER_BROWSERS);
-        logger.info("Parameter value: {}", selectedBrowser);
-        if (selectedBrowser != null) {
-            return selectedBrowser.split(",");
-        } else {
-            return new String[]{};
+        return configs;
+    }
+
+    /**
+     * @return a logger writing to the build log, in the background for the builds with the Sauce build feature, and to
+     * the agent log
+     */
+    private Logger getLogger(@NotNull AgentRunningBuild runningBuild) {
+        AsyncBuildLog buildLog = getBuildLog(runningBuild);
+        if (buildLog == null) {
+            return new LoggerBuildAndAgent(runningBuild.getBuildLogger(), false);
         }
+        return new LoggerBuildAndAgent(buildLog, isDebugMode(runningBuild));
     }
 
-    private PrintStream createPrintStream(@NotNull AgentRunningBuild build) {
-        return new PrintStream(NullOutputStream.INSTANCE) {
-            @Override
-            public void println(String x) {
-                build.getBuildLogger().logMessage(DefaultMessagesInfo.createTextMessage(x));
+    /**
+     * @return the log of the build written to in the background, or null if the build doesn't have the Sauce build
+     * feature
+     */
+    private AsyncBuildLog getBuildLog(@NotNull AgentRunningBuild runningBuild) {
+        AsyncBuildLog buildLog = buildLogs.get(runningBuild.getBuildId());
+        if (buildLog == null) {
+            if (getFeatureConfigs(runningBuild).isEmpty()) {
+                return null;
             }
-        };
+            AsyncBuildLog created = new AsyncBuildLog(runningBuild.getBuildLogger(), buildLogWriter);
+            buildLog = buildLogs.putIfAbsent(runningBuild.getBuildId(), created);
+            if (buildLog == null) {
+                buildLog = created;
+            }
+        }
+        return buildLog;
+    }
+
+    /**
+     * Writes the messages still queued for the build log, before the build finishes.
+     */
+    private void closeBuildLog(@NotNull AgentRunningBuild build) {
+        AsyncBuildLog buildLog = buildLogs.remove(build.getBuildId());
+        if (buildLog != null) {
+            buildLog.close(TeamCityProperties.getLong(BUILD_LOG_FLUSH_TIMEOUT_PROPERTY, TimeUnit.SECONDS.toMillis(10)));
+        }
     }
 
-    private Boolean isDebugMode(@NotNull AgentRunningBuild runningBuild) {
-        Collection<AgentBuildFeature> features = runningBuild.getBuildFeaturesOfType(Constants.BUILD_FEATURE_TYPE);
-        for (AgentBuildFeature feature : features) {
-            if (feature.getParameters().get(Constants.DEBUG_MODE).equals("true")) {
+    private boolean isDebugMode(@NotNull AgentRunningBuild runningBuild) {
+        for (SauceFeatureConfig config : getFeatureConfigs(runningBuild)) {
+            if (config.isDebugMode()) {
                 return true;
             }
         }
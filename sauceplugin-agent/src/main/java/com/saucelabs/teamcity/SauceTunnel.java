@@ -0,0 +1,88 @@
+package com.saucelabs.teamcity;
+
+import com.saucelabs.saucerest.DataCenter;
+
+/**
+ * A Sauce Connect tunnel opened by the plugin.
+ */
+public class SauceTunnel {
+
+    private final String key;
+    private final String username;
+    private final String options;
+    private final Process process;
+    private final TunnelOutput output;
+    private final long openedAt;
+
+    /**
+     * When the tunnel was last released by a build, guarded by the {@link SauceTunnelPool}.
+     */
+    long releasedAt;
+
+    /**
+     * @param key      identifies the tunnels which can be used in place of each other, see {@link #key}
+     * @param username the Sauce user which opened the tunnel
+     * @param options  the Sauce Connect options the tunnel was opened with
+     * @param process  the Sauce Connect process, or null if it isn't known
+     * @param output   receives the output of the process
+     */
+    public SauceTunnel(String key, String username, String options, Process process, TunnelOutput output) {
+        this.key = key;
+        this.username = username;
+        this.options = options;
+        this.process = process;
+        this.output = output;
+        this.openedAt = System.currentTimeMillis();
+    }
+
+    /**
+     * Two tunnels are interchangeable if they were opened by the same user, in the same region, with the same Sauce
+     * Connect version and options. Differences in the whitespace between the options are ignored.
+     *
+     * @param username
+     * @param region
+     * @param useLatestSauceConnect
+     * @param options
+     * @return the key of the tunnel
+     */
+    public static String key(String username, DataCenter region, boolean useLatestSauceConnect, String options) {
+        String normalizedOptions = options == null ? "" : options.trim().replaceAll("\\s+", " ");
+        return username + "|" + region + "|" + (useLatestSauceConnect ? "latest" : "default") + "|" + normalizedOptions;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public String getOptions() {
+        return options;
+    }
+
+    public TunnelOutput getOutput() {
+        return output;
+    }
+
+    public long getOpenedAt() {
+        return openedAt;
+    }
+
+    /**
+     * Kills the Sauce Connect process, if it is known, when it couldn't be closed in time.
+     */
+    public void destroyForcibly() {
+        if (process != null && process.isAlive()) {
+            process.destroyForcibly();
+        }
+    }
+
+    /**
+     * @return false if the Sauce Connect process is known to have exited
+     */
+    public boolean isAlive() {
+        return process == null || process.isAlive();
+    }
+}
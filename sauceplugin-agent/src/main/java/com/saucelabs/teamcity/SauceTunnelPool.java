@@ -0,0 +1,176 @@
+package com.saucelabs.teamcity;
+
+import com.saucelabs.ci.sauceconnect.SauceConnectManager;
+import jetbrains.buildServer.agent.BuildProgressLogger;
+import jetbrains.buildServer.serverSide.TeamCityProperties;
+import org.slf4j.Logger;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the Sauce Connect tunnels of finished builds open, so that the next build on the agent which needs a tunnel
+ * with the same key doesn't have to wait for Sauce Connect to start.
+ * <p>
+ * A tunnel is closed once it hasn't been used for {@code saucePlugin.tunnelPool.idleTimeoutMillis}, once it has been
+ * open for {@code saucePlugin.tunnelPool.maxLifetimeMillis}, when its process exits, and when the agent shuts down.
+ */
+public class SauceTunnelPool {
+
+    static final String IDLE_TIMEOUT_PROPERTY = "saucePlugin.tunnelPool.idleTimeoutMillis";
+    static final String MAX_LIFETIME_PROPERTY = "saucePlugin.tunnelPool.maxLifetimeMillis";
+
+    private final SauceConnectManager sauceConnectManager;
+    private final long idleTimeoutMillis;
+    private final long maxLifetimeMillis;
+
+    /**
+     * The tunnels not used by any build, keyed by {@link SauceTunnel#getKey()}.
+     */
+    private final Map<String, SauceTunnel> idleTunnels = new HashMap<String, SauceTunnel>();
+
+    private final ScheduledThreadPoolExecutor reaper;
+
+    private final Logger logger = new LoggerBuildAndAgent((BuildProgressLogger) null, false);
+
+    public SauceTunnelPool(SauceConnectManager sauceConnectManager) {
+        this(sauceConnectManager,
+                TeamCityProperties.getLong(IDLE_TIMEOUT_PROPERTY, TimeUnit.MINUTES.toMillis(10)),
+                TeamCityProperties.getLong(MAX_LIFETIME_PROPERTY, TimeUnit.HOURS.toMillis(4)));
+    }
+
+    SauceTunnelPool(SauceConnectManager sauceConnectManager, long idleTimeoutMillis, long maxLifetimeMillis) {
+        this.sauceConnectManager = sauceConnectManager;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.maxLifetimeMillis = maxLifetimeMillis;
+        this.reaper = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "sauce-tunnel-pool");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        this.reaper.setRemoveOnCancelPolicy(true);
+    }
+
+    /**
+     * @param key         the key of the tunnel the build needs
+     * @param buildLog    the log of the build, which receives the output of the tunnel from now on
+     * @param logFile     receives the complete output of the tunnel from now on, or null
+     * @return an open tunnel with the key, or null if there isn't one
+     */
+    public SauceTunnel acquire(String key, AsyncBuildLog buildLog, SauceConnectLogFile logFile) {
+        SauceTunnel tunnel;
+        synchronized (idleTunnels) {
+            tunnel = idleTunnels.remove(key);
+        }
+        if (tunnel == null) {
+            return null;
+        }
+        if (!isReusable(tunnel, System.currentTimeMillis())) {
+            close(tunnel);
+            return null;
+        }
+        tunnel.getOutput().setBuildLog(buildLog, logFile);
+        return tunnel;
+    }
+
+    /**
+     * Keeps the tunnel open for the next build, unless it can't be reused.
+     *
+     * @param tunnel a tunnel no longer used by the build
+     */
+    public void release(SauceTunnel tunnel) {
+        tunnel.getOutput().setBuildLog(null, null);
+        long now = System.currentTimeMillis();
+        if (!isReusable(tunnel, now)) {
+            close(tunnel);
+            return;
+        }
+        SauceTunnel replaced;
+        synchronized (idleTunnels) {
+            tunnel.releasedAt = now;
+            replaced = idleTunnels.put(tunnel.getKey(), tunnel);
+        }
+        if (replaced != null) {
+            close(replaced);
+        }
+        try {
+            reaper.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    closeExpired();
+                }
+            }, Math.min(idleTimeoutMillis, maxLifetimeMillis - (now - tunnel.getOpenedAt())), TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            //shutting down, the tunnel is closed by shutdown()
+        }
+    }
+
+    /**
+     * Closes the tunnels which have been idle for too long, or open for too long.
+     */
+    void closeExpired() {
+        long now = System.currentTimeMillis();
+        List<SauceTunnel> expired = new ArrayList<SauceTunnel>();
+        synchronized (idleTunnels) {
+            for (Iterator<SauceTunnel> iterator = idleTunnels.values().iterator(); iterator.hasNext(); ) {
+                SauceTunnel tunnel = iterator.next();
+                if (now - tunnel.releasedAt >= idleTimeoutMillis || !isReusable(tunnel, now)) {
+                    iterator.remove();
+                    expired.add(tunnel);
+                }
+            }
+        }
+        for (SauceTunnel tunnel : expired) {
+            close(tunnel);
+        }
+    }
+
+    /**
+     * Closes all the idle tunnels, called when the agent shuts down.
+     */
+    public void shutdown() {
+        reaper.shutdownNow();
+        List<SauceTunnel> tunnels;
+        synchronized (idleTunnels) {
+            tunnels = new ArrayList<SauceTunnel>(idleTunnels.values());
+            idleTunnels.clear();
+        }
+        for (SauceTunnel tunnel : tunnels) {
+            close(tunnel);
+        }
+    }
+
+    public int getIdleCount() {
+        synchronized (idleTunnels) {
+            return idleTunnels.size();
+        }
+    }
+
+    private boolean isReusable(SauceTunnel tunnel, long now) {
+        return tunnel.isAlive() && now - tunnel.getOpenedAt() < maxLifetimeMillis;
+    }
+
+    /**
+     * Closes a tunnel removed from the pool, or which can't be reused.
+     *
+     * @param tunnel
+     */
+    void close(SauceTunnel tunnel) {
+        logger.info("Closing idle Sauce Connect tunnel for {}", tunnel.getUsername());
+        try {
+            sauceConnectManager.closeTunnelsForPlan(tunnel.getUsername(), tunnel.getOptions(), logger);
+        } catch (RuntimeException e) {
+            logger.warn("Unable to close Sauce Connect tunnel for " + tunnel.getUsername(), e);
+        }
+    }
+}
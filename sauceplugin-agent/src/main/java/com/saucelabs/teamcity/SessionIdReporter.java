@@ -0,0 +1,102 @@
+package com.saucelabs.teamcity;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Picks the Sauce session ids out of the output of a build as it is logged on the agent, and batches the ids not seen
+ * before, so that they can be reported to the server with a {@code saucePluginSessionIds} service message instead of
+ * the server scanning every line of the build log.
+ * <p>
+ * Each entry of a batch is the session id, followed by a space and the job name if one was logged with it. The session
+ * ids logged again are removed here, their number is reported with the batches by {@link #takeDuplicateCount()}.
+ * <p>
+ * A batch is released once it holds {@code batchSize} session ids, or once its first session id has waited
+ * {@code flushIntervalMillis}, whichever comes first. The wait is checked as lines arrive, and with {@link #poll(long)}
+ * by a timer, so that the last session ids of a quiet build step aren't held back. The ids still pending when a build
+ * step finishes are released with {@link #drain()}.
+ */
+public class SessionIdReporter {
+
+    private final SessionIdCollector collector = new SessionIdCollector();
+
+    private final List<String> pending = new ArrayList<String>();
+
+    private final int batchSize;
+
+    private final long flushIntervalMillis;
+
+    private long pendingSince;
+
+    private long reportedDuplicates;
+
+    /**
+     * @param batchSize           number of session ids after which a batch is released
+     * @param flushIntervalMillis maximum time a session id waits for the batch to fill up
+     */
+    public SessionIdReporter(int batchSize, long flushIntervalMillis) {
+        this.batchSize = Math.max(1, batchSize);
+        this.flushIntervalMillis = flushIntervalMillis;
+    }
+
+    /**
+     * @param line a single line of build output
+     * @param now  the current time in milliseconds
+     * @return the entries to report now, empty if the batch isn't complete yet
+     */
+    public List<String> accept(String line, long now) {
+        String sessionId = SessionIdCollector.extractSessionId(line);
+        String jobName = sessionId == null ? null : SessionIdCollector.extractJobName(line);
+        synchronized (this) {
+            if (sessionId != null && collector.add(sessionId, jobName)) {
+                if (pending.isEmpty()) {
+                    pendingSince = now;
+                }
+                pending.add(jobName == null ? sessionId : sessionId + ' ' + jobName);
+            }
+            if (pending.isEmpty() || (pending.size() < batchSize && now - pendingSince < flushIntervalMillis)) {
+                return Collections.emptyList();
+            }
+            return drain();
+        }
+    }
+
+    /**
+     * @param now the current time in milliseconds
+     * @return the entries to report now because the first of them has waited {@code flushIntervalMillis}, empty
+     * otherwise
+     */
+    public synchronized List<String> poll(long now) {
+        if (pending.isEmpty() || now - pendingSince < flushIntervalMillis) {
+            return Collections.emptyList();
+        }
+        return drain();
+    }
+
+    public long getFlushIntervalMillis() {
+        return flushIntervalMillis;
+    }
+
+    /**
+     * @return the number of session ids logged again since the last call
+     */
+    public synchronized long takeDuplicateCount() {
+        long duplicates = collector.getDuplicateCount();
+        long count = duplicates - reportedDuplicates;
+        reportedDuplicates = duplicates;
+        return count;
+    }
+
+    /**
+     * @return the entries not reported yet
+     */
+    public synchronized List<String> drain() {
+        if (pending.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<String> batch = new ArrayList<String>(pending);
+        pending.clear();
+        return batch;
+    }
+}
@@ -0,0 +1,90 @@
+package com.saucelabs.teamcity;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+/**
+ * The tunnels of a build being closed in the background when the build finishes. The tunnels are told apart by the
+ * future which completes with them rather than by their Sauce Connect options, as the tunnels of two features can be
+ * started with the same options.
+ * <p>
+ * The build only waits a limited time for them. Once it stops waiting the closing is abandoned: the tunnels still
+ * starting or closing are killed as soon as they are known, none of them is kept open for the next build, and the
+ * loggers of the tasks closing them stop writing to the build log, so that the build log can be closed.
+ */
+class TunnelClosing {
+
+    private final List<CompletableFuture<SauceTunnel>> tunnels = new ArrayList<CompletableFuture<SauceTunnel>>();
+
+    private final List<LoggerBuildAndAgent> loggers = new ArrayList<LoggerBuildAndAgent>();
+
+    private boolean abandoned;
+
+    /**
+     * @param logger a logger used by the tasks closing the tunnels, detached from the build log once abandoned
+     */
+    synchronized void addLogger(LoggerBuildAndAgent logger) {
+        if (abandoned) {
+            logger.detachBuildLog();
+        } else {
+            loggers.add(logger);
+        }
+    }
+
+    /**
+     * Starts closing a tunnel, which may still be starting in the background.
+     *
+     * @param tunnel completes with the tunnel once started, or with null if it couldn't be started
+     */
+    synchronized void add(CompletableFuture<SauceTunnel> tunnel) {
+        if (abandoned) {
+            kill(tunnel);
+        } else {
+            tunnels.add(tunnel);
+        }
+    }
+
+    /**
+     * Finishes closing a tunnel.
+     *
+     * @param tunnel the future given to {@link #add}
+     * @return false if the closing was abandoned, in which case the tunnel is being killed and mustn't be reused
+     */
+    synchronized boolean remove(CompletableFuture<SauceTunnel> tunnel) {
+        return tunnels.remove(tunnel);
+    }
+
+    /**
+     * Abandons the closing: kills the tunnels not closed yet, including the ones still starting, and detaches the
+     * loggers from the build log.
+     *
+     * @return the number of tunnels which weren't closed
+     */
+    synchronized int abandon() {
+        abandoned = true;
+        for (LoggerBuildAndAgent logger : loggers) {
+            logger.detachBuildLog();
+        }
+        loggers.clear();
+        int count = tunnels.size();
+        for (CompletableFuture<SauceTunnel> tunnel : tunnels) {
+            kill(tunnel);
+        }
+        tunnels.clear();
+        return count;
+    }
+
+    private static void kill(CompletableFuture<SauceTunnel> tunnel) {
+        tunnel.thenAccept(new Consumer<SauceTunnel>() {
+            @Override
+            public void accept(SauceTunnel tunnel) {
+                if (tunnel != null) {
+                    tunnel.destroyForcibly();
+                    tunnel.getOutput().setBuildLog(null, null);
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,100 @@
+package com.saucelabs.teamcity;
+
+import jetbrains.buildServer.log.Loggers;
+import jetbrains.buildServer.messages.DefaultMessagesInfo;
+import jetbrains.buildServer.serverSide.TeamCityProperties;
+import org.apache.commons.io.output.NullOutputStream;
+
+import java.io.PrintStream;
+import java.util.function.Consumer;
+
+/**
+ * Receives the output of a Sauce Connect process, and writes it to the log of the build currently using the tunnel.
+ * <p>
+ * A tunnel kept warm between builds outlives the build which opened it, so its output is retargeted to the build
+ * reusing it, and goes to the agent log while no build is using it. Each build using the tunnel gets its own
+ * {@link SauceConnectMetrics}.
+ * <p>
+ * Every line is written to the {@link SauceConnectLogFile} of the build, while the build log only gets the lines kept
+ * by a {@link SauceConnectOutputFilter}, rate limited by {@code saucePlugin.sauceConnect.output.linesPerSecond} and
+ * {@code saucePlugin.sauceConnect.output.burst}.
+ */
+public class TunnelOutput extends PrintStream {
+
+    static final String LINES_PER_SECOND_PROPERTY = "saucePlugin.sauceConnect.output.linesPerSecond";
+    static final String BURST_PROPERTY = "saucePlugin.sauceConnect.output.burst";
+
+    private volatile AsyncBuildLog buildLog;
+
+    private volatile SauceConnectLogFile logFile;
+
+    private volatile SauceConnectOutputFilter filter = newFilter();
+
+    private volatile SauceConnectMetrics metrics = new SauceConnectMetrics();
+
+    /**
+     * @param buildLog the log of the build opening the tunnel
+     * @param logFile  receives the complete output for the build opening the tunnel, or null
+     */
+    public TunnelOutput(AsyncBuildLog buildLog, SauceConnectLogFile logFile) {
+        super(NullOutputStream.INSTANCE);
+        this.buildLog = buildLog;
+        this.logFile = logFile;
+    }
+
+    /**
+     * Reports the lines left out of the log of the build which used the tunnel so far, and retargets the output.
+     *
+     * @param buildLog the log of the build now using the tunnel, or null if no build is using it
+     * @param logFile  receives the complete output for the build now using the tunnel, or null
+     */
+    public void setBuildLog(AsyncBuildLog buildLog, SauceConnectLogFile logFile) {
+        final AsyncBuildLog previous = this.buildLog;
+        if (previous != null) {
+            filter.flush(new Consumer<String>() {
+                @Override
+                public void accept(String line) {
+                    previous.logMessage(DefaultMessagesInfo.createTextMessage(line));
+                }
+            });
+        }
+        if (buildLog != null) {
+            this.metrics = new SauceConnectMetrics();
+            this.filter = newFilter();
+        }
+        this.logFile = logFile;
+        this.buildLog = buildLog;
+    }
+
+    /**
+     * @return the metrics of the tunnel since the current build started using it
+     */
+    public SauceConnectMetrics getMetrics() {
+        return metrics;
+    }
+
+    @Override
+    public void println(String x) {
+        SauceConnectLogFile file = logFile;
+        if (file != null) {
+            file.write(x);
+        }
+        final AsyncBuildLog log = buildLog;
+        if (log != null) {
+            filter.accept(x, System.currentTimeMillis(), new Consumer<String>() {
+                @Override
+                public void accept(String line) {
+                    log.logMessage(DefaultMessagesInfo.createTextMessage(line));
+                }
+            });
+        } else {
+            Loggers.AGENT.debug("[sauceplugin] [Sauce Connect] " + x);
+        }
+    }
+
+    private static SauceConnectOutputFilter newFilter() {
+        return new SauceConnectOutputFilter(
+                TeamCityProperties.getInteger(LINES_PER_SECOND_PROPERTY, 20),
+                TeamCityProperties.getInteger(BURST_PROPERTY, 200));
+    }
+}
@@ -0,0 +1,107 @@
+package com.saucelabs.teamcity;
+
+import jetbrains.buildServer.agent.BuildProgressLogger;
+import jetbrains.buildServer.messages.BuildMessage1;
+import jetbrains.buildServer.messages.DefaultMessagesInfo;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+public class AsyncBuildLogTest {
+
+    private final List<String> written = new CopyOnWriteArrayList<String>();
+
+    private final BuildProgressLogger buildLogger = recordingLogger(written);
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(2);
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testWritesMessagesInOrderInTheBackground() {
+        AsyncBuildLog buildLog = new AsyncBuildLog(buildLogger, executor);
+        List<String> expected = new ArrayList<String>();
+        for (int i = 0; i < 2000; i++) {
+            expected.add("message " + i);
+            buildLog.logMessage(DefaultMessagesInfo.createTextMessage("message " + i));
+        }
+
+        Assert.assertTrue(buildLog.flush(10000));
+        Assert.assertEquals(expected, written);
+    }
+
+    @Test
+    public void testCloseWritesQueuedMessages() {
+        List<Runnable> batches = new ArrayList<Runnable>();
+        AsyncBuildLog buildLog = new AsyncBuildLog(buildLogger, pending(batches));
+        buildLog.logMessage(DefaultMessagesInfo.createTextMessage("first"));
+        buildLog.logMessage(DefaultMessagesInfo.createTextMessage("second"));
+
+        Assert.assertFalse(buildLog.flush(50));
+        Assert.assertEquals(Collections.emptyList(), written);
+        buildLog.close(50);
+        Assert.assertEquals(Arrays.asList("first", "second"), written);
+
+        //the batch scheduled before closing finds nothing left to write
+        batches.get(0).run();
+        Assert.assertEquals(Arrays.asList("first", "second"), written);
+    }
+
+    @Test
+    public void testWritesDirectlyOnceClosed() {
+        List<Runnable> batches = new ArrayList<Runnable>();
+        AsyncBuildLog buildLog = new AsyncBuildLog(buildLogger, pending(batches));
+        buildLog.close(50);
+        buildLog.logMessage(DefaultMessagesInfo.createTextMessage("late"));
+
+        Assert.assertEquals(Collections.singletonList("late"), written);
+        Assert.assertEquals(Collections.emptyList(), batches);
+    }
+
+    @Test
+    public void testWritesBatchDirectlyWhenExecutorIsShutDown() {
+        executor.shutdown();
+        AsyncBuildLog buildLog = new AsyncBuildLog(buildLogger, executor);
+        buildLog.logMessage(DefaultMessagesInfo.createTextMessage("first"));
+        buildLog.logMessage(DefaultMessagesInfo.createTextMessage("second"));
+
+        Assert.assertEquals(Arrays.asList("first", "second"), written);
+        Assert.assertTrue(buildLog.flush(0));
+    }
+
+    /**
+     * @return an executor which keeps the tasks it's given instead of running them
+     */
+    private static Executor pending(final List<Runnable> tasks) {
+        return new Executor() {
+            @Override
+            public void execute(Runnable task) {
+                tasks.add(task);
+            }
+        };
+    }
+
+    /**
+     * @return a build log which records the text of the messages written to it
+     */
+    static BuildProgressLogger recordingLogger(final List<String> written) {
+        return Stubs.stub(BuildProgressLogger.class, Stubs.answers(
+                "logMessage", (Stubs.Answer) args -> {
+                    written.add(String.valueOf(((BuildMessage1) args[0]).getValue()));
+                    return null;
+                }));
+    }
+}
@@ -0,0 +1,195 @@
+package com.saucelabs.teamcity;
+
+import com.saucelabs.ci.Browser;
+import com.saucelabs.ci.BrowserFactory;
+import jetbrains.buildServer.agent.BuildAgentConfiguration;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+public class BrowserCatalogTest {
+
+    private File cacheDirectory;
+
+    private BuildAgentConfiguration agentConfiguration;
+
+    private final List<BrowserCatalog> catalogs = new ArrayList<BrowserCatalog>();
+
+    @Before
+    public void setUp() throws IOException {
+        cacheDirectory = Files.createTempDirectory("cache").toFile();
+        agentConfiguration = Stubs.stub(BuildAgentConfiguration.class, Stubs.answers(
+                "getCacheDirectory", cacheDirectory));
+    }
+
+    @After
+    public void tearDown() {
+        for (BrowserCatalog catalog : catalogs) {
+            catalog.shutdown();
+        }
+        System.clearProperty(BrowserCatalog.TTL_PROPERTY);
+        delete(cacheDirectory);
+    }
+
+    @Test
+    public void testRetrievesCatalogInBackgroundWhenNoneIsPersisted() throws InterruptedException {
+        RecordingFactory factory = new RecordingFactory(browser("chrome"));
+        BrowserCatalog catalog = catalog(factory);
+
+        //looked up on its own while the catalog is being retrieved
+        Assert.assertEquals("looked up chrome", catalog.webDriverBrowserForKey("chrome").getName());
+        await(() -> factory.retrievals.get() == 1);
+        factory.gate.countDown();
+        await(() -> "chrome".equals(catalog.webDriverBrowserForKey("chrome").getName()));
+        await(() -> getFile().isFile());
+        Assert.assertEquals(1, factory.retrievals.get());
+    }
+
+    @Test
+    public void testReadsPersistedCatalog() throws InterruptedException {
+        Browser device = browser("iphone");
+        device.setDevice("iPhone 15");
+        device.setDeviceType("phone");
+        device.setDeviceOrientation("portrait");
+        Browser withoutOs = new Browser("safari", null, "safari", "Safari", "17", null, "safari");
+        RecordingFactory factory = new RecordingFactory(browser("chrome"), device, withoutOs);
+        factory.gate.countDown();
+        catalog(factory).webDriverBrowserForKey("chrome");
+        await(() -> getFile().isFile());
+
+        RecordingFactory unused = new RecordingFactory();
+        BrowserCatalog catalog = catalog(unused);
+        assertSameBrowser(browser("chrome"), catalog.webDriverBrowserForKey("chrome"));
+        assertSameBrowser(device, catalog.webDriverBrowserForKey("iphone"));
+        assertSameBrowser(withoutOs, catalog.webDriverBrowserForKey("safari"));
+        Thread.sleep(100);
+        Assert.assertEquals(0, unused.retrievals.get());
+        Assert.assertEquals(0, unused.lookups.get());
+    }
+
+    @Test
+    public void testRefreshesOutOfDateCatalogInBackground() throws InterruptedException {
+        System.setProperty(BrowserCatalog.TTL_PROPERTY, String.valueOf(TimeUnit.MINUTES.toMillis(1)));
+        RecordingFactory factory = new RecordingFactory(browser("chrome"));
+        factory.gate.countDown();
+        catalog(factory).webDriverBrowserForKey("chrome");
+        await(() -> getFile().isFile());
+        Assert.assertTrue(getFile().setLastModified(System.currentTimeMillis() - TimeUnit.MINUTES.toMillis(2)));
+
+        Browser refreshed = new Browser("chrome", "Windows 11", "chrome", "Google Chrome", "121", "121.0", "refreshed");
+        RecordingFactory refreshing = new RecordingFactory(refreshed);
+        BrowserCatalog catalog = catalog(refreshing);
+        Assert.assertEquals("chrome", catalog.webDriverBrowserForKey("chrome").getName());
+        refreshing.gate.countDown();
+        await(() -> "refreshed".equals(catalog.webDriverBrowserForKey("chrome").getName()));
+        Assert.assertEquals(1, refreshing.retrievals.get());
+    }
+
+    @Test
+    public void testDoesNotRefreshCatalogWithinTtl() throws InterruptedException {
+        System.setProperty(BrowserCatalog.TTL_PROPERTY, String.valueOf(TimeUnit.MINUTES.toMillis(1)));
+        RecordingFactory factory = new RecordingFactory(browser("chrome"));
+        factory.gate.countDown();
+        catalog(factory).webDriverBrowserForKey("chrome");
+        await(() -> getFile().isFile());
+
+        RecordingFactory unused = new RecordingFactory();
+        BrowserCatalog catalog = catalog(unused);
+        catalog.preload();
+        Assert.assertEquals("chrome", catalog.webDriverBrowserForKey("chrome").getName());
+        Thread.sleep(100);
+        Assert.assertEquals(0, unused.retrievals.get());
+    }
+
+    private BrowserCatalog catalog(BrowserFactory factory) {
+        BrowserCatalog catalog = new BrowserCatalog(factory, agentConfiguration);
+        catalogs.add(catalog);
+        return catalog;
+    }
+
+    private File getFile() {
+        return new File(cacheDirectory, "browsers.json");
+    }
+
+    private static Browser browser(String key) {
+        return new Browser(key, "Windows 10", key, "Google Chrome", "120", "120.0", key);
+    }
+
+    private static void assertSameBrowser(Browser expected, Browser actual) {
+        Assert.assertEquals(expected.getKey(), actual.getKey());
+        Assert.assertEquals(expected.getOs(), actual.getOs());
+        Assert.assertEquals(expected.getBrowserName(), actual.getBrowserName());
+        Assert.assertEquals(expected.getLongName(), actual.getLongName());
+        Assert.assertEquals(expected.getVersion(), actual.getVersion());
+        Assert.assertEquals(expected.getLongVersion(), actual.getLongVersion());
+        Assert.assertEquals(expected.getName(), actual.getName());
+        Assert.assertEquals(expected.getDevice(), actual.getDevice());
+        Assert.assertEquals(expected.getDeviceType(), actual.getDeviceType());
+        Assert.assertEquals(expected.getDeviceOrientation(), actual.getDeviceOrientation());
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(10);
+        while (!condition.getAsBoolean() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Assert.assertTrue(condition.getAsBoolean());
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    /**
+     * Retrieves the browsers it's given once its gate is opened, and counts the calls to the Sauce platforms API.
+     */
+    private static class RecordingFactory extends BrowserFactory {
+
+        final CountDownLatch gate = new CountDownLatch(1);
+
+        final AtomicInteger retrievals = new AtomicInteger();
+
+        final AtomicInteger lookups = new AtomicInteger();
+
+        private final List<Browser> browsers;
+
+        RecordingFactory(Browser... browsers) {
+            this.browsers = Arrays.asList(browsers);
+        }
+
+        @Override
+        public List<Browser> getWebDriverBrowsers() {
+            retrievals.incrementAndGet();
+            try {
+                gate.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return browsers;
+        }
+
+        @Override
+        public Browser webDriverBrowserForKey(String key) {
+            lookups.incrementAndGet();
+            return new Browser(key, null, key, null, null, null, "looked up " + key);
+        }
+    }
+}
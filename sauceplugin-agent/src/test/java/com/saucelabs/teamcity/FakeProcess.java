@@ -0,0 +1,58 @@
+package com.saucelabs.teamcity;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Stands for a Sauce Connect process, alive until destroyed.
+ */
+class FakeProcess extends Process {
+
+    volatile boolean alive = true;
+
+    @Override
+    public OutputStream getOutputStream() {
+        return new ByteArrayOutputStream();
+    }
+
+    @Override
+    public InputStream getInputStream() {
+        return new ByteArrayInputStream(new byte[0]);
+    }
+
+    @Override
+    public InputStream getErrorStream() {
+        return new ByteArrayInputStream(new byte[0]);
+    }
+
+    @Override
+    public int waitFor() {
+        return 0;
+    }
+
+    @Override
+    public int exitValue() {
+        if (alive) {
+            throw new IllegalThreadStateException();
+        }
+        return 0;
+    }
+
+    @Override
+    public void destroy() {
+        alive = false;
+    }
+
+    @Override
+    public Process destroyForcibly() {
+        alive = false;
+        return this;
+    }
+
+    @Override
+    public boolean isAlive() {
+        return alive;
+    }
+}
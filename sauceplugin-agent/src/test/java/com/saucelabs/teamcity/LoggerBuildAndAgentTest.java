@@ -0,0 +1,77 @@
+package com.saucelabs.teamcity;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+public class LoggerBuildAndAgentTest {
+
+    private final List<String> written = new CopyOnWriteArrayList<String>();
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testOnlyLogsDebugToBuildLogInVerboseMode() {
+        LoggerBuildAndAgent logger = new LoggerBuildAndAgent(AsyncBuildLogTest.recordingLogger(written), false);
+        logger.trace("trace");
+        logger.debug("debug {}", 1);
+        logger.info("info {}", 2);
+        logger.warn("warn");
+        logger.error("error");
+
+        Assert.assertEquals(Arrays.asList(
+                "[sauceplugin] [INFO] info 2",
+                "[sauceplugin] [WARN] warn",
+                "[sauceplugin] [ERROR] error"), written);
+
+        written.clear();
+        LoggerBuildAndAgent verbose = new LoggerBuildAndAgent(AsyncBuildLogTest.recordingLogger(written), true);
+        verbose.trace("trace");
+        verbose.debug("debug {}", 1);
+
+        Assert.assertTrue(verbose.isDebugEnabled());
+        Assert.assertEquals(Arrays.asList(
+                "[sauceplugin] [TRACE] trace",
+                "[sauceplugin] [DEBUG] debug 1"), written);
+    }
+
+    @Test
+    public void testLogsInOrderThroughAsyncBuildLog() {
+        AsyncBuildLog buildLog = new AsyncBuildLog(AsyncBuildLogTest.recordingLogger(written), executor);
+        LoggerBuildAndAgent logger = new LoggerBuildAndAgent(buildLog, false);
+        for (int i = 0; i < 500; i++) {
+            logger.info("line {}", i);
+        }
+        buildLog.close(10000);
+
+        Assert.assertEquals(500, written.size());
+        for (int i = 0; i < 500; i++) {
+            Assert.assertEquals("[sauceplugin] [INFO] line " + i, written.get(i));
+        }
+    }
+
+    @Test
+    public void testDropsBuildLogMessagesOnceDetached() {
+        AsyncBuildLog buildLog = new AsyncBuildLog(AsyncBuildLogTest.recordingLogger(written), executor);
+        LoggerBuildAndAgent logger = new LoggerBuildAndAgent(buildLog, true);
+        logger.info("before");
+        logger.detachBuildLog();
+        logger.info("after");
+        logger.debug("after");
+        buildLog.close(10000);
+
+        Assert.assertEquals(Collections.singletonList("[sauceplugin] [INFO] before"), written);
+    }
+}
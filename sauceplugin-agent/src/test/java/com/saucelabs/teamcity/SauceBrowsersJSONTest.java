@@ -0,0 +1,112 @@
+package com.saucelabs.teamcity;
+
+import com.saucelabs.ci.Browser;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class SauceBrowsersJSONTest {
+
+    @Test
+    public void testMatchesJSONBuiltWithOrgJson() {
+        List<Browser> browsers = browsers();
+        JSONArray streamed = new JSONArray(SauceBrowsersJSON.toJSON("user", "key", browsers));
+
+        Assert.assertTrue(streamed.toString(), streamed.similar(legacyJSON("user", "key", browsers)));
+    }
+
+    @Test
+    public void testEscapesStrings() {
+        Browser browser = new Browser("chrome", "Windows 10", "chrome", "Chrome \"beta\" \\ </script>\n\t\r\u0001 \u00e9 \u2028", "120", "120.0", "chrome");
+        JSONObject json = new JSONArray(SauceBrowsersJSON.toJSON("user", "key", Collections.singletonList(browser))).getJSONObject(0);
+
+        Assert.assertEquals(browser.getLongName(), json.getString("long-name"));
+    }
+
+    @Test
+    public void testLeavesOutFieldsWithoutValue() {
+        Browser browser = new Browser("safari", null, "safari", "Safari", null, null, "safari");
+        JSONObject json = new JSONArray(SauceBrowsersJSON.toJSON("user", "key", Arrays.asList(null, browser))).getJSONObject(0);
+
+        Assert.assertFalse(json.has("os"));
+        Assert.assertFalse(json.has("browser-version"));
+        Assert.assertFalse(json.has("long-version"));
+        Assert.assertFalse(json.has("device"));
+        Assert.assertFalse(json.has("device-type"));
+        Assert.assertFalse(json.has("device-orientation"));
+        Assert.assertEquals("safari", json.getString("browser"));
+        Assert.assertEquals("[]", SauceBrowsersJSON.toJSON("user", "key", Collections.<Browser>emptyList()));
+    }
+
+    @Test
+    public void testWritesSameJSONToFile() throws IOException {
+        File directory = Files.createTempDirectory("browsers").toFile();
+        File file = new File(new File(directory, "sauce"), "browsers.json");
+        try {
+            SauceBrowsersJSON.writeToFile(file, "user", "key", browsers());
+
+            Assert.assertEquals(SauceBrowsersJSON.toJSON("user", "key", browsers()),
+                    new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8));
+        } finally {
+            file.delete();
+            file.getParentFile().delete();
+            directory.delete();
+        }
+    }
+
+    /**
+     * A desktop browser, a device with all the optional device keys, one with a field to escape and one without
+     * most fields.
+     */
+    private static List<Browser> browsers() {
+        Browser device = new Browser("iphone", "iOS", "safari", "iPhone", "17", "17.0", "iphone");
+        device.setDevice("iPhone 15");
+        device.setDeviceType("phone");
+        device.setDeviceOrientation("portrait");
+        return Arrays.asList(
+                new Browser("chrome", "Windows 10", "chrome", "Google Chrome", "120", "120.0", "chrome"),
+                device,
+                new Browser("edge", "Windows 11", "MicrosoftEdge", "Edge \"Chromium\" \\ \n", "latest", "latest", "edge"),
+                null,
+                new Browser("safari", null, "safari", null, null, null, "safari"));
+    }
+
+    /**
+     * The JSON as it was built with org.json before it was streamed.
+     */
+    private static JSONArray legacyJSON(String userName, String apiKey, List<Browser> browsers) {
+        JSONArray browsersJSON = new JSONArray();
+        for (Browser browser : browsers) {
+            if (browser == null) {
+                continue;
+            }
+            JSONObject config = new JSONObject();
+            config.put("os", browser.getOs());
+            config.put("browser", browser.getBrowserName());
+            config.put("browser-version", browser.getVersion());
+            config.put("long-name", browser.getLongName());
+            config.put("long-version", browser.getLongVersion());
+            config.put("url", browser.getUri(userName, apiKey));
+            if (browser.getDevice() != null) {
+                config.put("device", browser.getDevice());
+            }
+            if (browser.getDeviceType() != null) {
+                config.put("device-type", browser.getDeviceType());
+            }
+            if (browser.getDeviceOrientation() != null) {
+                config.put("device-orientation", browser.getDeviceOrientation());
+            }
+            browsersJSON.put(config);
+        }
+        return browsersJSON;
+    }
+}
@@ -0,0 +1,459 @@
+package com.saucelabs.teamcity;
+
+import com.saucelabs.ci.sauceconnect.AbstractSauceTunnelManager;
+import com.saucelabs.saucerest.DataCenter;
+import jetbrains.buildServer.BuildProblemData;
+import jetbrains.buildServer.agent.AgentBuildFeature;
+import jetbrains.buildServer.agent.AgentLifeCycleListener;
+import jetbrains.buildServer.agent.AgentRunningBuild;
+import jetbrains.buildServer.agent.BuildAgentConfiguration;
+import jetbrains.buildServer.agent.BuildFinishedStatus;
+import jetbrains.buildServer.agent.BuildProgressLogger;
+import jetbrains.buildServer.agent.BuildRunnerContext;
+import jetbrains.buildServer.messages.BuildMessage1;
+import jetbrains.buildServer.util.EventDispatcher;
+import org.json.JSONArray;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class SauceLifeCycleAdapterTest {
+
+    private static final long TIMEOUT_SECONDS = 10;
+
+    private File tempDirectory;
+
+    private TestAdapter adapter;
+
+    private final List<String> buildLog = new CopyOnWriteArrayList<String>();
+
+    private final Map<String, String> environment = new ConcurrentHashMap<String, String>();
+
+    @Before
+    public void setUp() throws IOException {
+        System.setProperty(SauceLifeCycleAdapter.REPORT_SESSION_IDS_PROPERTY, "false");
+        tempDirectory = Files.createTempDirectory("sauce-lifecycle").toFile();
+        adapter = new TestAdapter();
+    }
+
+    @After
+    public void tearDown() {
+        adapter.startGate.countDown();
+        adapter.closeGate.countDown();
+        adapter.agentShutdown();
+        adapter.pool.shutdown();
+        System.clearProperty(SauceLifeCycleAdapter.REPORT_SESSION_IDS_PROPERTY);
+        System.clearProperty(SauceLifeCycleAdapter.CLOSE_TIMEOUT_PROPERTY);
+    }
+
+    @Test
+    public void testStartsSauceConnectBeforeBuildWhenNotInBackground() throws Exception {
+        AgentRunningBuild build = build(1, feature());
+
+        adapter.buildStarted(build);
+
+        Assert.assertEquals(Arrays.asList("starting teamcity-agent", "started teamcity-agent"), adapter.events);
+        Assert.assertEquals("teamcity-agent", environment.get(Constants.TUNNEL_IDENTIFIER));
+    }
+
+    @Test
+    public void testFirstStepWaitsForSauceConnectStartedInBackground() throws Exception {
+        adapter.startGate = new CountDownLatch(1);
+        AgentRunningBuild build = build(1, feature(Constants.START_SAUCE_CONNECT_IN_BACKGROUND, "true"));
+
+        inBackground(() -> adapter.buildStarted(build)).get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        Assert.assertEquals("teamcity-agent", environment.get(Constants.TUNNEL_IDENTIFIER));
+        awaitEvent("starting teamcity-agent");
+
+        CompletableFuture<Void> firstStep = inBackground(() -> adapter.beforeRunnerStart(runner(build, "Tests")));
+        assertStillRunning(firstStep);
+
+        adapter.startGate.countDown();
+        firstStep.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        Assert.assertEquals(Arrays.asList("starting teamcity-agent", "started teamcity-agent"), adapter.events);
+    }
+
+    @Test
+    public void testOnlyListedStepsWaitForSauceConnect() throws Exception {
+        adapter.startGate = new CountDownLatch(1);
+        AgentRunningBuild build = build(1, feature(
+                Constants.START_SAUCE_CONNECT_IN_BACKGROUND, "true",
+                Constants.SAUCE_CONNECT_STEPS, "Tests"));
+        adapter.buildStarted(build);
+
+        inBackground(() -> adapter.beforeRunnerStart(runner(build, "Compile"))).get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        CompletableFuture<Void> tests = inBackground(() -> adapter.beforeRunnerStart(runner(build, "Tests")));
+        assertStillRunning(tests);
+
+        adapter.startGate.countDown();
+        tests.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void testReportsBuildProblemWhenSauceConnectFailsToStartInBackground() throws Exception {
+        adapter.startFailure = new IOException("no tunnel");
+        AgentRunningBuild build = build(1, feature(Constants.START_SAUCE_CONNECT_IN_BACKGROUND, "true"));
+        adapter.buildStarted(build);
+
+        inBackground(() -> adapter.beforeRunnerStart(runner(build, "Tests"))).get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        Assert.assertTrue(buildLog.contains("problem Failed to start sauce connect: no tunnel"));
+    }
+
+    @Test
+    public void testStartsShardedTunnelsConcurrentlyBeforeBuild() throws Exception {
+        adapter.startGate = new CountDownLatch(1);
+        AgentRunningBuild build = build(1, feature(Constants.SAUCE_CONNECT_TUNNELS, "3"));
+
+        CompletableFuture<Void> started = inBackground(() -> adapter.buildStarted(build));
+        awaitEvent("starting teamcity-agent-0");
+        awaitEvent("starting teamcity-agent-1");
+        awaitEvent("starting teamcity-agent-2");
+        assertStillRunning(started);
+
+        adapter.startGate.countDown();
+        started.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        Assert.assertEquals(3, adapter.processes.size());
+        Assert.assertEquals("teamcity-agent-0", environment.get(Constants.TUNNEL_IDENTIFIER));
+        Assert.assertEquals("teamcity-agent-2", environment.get(Constants.TUNNEL_IDENTIFIER + "_2"));
+        Assert.assertNotNull(environment.get(Constants.TUNNEL_IDENTIFIERS));
+    }
+
+    @Test
+    public void testClosesEveryShardedTunnel() throws Exception {
+        AgentRunningBuild build = build(1, feature(Constants.SAUCE_CONNECT_TUNNELS, "2"));
+        adapter.buildStarted(build);
+
+        adapter.beforeBuildFinish(build, BuildFinishedStatus.FINISHED_SUCCESS);
+
+        Assert.assertTrue(adapter.events.containsAll(Arrays.asList("closed teamcity-agent-0", "closed teamcity-agent-1")));
+    }
+
+    @Test
+    public void testClosesTunnelsConcurrently() throws Exception {
+        adapter.closeGate = new CountDownLatch(1);
+        AgentRunningBuild build = build(1, feature(Constants.SAUCE_CONNECT_TUNNELS, "3"));
+        adapter.buildStarted(build);
+
+        CompletableFuture<Void> finished = inBackground(() -> adapter.beforeBuildFinish(build, BuildFinishedStatus.FINISHED_SUCCESS));
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(TIMEOUT_SECONDS);
+        while (adapter.closing.get() < 3 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(3, adapter.closing.get());
+        assertStillRunning(finished);
+
+        adapter.closeGate.countDown();
+        finished.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        Assert.assertTrue(adapter.events.containsAll(Arrays.asList("closed teamcity-agent-0", "closed teamcity-agent-1", "closed teamcity-agent-2")));
+    }
+
+    @Test
+    public void testClosesTunnelStillStartingOnceStarted() throws Exception {
+        adapter.startGate = new CountDownLatch(1);
+        AgentRunningBuild build = build(1, feature(Constants.START_SAUCE_CONNECT_IN_BACKGROUND, "true"));
+        adapter.buildStarted(build);
+        awaitEvent("starting teamcity-agent");
+
+        CompletableFuture<Void> finished = inBackground(() -> adapter.beforeBuildFinish(build, BuildFinishedStatus.FINISHED_SUCCESS));
+        assertStillRunning(finished);
+
+        adapter.startGate.countDown();
+        finished.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        Assert.assertEquals(Arrays.asList("starting teamcity-agent", "started teamcity-agent", "closed teamcity-agent"), adapter.events);
+        Assert.assertTrue(adapter.processes.get(0).isAlive());
+    }
+
+    @Test
+    public void testKillsTunnelsNotClosedInTime() throws Exception {
+        System.setProperty(SauceLifeCycleAdapter.CLOSE_TIMEOUT_PROPERTY, "300");
+        adapter.closeGate = new CountDownLatch(1);
+        AgentRunningBuild build = build(1, feature());
+        adapter.buildStarted(build);
+
+        inBackground(() -> adapter.beforeBuildFinish(build, BuildFinishedStatus.FINISHED_SUCCESS)).get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        Assert.assertFalse(adapter.processes.get(0).isAlive());
+        Assert.assertTrue(containsLine("Sauce Connect didn't close within 300 ms, killing 1 tunnel(s)"));
+
+        //the task closing the tunnel no longer writes to the build log once the build stopped waiting for it
+        adapter.closeGate.countDown();
+        awaitEvent("closed teamcity-agent");
+        Thread.sleep(100);
+        Assert.assertFalse(containsLine("Closed Sauce Connect tunnel"));
+    }
+
+    @Test
+    public void testKillsTunnelStartedAfterCloseTimeout() throws Exception {
+        System.setProperty(SauceLifeCycleAdapter.CLOSE_TIMEOUT_PROPERTY, "300");
+        adapter.startGate = new CountDownLatch(1);
+        AgentRunningBuild build = build(1, feature(
+                Constants.START_SAUCE_CONNECT_IN_BACKGROUND, "true",
+                Constants.KEEP_SAUCE_CONNECT_WARM, "true"));
+        adapter.buildStarted(build);
+        awaitEvent("starting teamcity-agent");
+
+        inBackground(() -> adapter.beforeBuildFinish(build, BuildFinishedStatus.FINISHED_SUCCESS)).get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        adapter.startGate.countDown();
+        awaitEvent("started teamcity-agent");
+
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(TIMEOUT_SECONDS);
+        while (adapter.processes.get(0).isAlive() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Assert.assertFalse(adapter.processes.get(0).isAlive());
+        Assert.assertEquals(0, adapter.pool.getIdleCount());
+    }
+
+    @Test
+    public void testKeepsWarmTunnelOpenForNextBuild() throws Exception {
+        Map<String, String> feature = feature(Constants.KEEP_SAUCE_CONNECT_WARM, "true");
+        AgentRunningBuild first = build(1, feature);
+        adapter.buildStarted(first);
+        adapter.beforeBuildFinish(first, BuildFinishedStatus.FINISHED_SUCCESS);
+        adapter.buildFinished(first, BuildFinishedStatus.FINISHED_SUCCESS);
+
+        Assert.assertEquals(Arrays.asList("starting teamcity-agent", "started teamcity-agent"), adapter.events);
+        Assert.assertEquals(1, adapter.pool.getIdleCount());
+
+        AgentRunningBuild second = build(2, feature);
+        adapter.buildStarted(second);
+        Assert.assertEquals(1, adapter.processes.size());
+        Assert.assertEquals(0, adapter.pool.getIdleCount());
+    }
+
+    @Test
+    public void testReadsPrewarmParametersNamedLikeFeatureParameters() {
+        Map<String, String> configuration = new HashMap<String, String>();
+        configuration.put(Constants.PREWARM_PREFIX + "userId", "user");
+        configuration.put(Constants.PREWARM_PREFIX + "accessKey", "key");
+        configuration.put(Constants.PREWARM_PREFIX + "sauceConnectOptions", "--tunnel-pool");
+        configuration.put(Constants.PREWARM_KEEP_OPEN, "true");
+        configuration.put(Constants.SAUCE_USER_ID_KEY, "build user");
+        configuration.put("teamcity.agent.name", "agent");
+
+        Map<String, String> parameters = SauceLifeCycleAdapter.getPrewarmParameters(configuration);
+
+        Assert.assertEquals("user", parameters.get(Constants.SAUCE_USER_ID_KEY));
+        Assert.assertEquals("key", parameters.get(Constants.SAUCE_PLUGIN_ACCESS_KEY));
+        Assert.assertEquals("--tunnel-pool", parameters.get(Constants.SAUCE_CONNECT_OPTIONS));
+        Assert.assertEquals("true", parameters.get("saucePlugin.keepOpen"));
+        Assert.assertFalse(parameters.containsKey("teamcity.agent.name"));
+        Assert.assertEquals(4, parameters.size());
+
+        SauceFeatureConfig config = SauceFeatureConfig.parse(parameters, "agent");
+        Assert.assertEquals("user", config.getUsername());
+        Assert.assertEquals("key", config.getAccessKey());
+        Assert.assertEquals("--tunnel-pool", config.getSauceConnectOptions());
+    }
+
+    @Test
+    public void testWritesSelectedBrowsersToFile() throws Exception {
+        writeBrowserCatalog();
+        adapter.buildStarted(build(1, feature(Constants.SAUCE_CONNECT_KEY, "false",
+                Constants.SELENIUM_WEB_DRIVER_BROWSERS, "chrome,firefox")));
+        String browsersJSON = environment.remove(Constants.SAUCE_BROWSERS_ENV);
+        Assert.assertEquals(2, new JSONArray(browsersJSON).length());
+        Assert.assertNull(environment.get(Constants.SAUCE_BROWSERS_FILE_ENV));
+
+        adapter.buildStarted(build(2, feature(Constants.SAUCE_CONNECT_KEY, "false",
+                Constants.SELENIUM_WEB_DRIVER_BROWSERS, "chrome,firefox",
+                Constants.BROWSERS_FILE_KEY, "true")));
+
+        File browsersFile = new File(new File(tempDirectory, "sauce"), "browsers.json");
+        Assert.assertEquals(browsersFile.getAbsolutePath(), environment.get(Constants.SAUCE_BROWSERS_FILE_ENV));
+        Assert.assertNull(environment.get(Constants.SAUCE_BROWSERS_ENV));
+        Assert.assertEquals(browsersJSON, new String(Files.readAllBytes(browsersFile.toPath()), StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Persists a browser catalog in the agent cache directory, so that the browsers are looked up without Sauce.
+     */
+    private void writeBrowserCatalog() throws IOException {
+        String catalog = "[{\"key\":\"chrome\",\"os\":\"Windows 10\",\"browserName\":\"chrome\",\"longName\":\"Google Chrome\","
+                + "\"version\":\"120\",\"longVersion\":\"120.0\",\"name\":\"chrome\"},"
+                + "{\"key\":\"firefox\",\"os\":\"Linux\",\"browserName\":\"firefox\",\"longName\":\"Firefox\","
+                + "\"version\":\"115\",\"longVersion\":\"115.0\",\"name\":\"firefox\"}]";
+        Files.write(new File(tempDirectory, "browsers.json").toPath(), catalog.getBytes(StandardCharsets.UTF_8));
+    }
+
+    Map<String, String> feature(String... keyValues) {
+        Map<String, String> parameters = new HashMap<String, String>();
+        parameters.put(Constants.SAUCE_USER_ID_KEY, "user");
+        parameters.put(Constants.SAUCE_PLUGIN_ACCESS_KEY, "key");
+        parameters.put(Constants.SAUCE_CONNECT_KEY, "true");
+        for (int i = 0; i < keyValues.length; i += 2) {
+            parameters.put(keyValues[i], keyValues[i + 1]);
+        }
+        return parameters;
+    }
+
+    AgentRunningBuild build(long buildId, Map<String, String> featureParameters) {
+        final AgentBuildFeature feature = Stubs.stub(AgentBuildFeature.class, Stubs.answers(
+                "getType", Constants.BUILD_FEATURE_TYPE,
+                "getParameters", featureParameters));
+        BuildProgressLogger buildLogger = Stubs.stub(BuildProgressLogger.class, Stubs.answers(
+                "logMessage", (Stubs.Answer) args -> buildLog.add(String.valueOf(((BuildMessage1) args[0]).getValue())),
+                "message", (Stubs.Answer) args -> buildLog.add((String) args[0]),
+                "logBuildProblem", (Stubs.Answer) args -> buildLog.add("problem " + ((BuildProblemData) args[0]).getDescription())));
+        return Stubs.stub(AgentRunningBuild.class, Stubs.answers(
+                "getBuildId", buildId,
+                "getAgentConfiguration", agentConfiguration(Collections.<String, String>emptyMap()),
+                "getSharedConfigParameters", Collections.singletonMap("teamcity.agent.name", "agent"),
+                "getBuildFeaturesOfType", (Stubs.Answer) args -> Constants.BUILD_FEATURE_TYPE.equals(args[0])
+                        ? Collections.singletonList(feature) : Collections.emptyList(),
+                "getBuildLogger", buildLogger,
+                "getBuildTempDirectory", tempDirectory,
+                "addSharedEnvironmentVariable", (Stubs.Answer) args -> environment.put((String) args[0], (String) args[1]),
+                "getBuildTypeExternalId", "Project_Build",
+                "getBuildNumber", String.valueOf(buildId)));
+    }
+
+    BuildAgentConfiguration agentConfiguration(Map<String, String> parameters) {
+        return Stubs.stub(BuildAgentConfiguration.class, Stubs.answers(
+                "getName", "agent",
+                "getConfigurationParameters", parameters,
+                "getCacheDirectory", tempDirectory));
+    }
+
+    static BuildRunnerContext runner(AgentRunningBuild build, String name) {
+        return Stubs.stub(BuildRunnerContext.class, Stubs.answers(
+                "getBuild", build,
+                "getName", name));
+    }
+
+    static CompletableFuture<Void> inBackground(Runnable runnable) {
+        CompletableFuture<Void> done = new CompletableFuture<Void>();
+        Thread thread = new Thread(() -> {
+            try {
+                runnable.run();
+                done.complete(null);
+            } catch (Throwable t) {
+                done.completeExceptionally(t);
+            }
+        });
+        thread.setDaemon(true);
+        thread.start();
+        return done;
+    }
+
+    static void assertStillRunning(CompletableFuture<Void> task) throws Exception {
+        try {
+            task.get(200, TimeUnit.MILLISECONDS);
+            Assert.fail("Expected the task to wait");
+        } catch (TimeoutException e) {
+            //still waiting
+        }
+    }
+
+    boolean containsLine(String text) {
+        for (String line : buildLog) {
+            if (line.contains(text)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    void awaitEvent(String event) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(TIMEOUT_SECONDS);
+        while (!adapter.events.contains(event)) {
+            if (System.currentTimeMillis() > deadline) {
+                Assert.fail("No " + event + " in " + adapter.events);
+            }
+            Thread.sleep(10);
+        }
+    }
+
+    static void await(CountDownLatch gate) {
+        try {
+            if (!gate.await(TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                throw new IllegalStateException("Gate not opened in time");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Records the Sauce Connect processes it opens and closes instead of launching them. Opening and closing wait
+     * for their gate, so the tests can hold them.
+     */
+    class TestAdapter extends SauceLifeCycleAdapter {
+
+        final SauceTunnelPool pool;
+
+        final List<String> events = new CopyOnWriteArrayList<String>();
+
+        final List<FakeProcess> processes = new CopyOnWriteArrayList<FakeProcess>();
+
+        final AtomicInteger closing = new AtomicInteger();
+
+        volatile CountDownLatch startGate = new CountDownLatch(0);
+
+        volatile CountDownLatch closeGate = new CountDownLatch(0);
+
+        volatile IOException startFailure;
+
+        TestAdapter() {
+            this(new SauceTunnelPool(null, TimeUnit.HOURS.toMillis(1), TimeUnit.HOURS.toMillis(1)) {
+                @Override
+                void close(SauceTunnel tunnel) {
+                }
+            });
+        }
+
+        private TestAdapter(SauceTunnelPool tunnelPool) {
+            super(EventDispatcher.create(AgentLifeCycleListener.class),
+                    new BrowserCatalog(null, agentConfiguration(Collections.<String, String>emptyMap())),
+                    null,
+                    tunnelPool);
+            this.pool = tunnelPool;
+        }
+
+        @Override
+        Process openConnection(boolean useLatestSauceConnect, String username, String accessKey, DataCenter region,
+                               String options, Logger logger, TunnelOutput printStream) throws IOException {
+            String tunnelName = AbstractSauceTunnelManager.getTunnelName(options, "default");
+            events.add("starting " + tunnelName);
+            await(startGate);
+            if (startFailure != null) {
+                throw startFailure;
+            }
+            FakeProcess process = new FakeProcess();
+            processes.add(process);
+            events.add("started " + tunnelName);
+            return process;
+        }
+
+        @Override
+        void closeConnection(String username, String options, Logger logger) {
+            String tunnelName = AbstractSauceTunnelManager.getTunnelName(options, "default");
+            closing.incrementAndGet();
+            try {
+                await(closeGate);
+            } finally {
+                closing.decrementAndGet();
+            }
+            events.add("closed " + tunnelName);
+        }
+    }
+}
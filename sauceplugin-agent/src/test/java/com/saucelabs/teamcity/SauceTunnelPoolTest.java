@@ -0,0 +1,158 @@
+package com.saucelabs.teamcity;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+public class SauceTunnelPoolTest {
+
+    private RecordingPool pool;
+
+    @After
+    public void tearDown() {
+        if (pool != null) {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testAcquiresReleasedTunnelWithSameKey() {
+        pool = new RecordingPool(TimeUnit.HOURS.toMillis(1), TimeUnit.HOURS.toMillis(1));
+        SauceTunnel tunnel = tunnel("a", new FakeProcess());
+        pool.release(tunnel);
+
+        Assert.assertEquals(1, pool.getIdleCount());
+        Assert.assertNull(pool.acquire("b", null, null));
+        Assert.assertSame(tunnel, pool.acquire("a", null, null));
+        Assert.assertNull(pool.acquire("a", null, null));
+        Assert.assertEquals(0, pool.getIdleCount());
+        Assert.assertEquals(Collections.emptyList(), pool.closed);
+    }
+
+    @Test
+    public void testReleaseClosesReplacedTunnel() {
+        pool = new RecordingPool(TimeUnit.HOURS.toMillis(1), TimeUnit.HOURS.toMillis(1));
+        SauceTunnel first = tunnel("a", new FakeProcess());
+        SauceTunnel second = tunnel("a", new FakeProcess());
+        pool.release(first);
+        pool.release(second);
+
+        Assert.assertEquals(Collections.singletonList(first), pool.closed);
+        Assert.assertSame(second, pool.acquire("a", null, null));
+    }
+
+    @Test
+    public void testExitedTunnelIsClosedInsteadOfReused() {
+        pool = new RecordingPool(TimeUnit.HOURS.toMillis(1), TimeUnit.HOURS.toMillis(1));
+        FakeProcess process = new FakeProcess();
+        SauceTunnel tunnel = tunnel("a", process);
+        pool.release(tunnel);
+        process.alive = false;
+
+        Assert.assertNull(pool.acquire("a", null, null));
+        Assert.assertEquals(Collections.singletonList(tunnel), pool.closed);
+
+        SauceTunnel exited = tunnel("b", process);
+        pool.release(exited);
+        Assert.assertEquals(0, pool.getIdleCount());
+        Assert.assertEquals(Arrays.asList(tunnel, exited), pool.closed);
+    }
+
+    @Test
+    public void testReapsIdleTunnels() throws InterruptedException {
+        pool = new RecordingPool(50, TimeUnit.HOURS.toMillis(1));
+        SauceTunnel tunnel = tunnel("a", new FakeProcess());
+        pool.release(tunnel);
+
+        awaitClosed(1);
+        Assert.assertEquals(Collections.singletonList(tunnel), pool.closed);
+        Assert.assertEquals(0, pool.getIdleCount());
+        Assert.assertNull(pool.acquire("a", null, null));
+    }
+
+    @Test
+    public void testReapsTunnelsOpenForTooLong() throws InterruptedException {
+        pool = new RecordingPool(TimeUnit.HOURS.toMillis(1), 200);
+        SauceTunnel tunnel = tunnel("a", new FakeProcess());
+        pool.release(tunnel);
+        Assert.assertEquals(1, pool.getIdleCount());
+
+        awaitClosed(1);
+        Assert.assertEquals(Collections.singletonList(tunnel), pool.closed);
+        Assert.assertEquals(0, pool.getIdleCount());
+    }
+
+    @Test
+    public void testTunnelOpenForTooLongIsClosedOnRelease() throws InterruptedException {
+        pool = new RecordingPool(TimeUnit.HOURS.toMillis(1), 50);
+        SauceTunnel tunnel = tunnel("a", new FakeProcess());
+        Thread.sleep(100);
+        pool.release(tunnel);
+
+        Assert.assertEquals(0, pool.getIdleCount());
+        Assert.assertEquals(Collections.singletonList(tunnel), pool.closed);
+    }
+
+    @Test
+    public void testCloseExpiredKeepsRecentlyReleasedTunnels() {
+        pool = new RecordingPool(TimeUnit.HOURS.toMillis(1), TimeUnit.HOURS.toMillis(1));
+        pool.release(tunnel("a", new FakeProcess()));
+        pool.closeExpired();
+
+        Assert.assertEquals(1, pool.getIdleCount());
+        Assert.assertEquals(Collections.emptyList(), pool.closed);
+    }
+
+    @Test
+    public void testShutdownClosesIdleTunnels() {
+        pool = new RecordingPool(TimeUnit.HOURS.toMillis(1), TimeUnit.HOURS.toMillis(1));
+        SauceTunnel first = tunnel("a", new FakeProcess());
+        SauceTunnel second = tunnel("b", new FakeProcess());
+        pool.release(first);
+        pool.release(second);
+        pool.shutdown();
+
+        Assert.assertEquals(0, pool.getIdleCount());
+        Assert.assertEquals(2, pool.closed.size());
+        Assert.assertTrue(pool.closed.containsAll(Arrays.asList(first, second)));
+
+        SauceTunnel late = tunnel("c", new FakeProcess());
+        pool.release(late);
+        pool.shutdown();
+        Assert.assertTrue(pool.closed.contains(late));
+    }
+
+    private void awaitClosed(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (pool.closed.size() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+    }
+
+    private static SauceTunnel tunnel(String key, Process process) {
+        return new SauceTunnel(key, "user", "-v", process, new TunnelOutput(null, null));
+    }
+
+    /**
+     * Records the tunnels it closes instead of asking Sauce Connect to close them.
+     */
+    private static class RecordingPool extends SauceTunnelPool {
+
+        final List<SauceTunnel> closed = new CopyOnWriteArrayList<SauceTunnel>();
+
+        RecordingPool(long idleTimeoutMillis, long maxLifetimeMillis) {
+            super(null, idleTimeoutMillis, maxLifetimeMillis);
+        }
+
+        @Override
+        void close(SauceTunnel tunnel) {
+            closed.add(tunnel);
+        }
+    }
+}
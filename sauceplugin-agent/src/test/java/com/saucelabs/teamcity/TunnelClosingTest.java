@@ -0,0 +1,47 @@
+package com.saucelabs.teamcity;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+
+public class TunnelClosingTest {
+
+    private final TunnelClosing closing = new TunnelClosing();
+
+    @Test
+    public void testKeepsTunnelsStartedWithSameOptionsApart() {
+        FakeProcess firstProcess = new FakeProcess();
+        FakeProcess secondProcess = new FakeProcess();
+        CompletableFuture<SauceTunnel> first = CompletableFuture.completedFuture(tunnel(firstProcess));
+        CompletableFuture<SauceTunnel> second = CompletableFuture.completedFuture(tunnel(secondProcess));
+        closing.add(first);
+        closing.add(second);
+
+        Assert.assertTrue(closing.remove(first));
+        Assert.assertFalse(closing.remove(first));
+        Assert.assertEquals(1, closing.abandon());
+        Assert.assertTrue(firstProcess.isAlive());
+        Assert.assertFalse(secondProcess.isAlive());
+        Assert.assertFalse(closing.remove(second));
+    }
+
+    @Test
+    public void testKillsTunnelStartedOnceAbandoned() {
+        CompletableFuture<SauceTunnel> starting = new CompletableFuture<SauceTunnel>();
+        closing.add(starting);
+        Assert.assertEquals(1, closing.abandon());
+
+        FakeProcess process = new FakeProcess();
+        starting.complete(tunnel(process));
+        Assert.assertFalse(process.isAlive());
+
+        FakeProcess late = new FakeProcess();
+        closing.add(CompletableFuture.completedFuture(tunnel(late)));
+        Assert.assertFalse(late.isAlive());
+    }
+
+    private static SauceTunnel tunnel(Process process) {
+        return new SauceTunnel("key", "user", "-v --tunnel-name build", process, new TunnelOutput(null, null));
+    }
+}
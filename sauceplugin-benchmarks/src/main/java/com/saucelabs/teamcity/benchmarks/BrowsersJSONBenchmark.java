@@ -0,0 +1,44 @@
+package com.saucelabs.teamcity.benchmarks;
+
+import com.saucelabs.ci.Browser;
+import com.saucelabs.teamcity.SauceBrowsersJSON;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the generation of the SAUCE_ONDEMAND_BROWSERS environment variable for a number of selected browsers.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class BrowsersJSONBenchmark {
+
+    @Param({"1", "50", "1000"})
+    public int browsers;
+
+    private List<Browser> selectedBrowsers;
+
+    @Setup
+    public void setUp() {
+        String[] names = {"chrome", "firefox", "MicrosoftEdge", "safari"};
+        String[] platforms = {"Windows 11", "Windows 10", "macOS 13", "Linux"};
+        selectedBrowsers = new ArrayList<Browser>();
+        for (int i = 0; i < browsers; i++) {
+            String name = names[i % names.length];
+            String os = platforms[(i / names.length) % platforms.length];
+            String version = String.valueOf(100 + i % 30);
+            selectedBrowsers.add(new Browser(name + os + version, os, name, name, version, version + ".0", name + " " + version));
+        }
+    }
+
+    @Benchmark
+    public String toJSON() {
+        return SauceBrowsersJSON.toJSON("username", "accessKey", selectedBrowsers);
+    }
+}
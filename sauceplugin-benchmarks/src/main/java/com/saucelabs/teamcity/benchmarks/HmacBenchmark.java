@@ -0,0 +1,101 @@
+package com.saucelabs.teamcity.benchmarks;
+
+import com.saucelabs.teamcity.HmacCalculator;
+import org.apache.commons.codec.binary.Hex;
+import org.openjdk.jmh.annotations.*;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.UnsupportedEncodingException;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.TimeZone;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the cost of calculating the HMAC of one row of the Sauce Labs Results tab, when everything is created for
+ * every row, with the cost when the key setup and the HMACs of the current hour are reused.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class HmacBenchmark {
+
+    /**
+     * Number of distinct jobs displayed, the HMACs of all of them are calculated before they are reused.
+     */
+    @Param({"5000"})
+    public int jobs;
+
+    private String[] jobIds;
+
+    private HmacCalculator calculator;
+
+    private int next;
+
+    @Setup
+    public void setUp() {
+        jobIds = new String[jobs];
+        for (int i = 0; i < jobs; i++) {
+            jobIds[i] = UUID.randomUUID().toString().replace("-", "");
+        }
+        calculator = new HmacCalculator();
+    }
+
+    /**
+     * The per-row cost of the original calculation.
+     */
+    @Benchmark
+    public String legacyPerRow() throws Exception {
+        return legacyCalcHMAC("username", "accessKey", nextJobId());
+    }
+
+    /**
+     * The per-row cost with a new calculator for every page, so only the key setup is reused between rows.
+     */
+    @Benchmark
+    public String cachedMacPerRow() throws Exception {
+        if (next == 0) {
+            calculator = new HmacCalculator();
+        }
+        return calculator.calculate("username", "accessKey", nextJobId());
+    }
+
+    /**
+     * The per-row cost once the HMACs of the current hour have been calculated, eg. when the tab is opened again.
+     */
+    @Benchmark
+    public String cachedHmacPerRow() throws Exception {
+        return calculator.calculate("username", "accessKey", nextJobId());
+    }
+
+    private String nextJobId() {
+        String jobId = jobIds[next];
+        next = (next + 1) % jobIds.length;
+        return jobId;
+    }
+
+    /**
+     * The calculation as it was done for every job before {@link HmacCalculator}.
+     */
+    private static String legacyCalcHMAC(String username, String accessKey, String jobId) throws NoSuchAlgorithmException, InvalidKeyException, UnsupportedEncodingException {
+        Calendar calendar = Calendar.getInstance();
+
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd-HH");
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        String key = username + ":" + accessKey + ":" + format.format(calendar.getTime());
+        byte[] keyBytes = key.getBytes();
+        SecretKeySpec sks = new SecretKeySpec(keyBytes, "HMACMD5");
+        Mac mac = Mac.getInstance(sks.getAlgorithm());
+        mac.init(sks);
+        byte[] hmacBytes = mac.doFinal(jobId.getBytes());
+        byte[] hexBytes = new Hex().encode(hmacBytes);
+        return new String(hexBytes, "ISO-8859-1");
+    }
+}
@@ -0,0 +1,78 @@
+package com.saucelabs.teamcity.benchmarks;
+
+import com.saucelabs.teamcity.LoggerBuildAndAgent;
+import jetbrains.buildServer.agent.BuildProgressLogger;
+import org.openjdk.jmh.annotations.*;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the formatting of the messages the plugin logs to the build log and the agent log.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class LoggerBuildAndAgentBenchmark {
+
+    private LoggerBuildAndAgent logger;
+
+    private LoggerBuildAndAgent verboseLogger;
+
+    @Setup
+    public void setUp() {
+        BuildProgressLogger buildLogger = discardingBuildLogger();
+        logger = new LoggerBuildAndAgent(buildLogger, false);
+        verboseLogger = new LoggerBuildAndAgent(buildLogger, true);
+    }
+
+    @Benchmark
+    public void info() {
+        logger.info("Setting environment variable {}", "SAUCE_ONDEMAND_BROWSERS");
+    }
+
+    /**
+     * A debug message when the build isn't in debug mode, so it only goes to the agent log.
+     */
+    @Benchmark
+    public void debugNotVerbose() {
+        logger.debug("Parameter value: {}", "chrome,firefox");
+    }
+
+    @Benchmark
+    public void debugVerbose() {
+        verboseLogger.debug("Parameter value: {}", "chrome,firefox");
+    }
+
+    @Benchmark
+    public void warnWithArguments() {
+        logger.warn("Tunnel {} for {} took {} ms to start", "teamcity-agent", "username", 42);
+    }
+
+    /**
+     * @return a build logger which discards every message
+     */
+    private static BuildProgressLogger discardingBuildLogger() {
+        return (BuildProgressLogger) Proxy.newProxyInstance(BuildProgressLogger.class.getClassLoader(),
+                new Class<?>[]{BuildProgressLogger.class}, new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        if (method.getReturnType() == boolean.class) {
+                            return false;
+                        }
+                        if (method.getReturnType() == int.class) {
+                            return 0;
+                        }
+                        if (method.getReturnType() == long.class) {
+                            return 0L;
+                        }
+                        return method.getReturnType() == BuildProgressLogger.class ? proxy : null;
+                    }
+                });
+    }
+}
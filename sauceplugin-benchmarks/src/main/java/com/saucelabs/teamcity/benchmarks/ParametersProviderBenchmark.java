@@ -0,0 +1,70 @@
+package com.saucelabs.teamcity.benchmarks;
+
+import com.saucelabs.saucerest.DataCenter;
+import com.saucelabs.teamcity.Constants;
+import com.saucelabs.teamcity.ParametersProvider;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the resolution of the Sauce credentials and data center from the build feature parameters, as done for
+ * every feature by the agent at build start and by the server at build finish.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ParametersProviderBenchmark {
+
+    @Param({"username", "%teamcity.agent.name%"})
+    public String userId;
+
+    @Param({"", "US", "EU_CENTRAL"})
+    public String dataCenter;
+
+    private Map<String, String> parameters;
+
+    @Setup
+    public void setUp() {
+        parameters = new HashMap<String, String>();
+        parameters.put(Constants.SAUCE_USER_ID_KEY, userId);
+        parameters.put(Constants.SAUCE_PLUGIN_ACCESS_KEY, "accessKey");
+        parameters.put(Constants.SAUCE_PLUGIN_DATA_CENTER, dataCenter);
+        parameters.put(Constants.SAUCE_CONNECT_KEY, "true");
+        parameters.put(Constants.SELENIUM_SELECTED_BROWSER, "chrome,firefox");
+    }
+
+    /**
+     * A new provider for each value, as done by the getUsername/getAccessKey/getDataCenter helpers.
+     */
+    @Benchmark
+    public void providerPerValue(Blackhole blackhole) {
+        blackhole.consume(new ParametersProvider(parameters, "agent").getUsername());
+        blackhole.consume(new ParametersProvider(parameters, "agent").getAccessKey());
+        blackhole.consume(new ParametersProvider(parameters, "agent").getDataCenter());
+        blackhole.consume(new ParametersProvider(parameters, "agent").getSauceRESTDataCenter());
+    }
+
+    /**
+     * One provider for all the values of a feature.
+     */
+    @Benchmark
+    public void providerPerFeature(Blackhole blackhole) {
+        ParametersProvider provider = new ParametersProvider(parameters, "agent");
+        blackhole.consume(provider.getUsername());
+        blackhole.consume(provider.getAccessKey());
+        blackhole.consume(provider.getDataCenter());
+        blackhole.consume(provider.getSauceRESTDataCenter());
+    }
+
+    @Benchmark
+    public DataCenter sauceRESTDataCenter() {
+        return new ParametersProvider(parameters, "agent").getSauceRESTDataCenter();
+    }
+}
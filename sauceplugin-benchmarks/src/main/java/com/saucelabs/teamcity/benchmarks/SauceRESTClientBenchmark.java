@@ -0,0 +1,114 @@
+package com.saucelabs.teamcity.benchmarks;
+
+import com.saucelabs.saucerest.DataCenter;
+import com.saucelabs.saucerest.SauceREST;
+import com.saucelabs.saucerest.api.HttpClientConfig;
+import com.saucelabs.saucerest.model.jobs.UpdateJobParameter;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import okhttp3.HttpUrl;
+import okhttp3.Interceptor;
+import okhttp3.Response;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares updating a Sauce job with a new SauceREST client per call, with a client shared between calls, against a
+ * local stand-in for the Sauce REST API.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class SauceRESTClientBenchmark {
+
+    private static final String JOB_ID = "3fa2b4c1d5e6f7081920a1b2c3d4e5f6";
+
+    private HttpServer server;
+
+    private HttpClientConfig config;
+
+    private SauceREST sharedClient;
+
+    private UpdateJobParameter parameters;
+
+    @Setup
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", new StandInHandler());
+        server.setExecutor(Executors.newFixedThreadPool(4));
+        server.start();
+
+        config = HttpClientConfig.defaultConfig().interceptor(new RedirectInterceptor(server.getAddress().getPort()));
+        sharedClient = new SauceREST("username", "accessKey", DataCenter.US_WEST, config);
+        UpdateJobParameter.Builder builder = new UpdateJobParameter.Builder().setBuild("SauceBuild42");
+        builder.setPassed(true);
+        parameters = builder.build();
+    }
+
+    @TearDown
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    @Benchmark
+    public void newClientPerCall() throws IOException {
+        SauceREST sauceREST = new SauceREST("username", "accessKey", DataCenter.US_WEST, config);
+        sauceREST.getJobsEndpoint().updateJob(JOB_ID, parameters);
+    }
+
+    @Benchmark
+    public void sharedClient() throws IOException {
+        sharedClient.getJobsEndpoint().updateJob(JOB_ID, parameters);
+    }
+
+    /**
+     * Sends the requests meant for the Sauce REST API to the stand-in server.
+     */
+    private static class RedirectInterceptor implements Interceptor {
+        private final int port;
+
+        RedirectInterceptor(int port) {
+            this.port = port;
+        }
+
+        @Override
+        public Response intercept(Chain chain) throws IOException {
+            HttpUrl url = chain.request().url().newBuilder().scheme("http").host("127.0.0.1").port(port).build();
+            return chain.proceed(chain.request().newBuilder().url(url).build());
+        }
+    }
+
+    /**
+     * Answers every request with a minimal job.
+     */
+    private static class StandInHandler implements HttpHandler {
+        private static final byte[] JOB = ("{\"id\":\"" + JOB_ID + "\",\"build\":\"SauceBuild42\",\"passed\":true}").getBytes(StandardCharsets.UTF_8);
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            try (InputStream request = exchange.getRequestBody()) {
+                byte[] buffer = new byte[4096];
+                while (request.read(buffer) != -1) {
+                    //drain the request so the connection can be reused
+                }
+            }
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, JOB.length);
+            try (OutputStream response = exchange.getResponseBody()) {
+                response.write(JOB);
+            }
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package com.saucelabs.teamcity.benchmarks;
+
+import com.saucelabs.teamcity.SessionIdCollector;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the work done at build finish when the whole build log is rescanned for session ids, with the work left
+ * once the session ids have been collected while the messages were arriving.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class SessionIdScanBenchmark {
+
+    @Param({"5000000"})
+    public int lines;
+
+    /**
+     * One line in every {@code sessionInterval} lines reports a Sauce session.
+     */
+    @Param({"1000"})
+    public int sessionInterval;
+
+    private List<String> buildLog;
+
+    private SessionIdCollector streamedCollector;
+
+    private int next;
+
+    @Setup
+    public void setUp() {
+        buildLog = SyntheticBuildLog.generate(lines, sessionInterval);
+        streamedCollector = new SessionIdCollector();
+        for (String line : buildLog) {
+            streamedCollector.accept(line);
+        }
+    }
+
+    /**
+     * The work done by buildFinished when the log is scanned after the build has ended.
+     */
+    @Benchmark
+    public void fullRescanAtFinish(Blackhole blackhole) {
+        SessionIdCollector collector = new SessionIdCollector();
+        for (String line : buildLog) {
+            collector.accept(line);
+        }
+        for (String sessionId : collector.getSessionIds()) {
+            blackhole.consume(sessionId);
+        }
+    }
+
+    /**
+     * The work done by buildFinished when the session ids were collected as the messages arrived.
+     */
+    @Benchmark
+    public void streamingFlushAtFinish(Blackhole blackhole) {
+        for (String sessionId : streamedCollector.getSessionIds()) {
+            blackhole.consume(sessionId);
+        }
+    }
+
+    /**
+     * The cost added to the processing of each individual build message when streaming.
+     */
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public String streamingPerMessage() {
+        String line = buildLog.get(next);
+        next = (next + 1) % buildLog.size();
+        return SessionIdCollector.extractSessionId(line);
+    }
+
+    static final class SyntheticBuildLog {
+
+        private SyntheticBuildLog() {
+        }
+
+        static List<String> generate(int lines, int sessionInterval) {
+            List<String> log = new ArrayList<String>(lines);
+            for (int i = 0; i < lines; i++) {
+                if (i % sessionInterval == 0) {
+                    log.add(String.format("SauceOnDemandSessionID=%032x job-name=com.example.LoginTest.test%d", (long) i, i));
+                } else {
+                    log.add("[INFO] Running step " + i + " of the Selenium suite: com.example.checkout.CheckoutTest > shouldApplyDiscount PASSED");
+                }
+            }
+            return log;
+        }
+    }
+}
@@ -18,6 +18,7 @@ public class Constants {
     public static final String SAUCE_USER_NAME = "SAUCE_USER_NAME";
     public static final String SAUCE_API_KEY = "SAUCE_API_KEY";
     public static final String SAUCE_BROWSERS_ENV = "SAUCE_ONDEMAND_BROWSERS";
+    public static final String SAUCE_BROWSERS_FILE_ENV = "SAUCE_ONDEMAND_BROWSERS_FILE";
     public static final String SELENIUM_MAX_DURATION_ENV = "SELENIUM_MAX_DURATION";
     public static final String SELENIUM_IDLE_TIMEOUT_ENV = "SELENIUM_IDLE_TIMEOUT";
     public static final String SAUCE_USER_ID_KEY = "saucePlugin.userId";
@@ -34,6 +35,14 @@ public class Constants {
     public static final String SAUCE_HTTPS_PROTOCOL = "saucePlugin.httpsProtocol";
     public static final String SAUCE_CONNECT_KEY = "saucePlugin.sauceConnect";
     public static final String USE_LATEST_SAUCE_CONNECT = "saucePlugin.useLatestSauceConnect";
+    public static final String KEEP_SAUCE_CONNECT_WARM = "saucePlugin.keepSauceConnectWarm";
+    public static final String START_SAUCE_CONNECT_IN_BACKGROUND = "saucePlugin.startSauceConnectInBackground";
+    public static final String SAUCE_CONNECT_STEPS = "saucePlugin.sauceConnectSteps";
+    public static final String SAUCE_CONNECT_TUNNELS = "saucePlugin.sauceConnectTunnels";
+    public static final String PREWARM_PREFIX = "saucePlugin.prewarm.";
+    public static final String PREWARM_SAUCE_CONNECT = "saucePlugin.prewarm.sauceConnect";
+    public static final String PREWARM_KEEP_OPEN = "saucePlugin.prewarm.keepOpen";
+    public static final String BROWSERS_FILE_KEY = "saucePlugin.browsersFile";
     public static final String DISABLE_RESULTS_KEY = "saucePlugin.disableResults";
     public static final String DEBUG_MODE = "saucePlugin.debugMode";
     public static final String SAUCE_USERNAME = "SAUCE_USERNAME";
@@ -43,7 +52,13 @@ public class Constants {
     public static final String SELENIUM_DEVICE_TYPE = "SELENIUM_DEVICE_TYPE";
     public static final String SELENIUM_ORIENTATION = "SELENIUM_ORIENTATION";
     public static final String TUNNEL_IDENTIFIER = "TUNNEL_IDENTIFIER";
+    public static final String TUNNEL_IDENTIFIERS = "TUNNEL_IDENTIFIERS";
     public static final String BUILD_FEATURE_TYPE = "saucebeta";
+    public static final String SESSION_IDS_ARTIFACT = ".teamcity/sauce/sessionIds.txt";
+    public static final String SAUCE_CONNECT_LOG_ARTIFACT = ".teamcity/sauce/sauce-connect.log.gz";
+    public static final String SESSION_IDS_SERVICE_MESSAGE = "saucePluginSessionIds";
+    public static final String SESSION_IDS_SESSIONS_ATTRIBUTE = "sessions";
+    public static final String SESSION_IDS_DUPLICATES_ATTRIBUTE = "duplicates";
 
 
     private Constants() {
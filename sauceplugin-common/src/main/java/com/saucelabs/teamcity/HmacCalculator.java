@@ -0,0 +1,140 @@
+package com.saucelabs.teamcity;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Calculates the HMAC used to authenticate the embedded report of a Sauce job.
+ * <p>
+ * The HMAC key is {@code username:accessKey:yyyy-MM-dd-HH} (UTC), so it only changes once an hour. The formatted hour,
+ * the initialized {@link Mac} of each key (one per thread) and the HMACs already calculated are kept until the hour
+ * changes, instead of being created again for every job.
+ */
+public class HmacCalculator {
+
+    private static final String DATE_FORMAT = "yyyy-MM-dd-HH";
+
+    private static final String HMAC_KEY = "HMACMD5";
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private final int maxCachedHmacs;
+
+    private volatile Hour currentHour;
+
+    private final ThreadLocal<Macs> macs = new ThreadLocal<Macs>() {
+        @Override
+        protected Macs initialValue() {
+            return new Macs();
+        }
+    };
+
+    public HmacCalculator() {
+        this(10000);
+    }
+
+    /**
+     * @param maxCachedHmacs maximum number of HMACs kept for the current hour
+     */
+    public HmacCalculator(int maxCachedHmacs) {
+        this.maxCachedHmacs = maxCachedHmacs;
+    }
+
+    /**
+     * @param username
+     * @param accessKey
+     * @param jobId
+     * @return the HMAC of the job for the current hour, as lowercase hex
+     * @throws NoSuchAlgorithmException
+     * @throws InvalidKeyException
+     */
+    public String calculate(String username, String accessKey, String jobId) throws NoSuchAlgorithmException, InvalidKeyException {
+        return calculate(username, accessKey, jobId, System.currentTimeMillis());
+    }
+
+    String calculate(String username, String accessKey, String jobId, long now) throws NoSuchAlgorithmException, InvalidKeyException {
+        Hour hour = getHour(now);
+        String key = username + ":" + accessKey + ":" + hour.formatted;
+        String cacheKey = key + ":" + jobId;
+        String hmac = hour.hmacs.get(cacheKey);
+        if (hmac != null) {
+            return hmac;
+        }
+
+        Mac mac = macs.get().get(hour.hour, key);
+        hmac = toHex(mac.doFinal(jobId.getBytes()));
+        if (hour.hmacs.size() >= maxCachedHmacs) {
+            hour.hmacs.clear();
+        }
+        hour.hmacs.put(cacheKey, hmac);
+        return hmac;
+    }
+
+    private Hour getHour(long now) {
+        long hour = TimeUnit.MILLISECONDS.toHours(now);
+        Hour current = currentHour;
+        if (current == null || current.hour != hour) {
+            current = new Hour(hour);
+            currentHour = current;
+        }
+        return current;
+    }
+
+    private static String toHex(byte[] bytes) {
+        char[] hex = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            hex[i * 2] = HEX_DIGITS[(bytes[i] >> 4) & 0x0f];
+            hex[i * 2 + 1] = HEX_DIGITS[bytes[i] & 0x0f];
+        }
+        return new String(hex);
+    }
+
+    /**
+     * An hour, and the HMACs calculated during it.
+     */
+    private static final class Hour {
+        private final long hour;
+        private final String formatted;
+        private final ConcurrentMap<String, String> hmacs = new ConcurrentHashMap<String, String>();
+
+        Hour(long hour) {
+            this.hour = hour;
+            SimpleDateFormat format = new SimpleDateFormat(DATE_FORMAT);
+            format.setTimeZone(TimeZone.getTimeZone("UTC"));
+            this.formatted = format.format(new Date(TimeUnit.HOURS.toMillis(hour)));
+        }
+    }
+
+    /**
+     * The initialized {@link Mac} of each key used by a thread during an hour.
+     */
+    private static final class Macs {
+        private long hour = -1;
+        private final Map<String, Mac> byKey = new HashMap<String, Mac>();
+
+        Mac get(long hour, String key) throws NoSuchAlgorithmException, InvalidKeyException {
+            if (this.hour != hour) {
+                byKey.clear();
+                this.hour = hour;
+            }
+            Mac mac = byKey.get(key);
+            if (mac == null) {
+                SecretKeySpec sks = new SecretKeySpec(key.getBytes(), HMAC_KEY);
+                mac = Mac.getInstance(sks.getAlgorithm());
+                mac.init(sks);
+                byKey.put(key, mac);
+            }
+            return mac;
+        }
+    }
+}
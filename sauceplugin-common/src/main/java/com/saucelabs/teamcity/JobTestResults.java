@@ -0,0 +1,132 @@
+package com.saucelabs.teamcity;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Works out whether each Sauce job passed from the result of the TeamCity test which ran it, the job being matched to
+ * the test by the job name logged with its session id.
+ * <p>
+ * The job names are indexed first, then each test result is looked up in the index by its name and the shorter names
+ * it ends with (eg. 'com.example.LoginTest.testLogin', 'LoginTest.testLogin' and 'testLogin'), with and without its
+ * parameters, so the test results are read once whatever the number of jobs. A job name matched by both passed and
+ * failed tests is ambiguous, and has no result.
+ */
+public class JobTestResults {
+
+    /**
+     * Number of trailing segments of a test name looked up, besides the whole name.
+     */
+    private static final int MAX_SHORT_NAMES = 2;
+
+    private final Map<String, Outcome> outcomes;
+
+    /**
+     * @param jobNames the job names logged with the session ids of the build
+     */
+    public JobTestResults(Collection<String> jobNames) {
+        outcomes = new HashMap<String, Outcome>(jobNames.size() * 2);
+        for (String jobName : jobNames) {
+            if (jobName != null) {
+                outcomes.put(jobName, new Outcome());
+            }
+        }
+    }
+
+    /**
+     * @return false if no job name is known, in which case there's no need to read the test results
+     */
+    public boolean hasJobNames() {
+        return !outcomes.isEmpty();
+    }
+
+    /**
+     * @param testName the name of a test which ran in the build, without the suite
+     * @param passed   whether the test passed
+     */
+    public void accept(String testName, boolean passed) {
+        if (testName == null) {
+            return;
+        }
+        //parameters may contain dots, so the name is only split before them
+        int end = testName.indexOf('[');
+        if (end == -1) {
+            end = testName.indexOf('(');
+        }
+        String name = end == -1 ? testName : testName.substring(0, end);
+        String parameters = end == -1 ? "" : testName.substring(end);
+        add(testName, passed);
+        if (!parameters.isEmpty()) {
+            add(name, passed);
+        }
+        int from = name.length();
+        for (int i = 0; i < MAX_SHORT_NAMES; i++) {
+            int dot = name.lastIndexOf('.', from - 1);
+            if (dot == -1) {
+                return;
+            }
+            String shortName = name.substring(dot + 1);
+            add(shortName, passed);
+            if (!parameters.isEmpty()) {
+                add(shortName + parameters, passed);
+            }
+            from = dot;
+        }
+    }
+
+    private void add(String jobName, boolean passed) {
+        Outcome outcome = outcomes.get(jobName);
+        if (outcome != null) {
+            outcome.add(passed);
+        }
+    }
+
+    /**
+     * @param jobName the job name logged with a session id, or null
+     * @return whether the tests of the job passed, or null if no test matched the job name, or the tests disagree
+     */
+    public Boolean getPassed(String jobName) {
+        if (jobName == null) {
+            return null;
+        }
+        Outcome outcome = outcomes.get(jobName);
+        return outcome == null ? null : outcome.getPassed();
+    }
+
+    /**
+     * @return the number of job names matched by at least one test
+     */
+    public int getMatchedCount() {
+        int count = 0;
+        for (Outcome outcome : outcomes.values()) {
+            if (outcome.passed + outcome.failed > 0) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static final class Outcome {
+        private int passed;
+        private int failed;
+
+        void add(boolean passed) {
+            if (passed) {
+                this.passed++;
+            } else {
+                this.failed++;
+            }
+        }
+
+        Boolean getPassed() {
+            if (passed > 0 && failed == 0) {
+                return true;
+            }
+            if (failed > 0 && passed == 0) {
+                return false;
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package com.saucelabs.teamcity;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Metrics of a Sauce Connect tunnel, measured by the plugin while a build uses it.
+ * <p>
+ * Only what the plugin measures itself is kept: the output of Sauce Connect differs between its versions and isn't
+ * parsed for metrics.
+ */
+public class SauceConnectMetrics {
+
+    public static final String START_MILLIS_STATISTIC = "saucePlugin.sauceConnect.startMillis";
+
+    private long startMillis = -1;
+
+    /**
+     * @param startMillis how long the tunnel took to start
+     */
+    public synchronized void setStartMillis(long startMillis) {
+        this.startMillis = startMillis;
+    }
+
+    /**
+     * @return how long the tunnel took to start, or -1 if it was started before the build used it
+     */
+    public synchronized long getStartMillis() {
+        return startMillis;
+    }
+
+    /**
+     * Combines the metrics of the tunnels of a build: the start time of the slowest tunnel.
+     *
+     * @param metrics the metrics of each tunnel
+     * @return the build statistic values, keyed by statistic
+     */
+    public static Map<String, Long> toStatistics(Collection<SauceConnectMetrics> metrics) {
+        long startMillis = -1;
+        for (SauceConnectMetrics tunnel : metrics) {
+            startMillis = Math.max(startMillis, tunnel.getStartMillis());
+        }
+
+        Map<String, Long> statistics = new LinkedHashMap<String, Long>();
+        if (startMillis >= 0) {
+            statistics.put(START_MILLIS_STATISTIC, startMillis);
+        }
+        return statistics;
+    }
+}
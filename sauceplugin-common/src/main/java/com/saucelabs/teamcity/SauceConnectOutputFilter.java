@@ -0,0 +1,127 @@
+package com.saucelabs.teamcity;
+
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+
+/**
+ * Summarizes the output of a Sauce Connect tunnel for the build log.
+ * <p>
+ * Consecutive lines which only differ by their timestamp are collapsed into a single line and a repeat count, and the
+ * remaining lines are rate limited with a token bucket of {@code burst} lines, refilled at {@code linesPerSecond}.
+ * Lines reporting an error or a warning are always kept. The number of lines left out is reported once lines are
+ * kept again, or when the filter is flushed.
+ */
+public class SauceConnectOutputFilter {
+
+    private static final Pattern TIMESTAMP = Pattern.compile("^\\d{4}[-/]\\d{2}[-/]\\d{2}[ T]\\d{2}:\\d{2}:\\d{2}([.,]\\d+)?\\s*(Z|[+-]\\d{2}:?\\d{2})?\\s*(\\[\\d+\\]\\s*)?");
+    private static final Pattern IMPORTANT = Pattern.compile("\\b(error|fatal|warn(ing)?|failed)\\b", Pattern.CASE_INSENSITIVE);
+
+    private final double linesPerSecond;
+    private final int burst;
+
+    private double tokens;
+    private long refilledAt = -1;
+
+    private String lastLine;
+    private boolean lastKept;
+    private long repeated;
+    private long omitted;
+
+    private long totalRepeated;
+    private long totalOmitted;
+
+    /**
+     * @param linesPerSecond lines kept per second once the burst is used up, or 0 to keep every distinct line
+     * @param burst          lines kept before the rate limit applies
+     */
+    public SauceConnectOutputFilter(double linesPerSecond, int burst) {
+        this.linesPerSecond = linesPerSecond;
+        this.burst = Math.max(1, burst);
+        this.tokens = this.burst;
+    }
+
+    /**
+     * @param line a line logged by Sauce Connect
+     * @param now  current time in milliseconds
+     * @param out  receives the lines to write to the build log
+     */
+    public synchronized void accept(String line, long now, Consumer<String> out) {
+        if (line == null) {
+            return;
+        }
+        String normalized = TIMESTAMP.matcher(line).replaceFirst("");
+        if (normalized.equals(lastLine)) {
+            if (lastKept) {
+                repeated++;
+                totalRepeated++;
+            } else {
+                omitted++;
+                totalOmitted++;
+            }
+            return;
+        }
+        flushRepeated(out);
+        lastLine = normalized;
+
+        boolean important = IMPORTANT.matcher(line).find();
+        refill(now);
+        if (important || linesPerSecond <= 0 || tokens >= 1) {
+            if (!important && linesPerSecond > 0) {
+                tokens -= 1;
+            }
+            flushOmitted(out);
+            out.accept(line);
+            lastKept = true;
+        } else {
+            omitted++;
+            totalOmitted++;
+            lastKept = false;
+        }
+    }
+
+    /**
+     * Reports the lines collapsed or left out since the last line written to the build log.
+     *
+     * @param out receives the lines to write to the build log
+     */
+    public synchronized void flush(Consumer<String> out) {
+        flushRepeated(out);
+        flushOmitted(out);
+        lastLine = null;
+    }
+
+    /**
+     * @return the number of lines collapsed into a repeat count so far
+     */
+    public synchronized long getRepeatedCount() {
+        return totalRepeated;
+    }
+
+    /**
+     * @return the number of lines left out by the rate limit so far
+     */
+    public synchronized long getOmittedCount() {
+        return totalOmitted;
+    }
+
+    private void refill(long now) {
+        if (refilledAt >= 0 && now > refilledAt) {
+            tokens = Math.min(burst, tokens + (now - refilledAt) * linesPerSecond / 1000);
+        }
+        refilledAt = now;
+    }
+
+    private void flushRepeated(Consumer<String> out) {
+        if (repeated > 0) {
+            out.accept("(last line repeated " + repeated + " more time" + (repeated == 1 ? "" : "s") + ")");
+            repeated = 0;
+        }
+    }
+
+    private void flushOmitted(Consumer<String> out) {
+        if (omitted > 0) {
+            out.accept("(" + omitted + " line" + (omitted == 1 ? "" : "s") + " of Sauce Connect output omitted from the build log)");
+            omitted = 0;
+        }
+    }
+}
@@ -0,0 +1,228 @@
+package com.saucelabs.teamcity;
+
+import com.saucelabs.saucerest.DataCenter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The settings of a Sauce build feature, resolved once per build.
+ * <p>
+ * The agent name is substituted into the username, the data center and the Selenium host and port defaults are
+ * resolved, and the lists and flags are parsed, so that the agent and server don't look up and parse the feature
+ * parameters every time they need one of them.
+ */
+public final class SauceFeatureConfig {
+
+    private final String username;
+    private final String accessKey;
+    private final String dataCenter;
+    private final DataCenter sauceRESTDataCenter;
+    private final String seleniumHost;
+    private final String seleniumPort;
+    private final String startingUrl;
+    private final String maxDuration;
+    private final String idleTimeout;
+    private final List<String> selectedBrowsers;
+    private final String sauceConnectOptions;
+    private final int sauceConnectTunnels;
+    private final List<String> sauceConnectSteps;
+    private final boolean sauceConnect;
+    private final boolean useLatestSauceConnect;
+    private final boolean keepSauceConnectWarm;
+    private final boolean startSauceConnectInBackground;
+    private final boolean browsersFile;
+    private final boolean debugMode;
+    private final boolean resultsDisabled;
+
+    private SauceFeatureConfig(Map<String, String> parameters, String agentName) {
+        ParametersProvider provider = new ParametersProvider(parameters, agentName);
+        String username = parameters.get(Constants.SAUCE_USER_ID_KEY);
+        this.username = ParametersProvider.TEAMCITY_AGENT_NAME.equals(username) ? agentName : username;
+        this.accessKey = provider.getAccessKey();
+        this.dataCenter = provider.getDataCenter();
+        this.sauceRESTDataCenter = provider.getSauceRESTDataCenter();
+        this.sauceConnect = isTrue(parameters, Constants.SAUCE_CONNECT_KEY);
+        this.seleniumHost = withDefault(parameters.get(Constants.SELENIUM_HOST_KEY), sauceConnect ? "localhost" : "ondemand.saucelabs.com");
+        this.seleniumPort = withDefault(parameters.get(Constants.SELENIUM_PORT_KEY), sauceConnect ? "4445" : "80");
+        this.startingUrl = parameters.get(Constants.SELENIUM_STARTING_URL_KEY);
+        this.maxDuration = parameters.get(Constants.SELENIUM_MAX_DURATION_KEY);
+        this.idleTimeout = parameters.get(Constants.SELENIUM_IDLE_TIMEOUT_KEY);
+        this.selectedBrowsers = parseSelectedBrowsers(parameters);
+        this.sauceConnectOptions = parameters.get(Constants.SAUCE_CONNECT_OPTIONS);
+        this.sauceConnectTunnels = parseTunnelCount(parameters.get(Constants.SAUCE_CONNECT_TUNNELS));
+        this.sauceConnectSteps = parseList(parameters.get(Constants.SAUCE_CONNECT_STEPS));
+        this.useLatestSauceConnect = isTrue(parameters, Constants.USE_LATEST_SAUCE_CONNECT);
+        this.keepSauceConnectWarm = isTrue(parameters, Constants.KEEP_SAUCE_CONNECT_WARM);
+        this.startSauceConnectInBackground = isTrue(parameters, Constants.START_SAUCE_CONNECT_IN_BACKGROUND);
+        this.browsersFile = isTrue(parameters, Constants.BROWSERS_FILE_KEY);
+        this.debugMode = isTrue(parameters, Constants.DEBUG_MODE);
+        this.resultsDisabled = isTrue(parameters, Constants.DISABLE_RESULTS_KEY);
+    }
+
+    /**
+     * @param parameters the parameters of the build feature
+     * @param agentName  the name of the agent running the build, substituted for {@code %teamcity.agent.name%}
+     * @return the resolved settings of the build feature
+     */
+    public static SauceFeatureConfig parse(Map<String, String> parameters, String agentName) {
+        return new SauceFeatureConfig(parameters, agentName);
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public String getAccessKey() {
+        return accessKey;
+    }
+
+    /**
+     * @return the data center as set in the feature, US by default
+     */
+    public String getDataCenter() {
+        return dataCenter;
+    }
+
+    public DataCenter getSauceRESTDataCenter() {
+        return sauceRESTDataCenter;
+    }
+
+    /**
+     * @return the Selenium host, localhost when Sauce Connect is started, ondemand.saucelabs.com otherwise
+     */
+    public String getSeleniumHost() {
+        return seleniumHost;
+    }
+
+    /**
+     * @return the Selenium port, 4445 when Sauce Connect is started, 80 otherwise
+     */
+    public String getSeleniumPort() {
+        return seleniumPort;
+    }
+
+    public String getStartingUrl() {
+        return startingUrl;
+    }
+
+    public String getMaxDuration() {
+        return maxDuration;
+    }
+
+    public String getIdleTimeout() {
+        return idleTimeout;
+    }
+
+    /**
+     * @return the keys of the selected browsers
+     */
+    public List<String> getSelectedBrowsers() {
+        return selectedBrowsers;
+    }
+
+    /**
+     * @return the Sauce Connect options as set in the feature, or null
+     */
+    public String getSauceConnectOptions() {
+        return sauceConnectOptions;
+    }
+
+    /**
+     * @return the number of tunnels to open, 1 unless the feature asks for more
+     */
+    public int getSauceConnectTunnels() {
+        return sauceConnectTunnels;
+    }
+
+    /**
+     * @return the names of the build steps which wait for Sauce Connect, empty if only the first step waits
+     */
+    public List<String> getSauceConnectSteps() {
+        return sauceConnectSteps;
+    }
+
+    public boolean isSauceConnect() {
+        return sauceConnect;
+    }
+
+    public boolean isUseLatestSauceConnect() {
+        return useLatestSauceConnect;
+    }
+
+    public boolean isKeepSauceConnectWarm() {
+        return keepSauceConnectWarm;
+    }
+
+    public boolean isStartSauceConnectInBackground() {
+        return startSauceConnectInBackground;
+    }
+
+    public boolean isBrowsersFile() {
+        return browsersFile;
+    }
+
+    public boolean isDebugMode() {
+        return debugMode;
+    }
+
+    public boolean isResultsDisabled() {
+        return resultsDisabled;
+    }
+
+    private static boolean isTrue(Map<String, String> parameters, String key) {
+        return "true".equals(parameters.get(key));
+    }
+
+    private static String withDefault(String value, String defaultValue) {
+        return value == null || value.isEmpty() ? defaultValue : value;
+    }
+
+    /**
+     * The selected browsers are stored in saucePlugin.selectedBrowsers by the settings page, older configurations only
+     * have saucePlugin.webDriverBrowsers.
+     */
+    private static List<String> parseSelectedBrowsers(Map<String, String> parameters) {
+        String selectedBrowsers = parameters.get(Constants.SELENIUM_SELECTED_BROWSER);
+        if (selectedBrowsers != null && selectedBrowsers.split(",").length != 0) {
+            return split(selectedBrowsers);
+        }
+        selectedBrowsers = parameters.get(Constants.SELENIUM_WEB_DRIVER_BROWSERS);
+        if (selectedBrowsers != null) {
+            return split(selectedBrowsers);
+        }
+        return Collections.emptyList();
+    }
+
+    private static List<String> split(String value) {
+        List<String> values = new ArrayList<String>();
+        Collections.addAll(values, value.split(","));
+        return Collections.unmodifiableList(values);
+    }
+
+    private static List<String> parseList(String value) {
+        if (value == null || value.trim().isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<String> values = new ArrayList<String>();
+        for (String item : value.split(",")) {
+            if (!item.trim().isEmpty()) {
+                values.add(item.trim());
+            }
+        }
+        return Collections.unmodifiableList(values);
+    }
+
+    private static int parseTunnelCount(String value) {
+        if (value == null || value.trim().isEmpty()) {
+            return 1;
+        }
+        try {
+            return Math.max(1, Integer.parseInt(value.trim()));
+        } catch (NumberFormatException e) {
+            return 1;
+        }
+    }
+}
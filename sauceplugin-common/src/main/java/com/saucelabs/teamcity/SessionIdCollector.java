@@ -0,0 +1,206 @@
+package com.saucelabs.teamcity;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Collects Sauce session ids from build log lines which contain 'SauceOnDemandSessionID=SESSION_ID job-name=JOB_NAME'.
+ * <p>
+ * Lines can be fed as they are logged, so that the session ids are already known once the build finishes. A session
+ * id logged several times, or both logged and reported by the agent, is collected once, along with the job name logged
+ * with it.
+ * <p>
+ * The session ids and their job names are kept in a {@link SessionIdSet}, which holds at most {@code maxSessionIds}
+ * of them. Iterating the collector goes through a snapshot of the session ids, in the order they were logged, so
+ * session ids can still be added meanwhile.
+ */
+public class SessionIdCollector implements Iterable<String> {
+
+    public static final String SAUCE_ON_DEMAND_SESSION_ID = "SauceOnDemandSessionID";
+
+    private static final String SESSION_ID_PREFIX = SAUCE_ON_DEMAND_SESSION_ID + "=";
+
+    private static final String JOB_NAME_PREFIX = "job-name=";
+
+    public static final int DEFAULT_MAX_SESSION_IDS = 100000;
+
+    private final SessionIdSet sessionIds;
+
+    private long duplicates;
+
+    public SessionIdCollector() {
+        this(DEFAULT_MAX_SESSION_IDS);
+    }
+
+    /**
+     * @param maxSessionIds the maximum number of session ids collected, the others are dropped
+     */
+    public SessionIdCollector(int maxSessionIds) {
+        this.sessionIds = new SessionIdSet(maxSessionIds);
+    }
+
+    /**
+     * @param line a single line of build output
+     * @return true if the line contained a session id
+     */
+    public boolean accept(String line) {
+        String sessionId = extractSessionId(line);
+        if (sessionId == null) {
+            return false;
+        }
+        add(sessionId, extractJobName(line));
+        return true;
+    }
+
+    /**
+     * @param sessionId a session id already extracted from the build output
+     * @return true if the session id wasn't collected before
+     */
+    public boolean add(String sessionId) {
+        return add(sessionId, null);
+    }
+
+    /**
+     * @param sessionId a session id already extracted from the build output
+     * @param jobName   the job name logged with the session id, or null
+     * @return true if the session id wasn't collected before
+     */
+    public synchronized boolean add(String sessionId, String jobName) {
+        if (sessionIds.add(sessionId, jobName)) {
+            return true;
+        }
+        if (sessionIds.contains(sessionId)) {
+            duplicates++;
+        }
+        return false;
+    }
+
+    /**
+     * @return the session ids collected so far, in the order they were logged
+     */
+    public synchronized List<String> getSessionIds() {
+        return sessionIds.toList();
+    }
+
+    /**
+     * @return true if no session id was collected
+     */
+    public synchronized boolean isEmpty() {
+        return sessionIds.size() == 0;
+    }
+
+    @Override
+    public Iterator<String> iterator() {
+        return getSessionIds().iterator();
+    }
+
+    /**
+     * @return the number of session ids collected
+     */
+    public synchronized int size() {
+        return sessionIds.size();
+    }
+
+    /**
+     * @param sessionId a session id collected
+     * @return the job name logged with the session id, or null if it was logged without one
+     */
+    public synchronized String getJobName(String sessionId) {
+        return sessionIds.getJobName(sessionId);
+    }
+
+    /**
+     * @return the job names logged with the session ids, for the sessions logged with one
+     */
+    public synchronized Collection<String> getLoggedJobNames() {
+        return Collections.unmodifiableList(sessionIds.getJobNames());
+    }
+
+    /**
+     * @return the number of times a session id already collected was logged or reported again, including the
+     * duplicates removed before the session ids were reported
+     */
+    public synchronized long getDuplicateCount() {
+        return duplicates;
+    }
+
+    /**
+     * @param count the number of duplicate session ids removed before the session ids were reported, eg. by the agent
+     */
+    public synchronized void addDuplicateCount(long count) {
+        duplicates += count;
+    }
+
+    /**
+     * @return the number of session ids dropped because {@code maxSessionIds} were already collected
+     */
+    public synchronized int getDroppedCount() {
+        return sessionIds.getRejectedCount();
+    }
+
+    /**
+     * @param value the value of a build message
+     * @return the text of the message as shown in the build log. Most messages carry their text, test output and
+     * the like carry a value which holds the text.
+     */
+    public static String getText(Object value) {
+        if (value == null || value instanceof String) {
+            return (String) value;
+        }
+        return value.toString();
+    }
+
+    /**
+     * @param line a single line of build output
+     * @return the session id contained in the line, or null if the line doesn't reference a Sauce session
+     */
+    public static String extractSessionId(String line) {
+        if (line == null || indexOfIgnoreCase(line, SAUCE_ON_DEMAND_SESSION_ID) == -1) {
+            return null;
+        }
+        int start = line.indexOf(SESSION_ID_PREFIX);
+        if (start == -1) {
+            return null;
+        }
+        start += SESSION_ID_PREFIX.length();
+        //we might not have a space separating the session id and job-name, so retrieve the text up to the end of the string
+        int end = line.indexOf(' ', start);
+        String sessionId = end == -1 ? line.substring(start) : line.substring(start, end);
+        if (sessionId.isEmpty() || sessionId.equalsIgnoreCase("null")) {
+            return null;
+        }
+        return sessionId;
+    }
+
+    /**
+     * @param line a single line of build output which contains a session id
+     * @return the job name which follows 'job-name=' up to the end of the line, or null
+     */
+    public static String extractJobName(String line) {
+        int start = line.indexOf(JOB_NAME_PREFIX);
+        if (start == -1) {
+            return null;
+        }
+        String jobName = line.substring(start + JOB_NAME_PREFIX.length()).trim();
+        return jobName.isEmpty() ? null : jobName;
+    }
+
+    /**
+     * Case insensitive search which only compares whole regions at positions where the first character matches,
+     * so the common case of lines without a session id stays a single pass over the characters.
+     */
+    private static int indexOfIgnoreCase(String str, String search) {
+        char lower = Character.toLowerCase(search.charAt(0));
+        char upper = Character.toUpperCase(search.charAt(0));
+        int max = str.length() - search.length();
+        for (int i = 0; i <= max; i++) {
+            char c = str.charAt(i);
+            if ((c == lower || c == upper) && str.regionMatches(true, i, search, 0, search.length())) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
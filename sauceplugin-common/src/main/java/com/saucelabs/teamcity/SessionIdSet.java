@@ -0,0 +1,315 @@
+package com.saucelabs.teamcity;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * An insertion ordered set of Sauce session ids which holds at most {@code maxSize} ids.
+ * <p>
+ * Sauce session ids are 32 lower case hex characters, which are packed into two longs and indexed by an open
+ * addressing hash table, so that a build with many thousands of sessions doesn't keep a String and a hash map entry
+ * per session. Session ids in any other format are kept as Strings. Iterating formats the packed session ids one at a
+ * time, in the order they were added.
+ * <p>
+ * A job name can be kept with each session id. The job names of packed session ids are held in an array parallel to
+ * the packed ids, so keeping them doesn't bring back a String per session id either.
+ * <p>
+ * Not thread safe.
+ */
+public class SessionIdSet implements Iterable<String> {
+
+    private static final int HEX_LENGTH = 32;
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final int maxSize;
+
+    /**
+     * The packed session ids, in the order they were added.
+     */
+    private long[] high = new long[INITIAL_CAPACITY];
+    private long[] low = new long[INITIAL_CAPACITY];
+    private int packedCount;
+
+    /**
+     * The job names of the packed session ids, by position in {@link #high} and {@link #low}. Only allocated once a
+     * session id is added with a job name.
+     */
+    private String[] packedJobNames;
+
+    /**
+     * The positions in {@link #high} and {@link #low} plus one, 0 for an empty slot. The length is a power of two.
+     */
+    private int[] table = new int[INITIAL_CAPACITY * 2];
+
+    /**
+     * The session ids which couldn't be packed, mapped to their job name or null.
+     */
+    private final Map<String, String> unpacked = new HashMap<String, String>();
+
+    /**
+     * The order of all the session ids, a position in {@link #high} and {@link #low} for packed ids, or the bitwise
+     * complement of the position in {@link #unpackedIds} for the others.
+     */
+    private int[] order = new int[INITIAL_CAPACITY];
+    private final List<String> unpackedIds = new ArrayList<String>();
+    private int size;
+
+    private int rejected;
+
+    /**
+     * @param maxSize the maximum number of session ids, the session ids added once the set is full are rejected
+     */
+    public SessionIdSet(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * @param sessionId a session id
+     * @return true if the session id was added, false if it's already in the set or the set is full
+     */
+    public boolean add(String sessionId) {
+        return add(sessionId, null);
+    }
+
+    /**
+     * @param sessionId a session id
+     * @param jobName   the job name of the session, or null. The job name of a session id already in the set is only
+     *                  kept if it didn't have one yet.
+     * @return true if the session id was added, false if it's already in the set or the set is full
+     */
+    public boolean add(String sessionId, String jobName) {
+        if (isPackable(sessionId)) {
+            long h = parseHex(sessionId, 0);
+            long l = parseHex(sessionId, HEX_LENGTH / 2);
+            int slot = find(h, l);
+            if (table[slot] != 0) {
+                setPackedJobName(table[slot] - 1, jobName);
+                return false;
+            }
+            if (isFull()) {
+                return false;
+            }
+            if (packedCount == high.length) {
+                high = Arrays.copyOf(high, packedCount * 2);
+                low = Arrays.copyOf(low, packedCount * 2);
+                if (packedJobNames != null) {
+                    packedJobNames = Arrays.copyOf(packedJobNames, packedCount * 2);
+                }
+            }
+            high[packedCount] = h;
+            low[packedCount] = l;
+            table[slot] = ++packedCount;
+            if (packedCount * 2 > table.length) {
+                rehash();
+            }
+            setPackedJobName(packedCount - 1, jobName);
+            append(packedCount - 1);
+            return true;
+        }
+        if (unpacked.containsKey(sessionId)) {
+            if (jobName != null && unpacked.get(sessionId) == null) {
+                unpacked.put(sessionId, jobName);
+            }
+            return false;
+        }
+        if (isFull()) {
+            return false;
+        }
+        unpacked.put(sessionId, jobName);
+        unpackedIds.add(sessionId);
+        append(~(unpackedIds.size() - 1));
+        return true;
+    }
+
+    public boolean contains(String sessionId) {
+        if (isPackable(sessionId)) {
+            return table[find(parseHex(sessionId, 0), parseHex(sessionId, HEX_LENGTH / 2))] != 0;
+        }
+        return unpacked.containsKey(sessionId);
+    }
+
+    /**
+     * @param sessionId a session id
+     * @return the job name kept with the session id, or null if it's not in the set or was added without one
+     */
+    public String getJobName(String sessionId) {
+        if (isPackable(sessionId)) {
+            int entry = table[find(parseHex(sessionId, 0), parseHex(sessionId, HEX_LENGTH / 2))];
+            return entry == 0 || packedJobNames == null ? null : packedJobNames[entry - 1];
+        }
+        return unpacked.get(sessionId);
+    }
+
+    /**
+     * @return the job names kept with the session ids, in the order the session ids were added
+     */
+    public List<String> getJobNames() {
+        List<String> jobNames = new ArrayList<String>();
+        for (int i = 0; i < size; i++) {
+            int position = order[i];
+            String jobName = position < 0 ? unpacked.get(unpackedIds.get(~position))
+                    : packedJobNames == null ? null : packedJobNames[position];
+            if (jobName != null) {
+                jobNames.add(jobName);
+            }
+        }
+        return jobNames;
+    }
+
+    /**
+     * @return the number of session ids kept as Strings because they couldn't be packed
+     */
+    int getUnpackedCount() {
+        return unpackedIds.size();
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the number of session ids which weren't added because the set was full
+     */
+    public int getRejectedCount() {
+        return rejected;
+    }
+
+    /**
+     * @return the session ids, in the order they were added
+     */
+    public List<String> toList() {
+        List<String> sessionIds = new ArrayList<String>(size);
+        for (String sessionId : this) {
+            sessionIds.add(sessionId);
+        }
+        return sessionIds;
+    }
+
+    @Override
+    public Iterator<String> iterator() {
+        return new Iterator<String>() {
+            private final char[] chars = new char[HEX_LENGTH];
+            private int next;
+
+            @Override
+            public boolean hasNext() {
+                return next < size;
+            }
+
+            @Override
+            public String next() {
+                if (next >= size) {
+                    throw new NoSuchElementException();
+                }
+                int position = order[next++];
+                if (position < 0) {
+                    return unpackedIds.get(~position);
+                }
+                formatHex(high[position], chars, 0);
+                formatHex(low[position], chars, HEX_LENGTH / 2);
+                return new String(chars);
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    private void setPackedJobName(int position, String jobName) {
+        if (jobName == null) {
+            return;
+        }
+        if (packedJobNames == null) {
+            packedJobNames = new String[high.length];
+        }
+        if (packedJobNames[position] == null) {
+            packedJobNames[position] = jobName;
+        }
+    }
+
+    private boolean isFull() {
+        if (size < maxSize) {
+            return false;
+        }
+        rejected++;
+        return true;
+    }
+
+    private void append(int position) {
+        if (size == order.length) {
+            order = Arrays.copyOf(order, size * 2);
+        }
+        order[size++] = position;
+    }
+
+    /**
+     * @return the slot holding the session id, or the empty slot where it belongs
+     */
+    private int find(long h, long l) {
+        int mask = table.length - 1;
+        int slot = hash(h, l) & mask;
+        while (true) {
+            int entry = table[slot];
+            if (entry == 0 || (high[entry - 1] == h && low[entry - 1] == l)) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    private void rehash() {
+        table = new int[table.length * 2];
+        int mask = table.length - 1;
+        for (int i = 0; i < packedCount; i++) {
+            int slot = hash(high[i], low[i]) & mask;
+            while (table[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = i + 1;
+        }
+    }
+
+    private static int hash(long h, long l) {
+        long hash = h * 0x9E3779B97F4A7C15L ^ l;
+        hash *= 0xC2B2AE3D27D4EB4FL;
+        return (int) (hash ^ (hash >>> 32));
+    }
+
+    private static boolean isPackable(String sessionId) {
+        if (sessionId.length() != HEX_LENGTH) {
+            return false;
+        }
+        for (int i = 0; i < HEX_LENGTH; i++) {
+            char c = sessionId.charAt(i);
+            if ((c < '0' || c > '9') && (c < 'a' || c > 'f')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static long parseHex(String sessionId, int start) {
+        long value = 0;
+        for (int i = start; i < start + HEX_LENGTH / 2; i++) {
+            char c = sessionId.charAt(i);
+            value = value << 4 | (c <= '9' ? c - '0' : c - 'a' + 10);
+        }
+        return value;
+    }
+
+    private static void formatHex(long value, char[] chars, int start) {
+        for (int i = start + HEX_LENGTH / 2 - 1; i >= start; i--) {
+            int digit = (int) (value & 0xf);
+            chars[i] = (char) (digit < 10 ? '0' + digit : 'a' + digit - 10);
+            value >>>= 4;
+        }
+    }
+}
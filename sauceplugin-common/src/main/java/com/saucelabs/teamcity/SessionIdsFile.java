@@ -0,0 +1,73 @@
+package com.saucelabs.teamcity;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+/**
+ * Reads and writes the Sauce session ids of a build, stored as a hidden build artifact with one session id per line.
+ */
+public final class SessionIdsFile {
+
+    private SessionIdsFile() {
+    }
+
+    /**
+     * Writes the unique session ids, in the order they were first logged.
+     *
+     * @param artifactsDirectory the artifacts directory of the build
+     * @param sessionIds         session ids logged by the build
+     * @throws IOException
+     */
+    public static void write(File artifactsDirectory, Collection<String> sessionIds) throws IOException {
+        File file = new File(artifactsDirectory, Constants.SESSION_IDS_ARTIFACT);
+        File parent = file.getParentFile();
+        if (!parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("Unable to create directory " + parent);
+        }
+        BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8));
+        try {
+            for (String sessionId : new LinkedHashSet<String>(sessionIds)) {
+                writer.write(sessionId);
+                writer.write('\n');
+            }
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * @param artifactsDirectory the artifacts directory of the build
+     * @return the session ids of the build, or null if they weren't stored for the build
+     * @throws IOException
+     */
+    public static List<String> read(File artifactsDirectory) throws IOException {
+        File file = new File(artifactsDirectory, Constants.SESSION_IDS_ARTIFACT);
+        if (!file.isFile()) {
+            return null;
+        }
+        List<String> sessionIds = new ArrayList<String>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.isEmpty()) {
+                    sessionIds.add(line);
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return sessionIds;
+    }
+}
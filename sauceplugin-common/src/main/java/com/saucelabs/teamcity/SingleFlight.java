@@ -0,0 +1,98 @@
+package com.saucelabs.teamcity;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Collapses concurrent calls for the same key into a single call: the first caller performs the call, and callers
+ * arriving while it is in flight wait for, and share, its result or exception.
+ * <p>
+ * Results aren't kept once the call has completed, a later caller performs the call again.
+ *
+ * @param <K> identifies the call
+ * @param <V> the result of the call
+ */
+public class SingleFlight<K, V> {
+
+    /**
+     * A call to deduplicate, typically a Sauce REST API request.
+     */
+    public interface Call<V> {
+        V call() throws IOException;
+    }
+
+    private final ConcurrentMap<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<K, CompletableFuture<V>>();
+    private final AtomicLong executed = new AtomicLong();
+    private final AtomicLong collapsed = new AtomicLong();
+
+    /**
+     * @param key  identifies the call
+     * @param call performs the call, unless a call for the same key is already in flight
+     * @return the result of the call
+     * @throws IOException if the call failed
+     */
+    public V execute(K key, Call<V> call) throws IOException {
+        CompletableFuture<V> created = new CompletableFuture<V>();
+        CompletableFuture<V> existing = inFlight.putIfAbsent(key, created);
+        if (existing != null) {
+            collapsed.incrementAndGet();
+            return await(existing);
+        }
+        executed.incrementAndGet();
+        try {
+            V result = call.call();
+            created.complete(result);
+            return result;
+        } catch (IOException | RuntimeException | Error e) {
+            created.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, created);
+        }
+    }
+
+    /**
+     * @return the number of calls which were performed
+     */
+    public long getExecutedCount() {
+        return executed.get();
+    }
+
+    /**
+     * @return the number of calls which shared the result of a call already in flight
+     */
+    public long getCollapsedCount() {
+        return collapsed.get();
+    }
+
+    @Override
+    public String toString() {
+        return "executed=" + getExecutedCount() + ", collapsed=" + getCollapsedCount();
+    }
+
+    private V await(CompletableFuture<V> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for call in flight");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+}
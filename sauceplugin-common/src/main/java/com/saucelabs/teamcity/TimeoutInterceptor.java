@@ -0,0 +1,30 @@
+package com.saucelabs.teamcity;
+
+import okhttp3.Interceptor;
+import okhttp3.Response;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Applies connect, read and write timeouts to each request before handing it to the wrapped interceptor.
+ */
+public class TimeoutInterceptor implements Interceptor {
+
+    private final Interceptor delegate;
+    private final int timeoutMillis;
+
+    public TimeoutInterceptor(Interceptor delegate, int timeoutMillis) {
+        this.delegate = delegate;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    @Override
+    public Response intercept(Interceptor.Chain chain) throws IOException {
+        Interceptor.Chain timedChain = chain
+                .withConnectTimeout(timeoutMillis, TimeUnit.MILLISECONDS)
+                .withReadTimeout(timeoutMillis, TimeUnit.MILLISECONDS)
+                .withWriteTimeout(timeoutMillis, TimeUnit.MILLISECONDS);
+        return delegate.intercept(timedChain);
+    }
+}
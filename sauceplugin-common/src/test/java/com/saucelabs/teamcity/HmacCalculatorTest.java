@@ -0,0 +1,58 @@
+package com.saucelabs.teamcity;
+
+import org.junit.jupiter.api.*;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+
+class HmacCalculatorTest {
+    private static final long NOW = 1700000000000L;
+
+    @Test
+    public void testMatchesUncachedCalculation() throws Exception {
+        HmacCalculator calculator = new HmacCalculator();
+        for (int i = 0; i < 3; i++) {
+            for (String jobId : new String[]{"3fa2b4c1d5e6f7081920a1b2c3d4e5f6", "job-2", ""}) {
+                Assertions.assertEquals(reference("user", "key", jobId, NOW),
+                        calculator.calculate("user", "key", jobId, NOW));
+            }
+        }
+    }
+
+    @Test
+    public void testKeyChangesWithTheHour() throws Exception {
+        HmacCalculator calculator = new HmacCalculator();
+        long nextHour = NOW + TimeUnit.HOURS.toMillis(1);
+        String first = calculator.calculate("user", "key", "job", NOW);
+        String second = calculator.calculate("user", "key", "job", nextHour);
+        Assertions.assertNotEquals(first, second);
+        Assertions.assertEquals(reference("user", "key", "job", nextHour), second);
+    }
+
+    @Test
+    public void testDifferentCredentials() throws Exception {
+        HmacCalculator calculator = new HmacCalculator(1);
+        Assertions.assertEquals(reference("user", "key", "job", NOW), calculator.calculate("user", "key", "job", NOW));
+        Assertions.assertEquals(reference("other", "key", "job", NOW), calculator.calculate("other", "key", "job", NOW));
+        Assertions.assertEquals(reference("user", "key", "job", NOW), calculator.calculate("user", "key", "job", NOW));
+    }
+
+    private static String reference(String username, String accessKey, String jobId, long now) throws Exception {
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd-HH");
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        String key = username + ":" + accessKey + ":" + format.format(new Date(now));
+        SecretKeySpec sks = new SecretKeySpec(key.getBytes(), "HMACMD5");
+        Mac mac = Mac.getInstance(sks.getAlgorithm());
+        mac.init(sks);
+        StringBuilder hex = new StringBuilder();
+        for (byte b : mac.doFinal(jobId.getBytes())) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+}
@@ -0,0 +1,31 @@
+package com.saucelabs.teamcity;
+
+import org.junit.jupiter.api.*;
+
+import java.util.Arrays;
+
+
+class JobTestResultsTest {
+
+    @Test
+    public void testMatchesJobNamesToTestNames() {
+        JobTestResults results = new JobTestResults(Arrays.asList("com.example.LoginTest.testLogin", "LoginTest.testLogout", "testSearch", null));
+        results.accept("com.example.LoginTest.testLogin", true);
+        results.accept("com.example.LoginTest.testLogout", false);
+        results.accept("com.example.SearchTest.testSearch[1.5]", true);
+        Assertions.assertEquals(Boolean.TRUE, results.getPassed("com.example.LoginTest.testLogin"));
+        Assertions.assertEquals(Boolean.FALSE, results.getPassed("LoginTest.testLogout"));
+        Assertions.assertEquals(Boolean.TRUE, results.getPassed("testSearch"));
+        Assertions.assertNull(results.getPassed(null));
+        Assertions.assertEquals(3, results.getMatchedCount());
+    }
+
+    @Test
+    public void testConflictingResultsAreAmbiguous() {
+        JobTestResults results = new JobTestResults(Arrays.asList("testLogin"));
+        results.accept("com.example.LoginTest.testLogin", true);
+        results.accept("com.example.AdminTest.testLogin", false);
+        Assertions.assertNull(results.getPassed("testLogin"));
+        Assertions.assertEquals(1, results.getMatchedCount());
+    }
+}
@@ -0,0 +1,34 @@
+package com.saucelabs.teamcity;
+
+import org.junit.jupiter.api.*;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+
+
+class SauceConnectMetricsTest {
+
+    @Test
+    public void testStatisticsOfSeveralTunnels() {
+        SauceConnectMetrics first = new SauceConnectMetrics();
+        first.setStartMillis(1500);
+        SauceConnectMetrics second = new SauceConnectMetrics();
+        second.setStartMillis(2500);
+        SauceConnectMetrics reused = new SauceConnectMetrics();
+
+        Map<String, Long> statistics = SauceConnectMetrics.toStatistics(Arrays.asList(first, second, reused));
+        Assertions.assertEquals(Long.valueOf(2500), statistics.get(SauceConnectMetrics.START_MILLIS_STATISTIC));
+        Assertions.assertEquals(1, statistics.size());
+    }
+
+    @Test
+    public void testNoStartTimeForReusedTunnels() {
+        Assertions.assertTrue(SauceConnectMetrics.toStatistics(Collections.singletonList(new SauceConnectMetrics())).isEmpty());
+    }
+
+    @Test
+    public void testNoStatisticsWithoutTunnels() {
+        Assertions.assertTrue(SauceConnectMetrics.toStatistics(Collections.<SauceConnectMetrics>emptyList()).isEmpty());
+    }
+}
@@ -0,0 +1,57 @@
+package com.saucelabs.teamcity;
+
+import org.junit.jupiter.api.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+
+class SauceConnectOutputFilterTest {
+
+    @Test
+    public void testCollapsesLinesOnlyDifferingByTimestamp() {
+        SauceConnectOutputFilter filter = new SauceConnectOutputFilter(0, 1);
+        List<String> out = new ArrayList<String>();
+        filter.accept("2024-01-01 10:00:00.001 [42] Tunnel is healthy", 0, out::add);
+        filter.accept("2024-01-01 10:00:01.001 [42] Tunnel is healthy", 0, out::add);
+        filter.accept("2024-01-01 10:00:02.001 [42] Tunnel is healthy", 0, out::add);
+        filter.accept("2024-01-01 10:00:03.001 [42] 12 requests", 0, out::add);
+        Assertions.assertEquals(Arrays.asList(
+                "2024-01-01 10:00:00.001 [42] Tunnel is healthy",
+                "(last line repeated 2 more times)",
+                "2024-01-01 10:00:03.001 [42] 12 requests"), out);
+        Assertions.assertEquals(2, filter.getRepeatedCount());
+    }
+
+    @Test
+    public void testRateLimitsAndReportsOmittedLines() {
+        SauceConnectOutputFilter filter = new SauceConnectOutputFilter(1, 2);
+        List<String> out = new ArrayList<String>();
+        filter.accept("one", 0, out::add);
+        filter.accept("two", 0, out::add);
+        filter.accept("three", 0, out::add);
+        filter.accept("four", 0, out::add);
+        filter.accept("five", 1000, out::add);
+        Assertions.assertEquals(Arrays.asList(
+                "one",
+                "two",
+                "(2 lines of Sauce Connect output omitted from the build log)",
+                "five"), out);
+        Assertions.assertEquals(2, filter.getOmittedCount());
+    }
+
+    @Test
+    public void testAlwaysKeepsErrors() {
+        SauceConnectOutputFilter filter = new SauceConnectOutputFilter(1, 1);
+        List<String> out = new ArrayList<String>();
+        filter.accept("one", 0, out::add);
+        filter.accept("two", 0, out::add);
+        filter.accept("Error: connection refused", 0, out::add);
+        filter.flush(out::add);
+        Assertions.assertEquals(Arrays.asList(
+                "one",
+                "(1 line of Sauce Connect output omitted from the build log)",
+                "Error: connection refused"), out);
+    }
+}
@@ -0,0 +1,67 @@
+package com.saucelabs.teamcity;
+
+import com.saucelabs.saucerest.DataCenter;
+import org.junit.jupiter.api.*;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+
+class SauceFeatureConfigTest {
+    Map<String, String> parametersMap;
+    String agentName = "agent name";
+
+    @BeforeEach
+    void beforeEach() {
+        parametersMap = new HashMap<String, String>() {{
+            put(Constants.SAUCE_USER_ID_KEY, ParametersProvider.TEAMCITY_AGENT_NAME);
+            put(Constants.SAUCE_PLUGIN_ACCESS_KEY, "sauce_plugin_access_key");
+            put(Constants.SAUCE_PLUGIN_DATA_CENTER, "EU");
+        }};
+    }
+
+    @Test
+    public void testResolvesCredentialsAndDataCenter() {
+        SauceFeatureConfig config = SauceFeatureConfig.parse(parametersMap, agentName);
+        Assertions.assertEquals(agentName, config.getUsername());
+        Assertions.assertEquals("sauce_plugin_access_key", config.getAccessKey());
+        Assertions.assertEquals("EU", config.getDataCenter());
+        Assertions.assertEquals(DataCenter.EU_CENTRAL, config.getSauceRESTDataCenter());
+    }
+
+    @Test
+    public void testSeleniumDefaultsDependOnSauceConnect() {
+        SauceFeatureConfig config = SauceFeatureConfig.parse(parametersMap, agentName);
+        Assertions.assertEquals("ondemand.saucelabs.com", config.getSeleniumHost());
+        Assertions.assertEquals("80", config.getSeleniumPort());
+
+        parametersMap.put(Constants.SAUCE_CONNECT_KEY, "true");
+        config = SauceFeatureConfig.parse(parametersMap, agentName);
+        Assertions.assertTrue(config.isSauceConnect());
+        Assertions.assertEquals("localhost", config.getSeleniumHost());
+        Assertions.assertEquals("4445", config.getSeleniumPort());
+    }
+
+    @Test
+    public void testParsesListsAndCounts() {
+        parametersMap.put(Constants.SELENIUM_WEB_DRIVER_BROWSERS, "chrome,firefox");
+        parametersMap.put(Constants.SAUCE_CONNECT_STEPS, " Unit tests , ,UI tests");
+        parametersMap.put(Constants.SAUCE_CONNECT_TUNNELS, "three");
+        SauceFeatureConfig config = SauceFeatureConfig.parse(parametersMap, agentName);
+        Assertions.assertEquals(Arrays.asList("chrome", "firefox"), config.getSelectedBrowsers());
+        Assertions.assertEquals(Arrays.asList("Unit tests", "UI tests"), config.getSauceConnectSteps());
+        Assertions.assertEquals(1, config.getSauceConnectTunnels());
+    }
+
+    @Test
+    public void testDefaultsWhenNotSet() {
+        SauceFeatureConfig config = SauceFeatureConfig.parse(new HashMap<String, String>(), agentName);
+        Assertions.assertNull(config.getUsername());
+        Assertions.assertEquals(ParametersProvider.SAUCE_PLUGIN_DEFAULT_DATA_CENTER, config.getDataCenter());
+        Assertions.assertEquals(Collections.emptyList(), config.getSelectedBrowsers());
+        Assertions.assertFalse(config.isDebugMode());
+        Assertions.assertFalse(config.isResultsDisabled());
+    }
+}
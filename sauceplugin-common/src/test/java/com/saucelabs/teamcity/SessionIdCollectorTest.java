@@ -0,0 +1,107 @@
+package com.saucelabs.teamcity;
+
+import org.junit.jupiter.api.*;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+
+class SessionIdCollectorTest {
+
+    @Test
+    public void testExtractSessionIdWithJobName() {
+        Assertions.assertEquals("abc123", SessionIdCollector.extractSessionId("SauceOnDemandSessionID=abc123 job-name=my test"));
+    }
+
+    @Test
+    public void testExtractSessionIdAtEndOfLine() {
+        Assertions.assertEquals("abc123", SessionIdCollector.extractSessionId("[INFO] SauceOnDemandSessionID=abc123"));
+    }
+
+    @Test
+    public void testExtractSessionIdIgnoresOtherLines() {
+        Assertions.assertNull(SessionIdCollector.extractSessionId("Running com.example.LoginTest"));
+        Assertions.assertNull(SessionIdCollector.extractSessionId(null));
+    }
+
+    @Test
+    public void testExtractSessionIdIgnoresNullSession() {
+        Assertions.assertNull(SessionIdCollector.extractSessionId("SauceOnDemandSessionID=null job-name=my test"));
+        Assertions.assertNull(SessionIdCollector.extractSessionId("sauceondemandsessionid=abc123"));
+    }
+
+    @Test
+    public void testGetText() {
+        Assertions.assertEquals("SauceOnDemandSessionID=abc123", SessionIdCollector.getText("SauceOnDemandSessionID=abc123"));
+        Assertions.assertEquals("42", SessionIdCollector.getText(42));
+        Assertions.assertNull(SessionIdCollector.getText(null));
+    }
+
+    @Test
+    public void testAcceptCollectsInLogOrder() {
+        SessionIdCollector collector = new SessionIdCollector();
+        collector.accept("SauceOnDemandSessionID=first job-name=a");
+        collector.accept("some other output");
+        collector.accept("SauceOnDemandSessionID=second job-name=b");
+        Assertions.assertEquals(Arrays.asList("first", "second"), collector.getSessionIds());
+    }
+
+    @Test
+    public void testSessionIdsAreCollectedOnce() {
+        SessionIdCollector collector = new SessionIdCollector();
+        collector.accept("SauceOnDemandSessionID=first job-name=a");
+        Assertions.assertTrue(collector.add("second"));
+        Assertions.assertFalse(collector.add("first"));
+        collector.accept("SauceOnDemandSessionID=second job-name=b");
+        Assertions.assertEquals(Arrays.asList("first", "second"), collector.getSessionIds());
+        Assertions.assertEquals("a", collector.getJobName("first"));
+        Assertions.assertEquals("b", collector.getJobName("second"));
+        Assertions.assertEquals(2, collector.getDuplicateCount());
+    }
+
+    @Test
+    public void testIteratesInLogOrder() {
+        SessionIdCollector collector = new SessionIdCollector();
+        collector.accept("SauceOnDemandSessionID=0123456789abcdef0123456789abcdef job-name=a");
+        collector.accept("SauceOnDemandSessionID=second");
+        collector.addDuplicateCount(3);
+        List<String> sessionIds = new ArrayList<String>();
+        for (String sessionId : collector) {
+            sessionIds.add(sessionId);
+        }
+        Assertions.assertEquals(Arrays.asList("0123456789abcdef0123456789abcdef", "second"), sessionIds);
+        Assertions.assertEquals("a", collector.getJobName("0123456789abcdef0123456789abcdef"));
+        Assertions.assertNull(collector.getJobName("second"));
+        Assertions.assertEquals(Collections.singletonList("a"), new ArrayList<String>(collector.getLoggedJobNames()));
+        Assertions.assertEquals(3, collector.getDuplicateCount());
+    }
+
+    @Test
+    public void testIteratesOverSnapshot() {
+        SessionIdCollector collector = new SessionIdCollector();
+        collector.add("first");
+        Iterator<String> iterator = collector.iterator();
+        collector.add("second");
+        Assertions.assertEquals("first", iterator.next());
+        Assertions.assertFalse(iterator.hasNext());
+    }
+
+    @Test
+    public void testDoesNotKeepSessionIdStringsOfJobNames() throws InterruptedException {
+        SessionIdCollector collector = new SessionIdCollector();
+        String sessionId = String.format("%032x", 42);
+        WeakReference<String> reference = new WeakReference<String>(sessionId);
+        collector.add(sessionId, "a");
+        sessionId = null;
+        for (int i = 0; i < 20 && reference.get() != null; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        Assertions.assertNull(reference.get());
+        Assertions.assertEquals("a", collector.getJobName(String.format("%032x", 42)));
+    }
+}
@@ -0,0 +1,68 @@
+package com.saucelabs.teamcity;
+
+import org.junit.jupiter.api.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+
+class SessionIdSetTest {
+
+    @Test
+    public void testKeepsOrderAndRemovesDuplicates() {
+        SessionIdSet set = new SessionIdSet(10);
+        Assertions.assertTrue(set.add("0123456789abcdef0123456789abcdef"));
+        Assertions.assertTrue(set.add("not-a-hex-session"));
+        Assertions.assertTrue(set.add("ffffffffffffffff0000000000000000"));
+        Assertions.assertFalse(set.add("0123456789abcdef0123456789abcdef"));
+        Assertions.assertFalse(set.add("not-a-hex-session"));
+        Assertions.assertTrue(set.contains("ffffffffffffffff0000000000000000"));
+        Assertions.assertFalse(set.contains("0123456789ABCDEF0123456789ABCDEF"));
+        Assertions.assertEquals(Arrays.asList("0123456789abcdef0123456789abcdef", "not-a-hex-session", "ffffffffffffffff0000000000000000"), set.toList());
+    }
+
+    @Test
+    public void testGrowsAndRejectsOnceFull() {
+        SessionIdSet set = new SessionIdSet(1000);
+        List<String> expected = new ArrayList<String>();
+        for (int i = 0; i < 1100; i++) {
+            String sessionId = String.format("%032x", i * 7919L);
+            if (i < 1000) {
+                expected.add(sessionId);
+            }
+            set.add(sessionId);
+        }
+        Assertions.assertEquals(1000, set.size());
+        Assertions.assertEquals(100, set.getRejectedCount());
+        Assertions.assertEquals(expected, set.toList());
+        Assertions.assertTrue(set.contains(expected.get(999)));
+    }
+
+    @Test
+    public void testKeepsFirstJobName() {
+        SessionIdSet set = new SessionIdSet(10);
+        Assertions.assertTrue(set.add("0123456789abcdef0123456789abcdef"));
+        Assertions.assertTrue(set.add("not-a-hex-session", "b"));
+        Assertions.assertTrue(set.add("ffffffffffffffff0000000000000000", "c"));
+        Assertions.assertFalse(set.add("0123456789abcdef0123456789abcdef", "a"));
+        Assertions.assertFalse(set.add("0123456789abcdef0123456789abcdef", "other"));
+        Assertions.assertFalse(set.add("not-a-hex-session", "other"));
+        Assertions.assertEquals("a", set.getJobName("0123456789abcdef0123456789abcdef"));
+        Assertions.assertEquals("b", set.getJobName("not-a-hex-session"));
+        Assertions.assertNull(set.getJobName("00000000000000000000000000000000"));
+        Assertions.assertEquals(Arrays.asList("a", "b", "c"), set.getJobNames());
+    }
+
+    @Test
+    public void testPacksSessionIdsWithJobNames() {
+        SessionIdSet set = new SessionIdSet(1000);
+        for (int i = 0; i < 1000; i++) {
+            set.add(String.format("%032x", i * 7919L), "job " + (i % 10));
+        }
+        Assertions.assertEquals(1000, set.size());
+        Assertions.assertEquals(0, set.getUnpackedCount());
+        Assertions.assertEquals("job 9", set.getJobName(String.format("%032x", 999 * 7919L)));
+        Assertions.assertEquals(1000, set.getJobNames().size());
+    }
+}
@@ -0,0 +1,25 @@
+package com.saucelabs.teamcity;
+
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+
+class SessionIdsFileTest {
+    @TempDir
+    File artifactsDirectory;
+
+    @Test
+    public void testReadWhenNotStored() throws IOException {
+        Assertions.assertNull(SessionIdsFile.read(artifactsDirectory));
+    }
+
+    @Test
+    public void testWriteKeepsFirstOccurrenceOrder() throws IOException {
+        SessionIdsFile.write(artifactsDirectory, Arrays.asList("b", "a", "b", "c"));
+        Assertions.assertEquals(Arrays.asList("b", "a", "c"), SessionIdsFile.read(artifactsDirectory));
+    }
+}
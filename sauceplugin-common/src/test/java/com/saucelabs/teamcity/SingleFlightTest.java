@@ -0,0 +1,95 @@
+package com.saucelabs.teamcity;
+
+import org.junit.jupiter.api.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+class SingleFlightTest {
+    private static final int CALLERS = 16;
+
+    ExecutorService executor;
+
+    @BeforeEach
+    void beforeEach() {
+        executor = Executors.newFixedThreadPool(CALLERS);
+    }
+
+    @AfterEach
+    void afterEach() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testConcurrentCallsForSameKeyAreCollapsed() throws Exception {
+        final SingleFlight<String, String> singleFlight = new SingleFlight<String, String>();
+        final AtomicInteger calls = new AtomicInteger();
+        final SingleFlight.Call<String> call = () -> {
+            calls.incrementAndGet();
+            //hold the call in flight until every other caller is waiting for it
+            awaitCollapsed(singleFlight, CALLERS - 1);
+            return "build-id";
+        };
+
+        List<Future<String>> results = new ArrayList<Future<String>>();
+        for (int i = 0; i < CALLERS; i++) {
+            results.add(executor.submit(() -> singleFlight.execute("user:US_WEST:build1", call)));
+        }
+        for (Future<String> result : results) {
+            Assertions.assertEquals("build-id", result.get(10, TimeUnit.SECONDS));
+        }
+        Assertions.assertEquals(1, calls.get());
+        Assertions.assertEquals(1, singleFlight.getExecutedCount());
+        Assertions.assertEquals(CALLERS - 1, singleFlight.getCollapsedCount());
+    }
+
+    @Test
+    public void testFailureIsSharedWithWaitingCallers() throws Exception {
+        final SingleFlight<String, String> singleFlight = new SingleFlight<String, String>();
+        final SingleFlight.Call<String> call = () -> {
+            awaitCollapsed(singleFlight, CALLERS - 1);
+            throw new IOException("Sauce unavailable");
+        };
+
+        List<Future<String>> results = new ArrayList<Future<String>>();
+        for (int i = 0; i < CALLERS; i++) {
+            results.add(executor.submit(() -> singleFlight.execute("user:US_WEST:build1", call)));
+        }
+        for (Future<String> result : results) {
+            ExecutionException e = Assertions.assertThrows(ExecutionException.class, () -> result.get(10, TimeUnit.SECONDS));
+            Assertions.assertEquals("Sauce unavailable", e.getCause().getMessage());
+        }
+        Assertions.assertEquals(1, singleFlight.getExecutedCount());
+    }
+
+    @Test
+    public void testDifferentKeysAreNotCollapsed() throws IOException {
+        SingleFlight<String, String> singleFlight = new SingleFlight<String, String>();
+        Assertions.assertEquals("a", singleFlight.execute("user:US_WEST:build1", () -> "a"));
+        Assertions.assertEquals("b", singleFlight.execute("user:US_WEST:build2", () -> "b"));
+        Assertions.assertEquals(2, singleFlight.getExecutedCount());
+        Assertions.assertEquals(0, singleFlight.getCollapsedCount());
+    }
+
+    @Test
+    public void testCompletedCallIsNotReused() throws IOException {
+        SingleFlight<String, String> singleFlight = new SingleFlight<String, String>();
+        AtomicInteger calls = new AtomicInteger();
+        singleFlight.execute("user:US_WEST:build1", () -> "call " + calls.incrementAndGet());
+        Assertions.assertEquals("call 2", singleFlight.execute("user:US_WEST:build1", () -> "call " + calls.incrementAndGet()));
+    }
+
+    private static void awaitCollapsed(SingleFlight<?, ?> singleFlight, int collapsed) throws IOException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (singleFlight.getCollapsedCount() < collapsed) {
+            if (System.currentTimeMillis() > deadline) {
+                throw new IOException("Timed out waiting for callers");
+            }
+            Thread.yield();
+        }
+    }
+}
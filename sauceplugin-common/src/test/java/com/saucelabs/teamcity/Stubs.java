@@ -0,0 +1,71 @@
+package com.saucelabs.teamcity;
+
+import java.lang.reflect.Proxy;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Stubs of the TeamCity interfaces, which answer the methods given by name and return defaults for the others.
+ */
+public final class Stubs {
+
+    public interface Answer {
+        Object answer(Object[] args) throws Throwable;
+    }
+
+    private Stubs() {
+    }
+
+    /**
+     * @param keyValues method names, each followed by the value returned or an {@link Answer}
+     */
+    public static Map<String, Object> answers(Object... keyValues) {
+        Map<String, Object> answers = new HashMap<String, Object>();
+        for (int i = 0; i < keyValues.length; i += 2) {
+            answers.put((String) keyValues[i], keyValues[i + 1]);
+        }
+        return answers;
+    }
+
+    public static <T> T stub(final Class<T> type, final Map<String, Object> answers) {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, (proxy, method, args) -> {
+            Object answer = answers.get(method.getName());
+            if (answer instanceof Answer) {
+                return ((Answer) answer).answer(args == null ? new Object[0] : args);
+            }
+            if (answer != null) {
+                return answer;
+            }
+            switch (method.getName()) {
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return type.getSimpleName() + " stub";
+                default:
+                    return defaultValue(method.getReturnType());
+            }
+        }));
+    }
+
+    private static Object defaultValue(Class<?> type) {
+        if (type == boolean.class) {
+            return false;
+        } else if (type == int.class) {
+            return 0;
+        } else if (type == long.class) {
+            return 0L;
+        } else if (type.isPrimitive() && type != void.class) {
+            throw new UnsupportedOperationException("No default for " + type);
+        } else if (type == Map.class) {
+            return Collections.emptyMap();
+        } else if (type == List.class || type == Collection.class) {
+            return Collections.emptyList();
+        }
+        return null;
+    }
+}
@@ -0,0 +1,202 @@
+package com.saucelabs.teamcity.client;
+
+import com.saucelabs.saucerest.DataCenter;
+import com.saucelabs.saucerest.SauceREST;
+import com.saucelabs.saucerest.api.HttpClientConfig;
+import com.saucelabs.teamcity.TimeoutInterceptor;
+import com.saucelabs.teamcity.UserAgentInterceptor;
+import jetbrains.buildServer.serverSide.TeamCityProperties;
+import okhttp3.ConnectionPool;
+import org.apache.log4j.Logger;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Server-wide cache of {@link SauceREST} clients, keyed by Sauce username and data center.
+ * <p>
+ * All the clients are built from one {@link HttpClientConfig}, which holds a single OkHttp connection pool, so
+ * keep-alive connections and TLS sessions are reused across users, builds and page views. saucerest makes its
+ * requests synchronously, so the dispatcher of each client never starts any threads. An evicted client therefore has
+ * nothing to tear down, and a caller still holding it, such as a queued job update, can carry on using it.
+ * <p>
+ * A client is rebuilt when the access key for the username changes. Clients which haven't been used for a while are
+ * evicted in the background, and the least recently used client is evicted once
+ * {@code saucePlugin.restClients.maxClients} are cached.
+ */
+public class SauceRESTClientRegistry {
+
+    static final String IDLE_TIMEOUT_PROPERTY = "saucePlugin.restClients.idleTimeoutMillis";
+    static final String REQUEST_TIMEOUT_PROPERTY = "saucePlugin.restClients.requestTimeoutMillis";
+    static final String MAX_CLIENTS_PROPERTY = "saucePlugin.restClients.maxClients";
+    static final String MAX_IDLE_CONNECTIONS_PROPERTY = "saucePlugin.restClients.maxIdleConnections";
+
+    private static final Logger logger = Logger.getLogger(SauceRESTClientRegistry.class);
+
+    private final ConcurrentMap<Key, Client> clients = new ConcurrentHashMap<Key, Client>();
+    private final long idleTimeoutMillis;
+    private final int maxClients;
+    private final ConnectionPool connectionPool;
+    private final HttpClientConfig httpClientConfig;
+    private final ScheduledThreadPoolExecutor evictor;
+
+    public SauceRESTClientRegistry() {
+        this.idleTimeoutMillis = TeamCityProperties.getLong(IDLE_TIMEOUT_PROPERTY, 30 * 60 * 1000L);
+        this.maxClients = Math.max(1, TeamCityProperties.getInteger(MAX_CLIENTS_PROPERTY, 100));
+        int requestTimeoutMillis = TeamCityProperties.getInteger(REQUEST_TIMEOUT_PROPERTY, 30000);
+        int maxIdleConnections = Math.max(1, TeamCityProperties.getInteger(MAX_IDLE_CONNECTIONS_PROPERTY, 20));
+        this.connectionPool = new ConnectionPool(maxIdleConnections, 5, TimeUnit.MINUTES);
+        this.httpClientConfig = HttpClientConfig.defaultConfig()
+                .connectionPool(connectionPool)
+                .interceptor(new TimeoutInterceptor(new UserAgentInterceptor(), requestTimeoutMillis));
+        this.evictor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "sauce-rest-client-evictor");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        long period = Math.max(1000L, idleTimeoutMillis / 2);
+        this.evictor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    evictIdleClients(System.currentTimeMillis());
+                } catch (RuntimeException e) {
+                    logger.warn("Unable to evict idle Sauce REST clients", e);
+                }
+            }
+        }, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @param username   Sauce username
+     * @param accessKey  Sauce access key
+     * @param dataCenter Sauce data center
+     * @return a client for the credentials, shared with other callers using the same credentials
+     */
+    public SauceREST getClient(String username, String accessKey, DataCenter dataCenter) {
+        return getClient(username, accessKey, dataCenter, System.currentTimeMillis());
+    }
+
+    SauceREST getClient(String username, String accessKey, DataCenter dataCenter, long now) {
+        Key key = new Key(username, dataCenter);
+        Client client = clients.get(key);
+        if (client == null || !Objects.equals(client.accessKey, accessKey)) {
+            Client created = new Client(accessKey, createSauceREST(username, accessKey, dataCenter));
+            created.lastUsed = now;
+            if (client == null) {
+                Client existing = clients.putIfAbsent(key, created);
+                if (existing != null && Objects.equals(existing.accessKey, accessKey)) {
+                    client = existing;
+                } else {
+                    if (existing != null) {
+                        clients.put(key, created);
+                    }
+                    client = created;
+                }
+            } else {
+                logger.info("Access key changed for Sauce user: " + username + ", creating a new REST client");
+                clients.put(key, created);
+                client = created;
+            }
+            evictLeastRecentlyUsed(key);
+        }
+        client.lastUsed = now;
+        return client.sauceREST;
+    }
+
+    /**
+     * @return the number of cached clients
+     */
+    public int size() {
+        return clients.size();
+    }
+
+    public void clear() {
+        clients.clear();
+    }
+
+    /**
+     * Stops evicting idle clients, and closes the idle connections of the shared connection pool.
+     */
+    public void shutdown() {
+        evictor.shutdownNow();
+        clear();
+        connectionPool.evictAll();
+    }
+
+    SauceREST createSauceREST(String username, String accessKey, DataCenter dataCenter) {
+        return new SauceREST(username, accessKey, dataCenter, httpClientConfig);
+    }
+
+    void evictIdleClients(long now) {
+        for (Map.Entry<Key, Client> entry : clients.entrySet()) {
+            Client client = entry.getValue();
+            if (now - client.lastUsed > idleTimeoutMillis && clients.remove(entry.getKey(), client)) {
+                logger.debug("Evicting idle Sauce REST client for user: " + entry.getKey().username);
+            }
+        }
+    }
+
+    /**
+     * Evicts the least recently used clients, other than the one just created, while there are too many.
+     */
+    private void evictLeastRecentlyUsed(Key created) {
+        while (clients.size() > maxClients) {
+            Map.Entry<Key, Client> leastRecentlyUsed = null;
+            for (Map.Entry<Key, Client> entry : clients.entrySet()) {
+                if (!entry.getKey().equals(created)
+                        && (leastRecentlyUsed == null || entry.getValue().lastUsed < leastRecentlyUsed.getValue().lastUsed)) {
+                    leastRecentlyUsed = entry;
+                }
+            }
+            if (leastRecentlyUsed == null) {
+                return;
+            }
+            if (clients.remove(leastRecentlyUsed.getKey(), leastRecentlyUsed.getValue())) {
+                logger.debug("Evicting least recently used Sauce REST client for user: " + leastRecentlyUsed.getKey().username);
+            }
+        }
+    }
+
+    private static final class Key {
+        private final String username;
+        private final DataCenter dataCenter;
+
+        Key(String username, DataCenter dataCenter) {
+            this.username = username;
+            this.dataCenter = dataCenter;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key key = (Key) o;
+            return Objects.equals(username, key.username) && dataCenter == key.dataCenter;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(username, dataCenter);
+        }
+    }
+
+    private static final class Client {
+        private final String accessKey;
+        private final SauceREST sauceREST;
+        private volatile long lastUsed;
+
+        Client(String accessKey, SauceREST sauceREST) {
+            this.accessKey = accessKey;
+            this.sauceREST = sauceREST;
+        }
+    }
+}
@@ -0,0 +1,193 @@
+package com.saucelabs.teamcity.listener;
+
+import com.saucelabs.saucerest.SauceREST;
+import com.saucelabs.saucerest.model.jobs.UpdateJobParameter;
+import com.saucelabs.teamcity.Constants;
+import com.saucelabs.teamcity.SauceFeatureConfig;
+import com.saucelabs.teamcity.client.SauceRESTClientRegistry;
+import jetbrains.buildServer.serverSide.SBuildFeatureDescriptor;
+import jetbrains.buildServer.serverSide.SRunningBuild;
+import jetbrains.buildServer.serverSide.TeamCityProperties;
+import org.apache.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tags the Sauce jobs of running builds with the build number as their session ids are collected, so that the jobs
+ * of a long build can be followed in Sauce while it runs.
+ * <p>
+ * The session ids collected within {@code saucePlugin.liveJobTagging.windowMillis} are tagged together, and the
+ * updates are queued on the {@link SauceJobUpdater}. Once the build has finished, the jobs already tagged only need
+ * their pass/fail status to be set.
+ * <p>
+ * Live tagging is turned on with the {@code saucePlugin.liveJobTagging} internal property, as it takes a second
+ * update per job.
+ */
+public class LiveJobTagger {
+
+    static final String ENABLED_PROPERTY = "saucePlugin.liveJobTagging";
+    static final String WINDOW_PROPERTY = "saucePlugin.liveJobTagging.windowMillis";
+
+    private static final Logger logger = Logger.getLogger(LiveJobTagger.class);
+
+    private final SauceJobUpdater jobUpdater;
+
+    private final SauceRESTClientRegistry clientRegistry;
+
+    private final ScheduledThreadPoolExecutor scheduler;
+
+    /**
+     * The builds being tagged, keyed by build id.
+     */
+    private final ConcurrentMap<Long, BuildTags> builds = new ConcurrentHashMap<Long, BuildTags>();
+
+    public LiveJobTagger(SauceJobUpdater jobUpdater, SauceRESTClientRegistry clientRegistry) {
+        this.jobUpdater = jobUpdater;
+        this.clientRegistry = clientRegistry;
+        this.scheduler = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "sauce-live-job-tagger");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        this.scheduler.setRemoveOnCancelPolicy(true);
+    }
+
+    /**
+     * Starts tagging the jobs of the build, if live tagging is turned on.
+     *
+     * @param build a build with the Sauce build feature
+     */
+    public void start(SRunningBuild build) {
+        if (!TeamCityProperties.getBoolean(ENABLED_PROPERTY) || build.getBuildType() == null) {
+            return;
+        }
+        List<Target> targets = new ArrayList<Target>();
+        for (SBuildFeatureDescriptor feature : build.getBuildType().getBuildFeatures()) {
+            if (feature.getType().equals(Constants.BUILD_FEATURE_TYPE)) {
+                SauceFeatureConfig config = SauceFeatureConfig.parse(feature.getParameters(), build.getAgentName());
+                targets.add(new Target(clientRegistry.getClient(config.getUsername(), config.getAccessKey(), config.getSauceRESTDataCenter()), config.getUsername()));
+            }
+        }
+        if (!targets.isEmpty()) {
+            builds.put(build.getBuildId(), new BuildTags(build, targets));
+        }
+    }
+
+    /**
+     * Tags the job at the end of the current window.
+     *
+     * @param build     the running build
+     * @param sessionId a session id logged by the build for the first time
+     */
+    public void add(SRunningBuild build, String sessionId) {
+        BuildTags tags = builds.get(build.getBuildId());
+        if (tags != null) {
+            tags.add(sessionId);
+        }
+    }
+
+    /**
+     * Stops tagging the jobs of the build.
+     *
+     * @param build the build which finished or was interrupted
+     * @return the session ids whose job was tagged with the build number, or is queued to be
+     */
+    public Set<String> finish(SRunningBuild build) {
+        BuildTags tags = builds.remove(build.getBuildId());
+        if (tags == null) {
+            return Collections.emptySet();
+        }
+        return tags.finish();
+    }
+
+    public void shutdown() {
+        scheduler.shutdownNow();
+    }
+
+    private static final class Target {
+        private final SauceREST sauceREST;
+        private final String username;
+
+        Target(SauceREST sauceREST, String username) {
+            this.sauceREST = sauceREST;
+            this.username = username;
+        }
+    }
+
+    private final class BuildTags implements Runnable {
+        private final SRunningBuild build;
+        private final List<Target> targets;
+        private final List<String> pending = new ArrayList<String>();
+        private final Set<String> tagged = new HashSet<String>();
+        private ScheduledFuture<?> scheduled;
+        private boolean finished;
+
+        BuildTags(SRunningBuild build, List<Target> targets) {
+            this.build = build;
+            this.targets = targets;
+        }
+
+        synchronized void add(String sessionId) {
+            if (finished) {
+                return;
+            }
+            pending.add(sessionId);
+            if (scheduled == null) {
+                try {
+                    scheduled = scheduler.schedule(this, TeamCityProperties.getLong(WINDOW_PROPERTY, 5000), TimeUnit.MILLISECONDS);
+                } catch (RejectedExecutionException e) {
+                    //shutting down, the jobs are tagged once the build has finished
+                }
+            }
+        }
+
+        /**
+         * Tags the jobs of the session ids collected during the window.
+         */
+        @Override
+        public void run() {
+            List<String> sessionIds;
+            synchronized (this) {
+                scheduled = null;
+                if (finished || pending.isEmpty()) {
+                    return;
+                }
+                sessionIds = new ArrayList<String>(pending);
+                pending.clear();
+                tagged.addAll(sessionIds);
+            }
+            String buildNumber = SauceServerAdapter.getSauceBuildNumber(build);
+            UpdateJobParameter update = new UpdateJobParameter.Builder().setBuild(buildNumber).build();
+            for (Target target : targets) {
+                for (String sessionId : sessionIds) {
+                    jobUpdater.submit(target.sauceREST, sessionId, update, target.username);
+                }
+            }
+            logger.debug("Tagged " + sessionIds.size() + " Sauce job(s) with build number " + buildNumber + " while build " + build.getBuildId() + " is running");
+        }
+
+        synchronized Set<String> finish() {
+            finished = true;
+            if (scheduled != null) {
+                scheduled.cancel(false);
+                scheduled = null;
+            }
+            pending.clear();
+            return new HashSet<String>(tagged);
+        }
+    }
+}
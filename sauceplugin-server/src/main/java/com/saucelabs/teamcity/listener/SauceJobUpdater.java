@@ -0,0 +1,172 @@
+package com.saucelabs.teamcity.listener;
+
+import com.saucelabs.saucerest.SauceREST;
+import com.saucelabs.saucerest.model.jobs.UpdateJobParameter;
+import jetbrains.buildServer.serverSide.TeamCityProperties;
+import org.apache.log4j.Logger;
+
+import java.io.IOException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Invokes the Sauce REST API to update jobs on a bounded pool of worker threads, so that the server event thread
+ * which finishes the build doesn't wait for the HTTP round trips.
+ * <p>
+ * Failed updates are retried with exponential backoff. The number of queued, in-flight, succeeded and failed updates
+ * is logged once a build's updates have been queued, and is available via the getters.
+ */
+public class SauceJobUpdater {
+
+    static final String CONCURRENCY_PROPERTY = "saucePlugin.jobUpdates.concurrency";
+    static final String QUEUE_CAPACITY_PROPERTY = "saucePlugin.jobUpdates.queueCapacity";
+    static final String MAX_ATTEMPTS_PROPERTY = "saucePlugin.jobUpdates.maxAttempts";
+    static final String BACKOFF_PROPERTY = "saucePlugin.jobUpdates.backoffMillis";
+
+    private static final Logger logger = Logger.getLogger(SauceJobUpdater.class);
+
+    private final ScheduledThreadPoolExecutor executor;
+    private final int queueCapacity;
+    private final int maxAttempts;
+    private final long backoffMillis;
+
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicLong succeeded = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
+    public SauceJobUpdater() {
+        this.queueCapacity = TeamCityProperties.getInteger(QUEUE_CAPACITY_PROPERTY, 10000);
+        this.maxAttempts = Math.max(1, TeamCityProperties.getInteger(MAX_ATTEMPTS_PROPERTY, 3));
+        this.backoffMillis = TeamCityProperties.getLong(BACKOFF_PROPERTY, 1000);
+        int concurrency = Math.max(1, TeamCityProperties.getInteger(CONCURRENCY_PROPERTY, 8));
+        this.executor = new ScheduledThreadPoolExecutor(concurrency, new ThreadFactory() {
+            private final AtomicInteger threadNumber = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "sauce-job-updater-" + threadNumber.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        this.executor.setKeepAliveTime(60, TimeUnit.SECONDS);
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Queues an update of the Sauce job. Returns immediately, the update is performed by a worker thread.
+     *
+     * @param sauceREST  client for the user which owns the job
+     * @param sessionId  the Sauce job id
+     * @param parameters the values to update
+     * @param username   used for logging
+     * @return false if the queue is full and the update was dropped
+     */
+    public boolean submit(SauceREST sauceREST, String sessionId, UpdateJobParameter parameters, String username) {
+        if (queued.incrementAndGet() > queueCapacity) {
+            queued.decrementAndGet();
+            failed.incrementAndGet();
+            logger.warn("Sauce job update queue is full, dropping update for session id: " + sessionId + " user: " + username);
+            return false;
+        }
+        try {
+            executor.execute(new Update(sauceREST, sessionId, parameters, username, 1));
+        } catch (RejectedExecutionException e) {
+            queued.decrementAndGet();
+            failed.incrementAndGet();
+            logger.warn("Sauce job updater is shut down, dropping update for session id: " + sessionId + " user: " + username);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Updates the Sauce job, called by the worker threads.
+     */
+    void updateJob(SauceREST sauceREST, String sessionId, UpdateJobParameter parameters) throws IOException {
+        sauceREST.getJobsEndpoint().updateJob(sessionId, parameters);
+    }
+
+    public int getQueuedCount() {
+        return queued.get();
+    }
+
+    public int getInFlightCount() {
+        return inFlight.get();
+    }
+
+    public long getSucceededCount() {
+        return succeeded.get();
+    }
+
+    public long getFailedCount() {
+        return failed.get();
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    @Override
+    public String toString() {
+        return "queued=" + getQueuedCount() + ", in-flight=" + getInFlightCount()
+                + ", succeeded=" + getSucceededCount() + ", failed=" + getFailedCount();
+    }
+
+    private class Update implements Runnable {
+        private final SauceREST sauceREST;
+        private final String sessionId;
+        private final UpdateJobParameter parameters;
+        private final String username;
+        private final int attempt;
+
+        Update(SauceREST sauceREST, String sessionId, UpdateJobParameter parameters, String username, int attempt) {
+            this.sauceREST = sauceREST;
+            this.sessionId = sessionId;
+            this.parameters = parameters;
+            this.username = username;
+            this.attempt = attempt;
+        }
+
+        @Override
+        public void run() {
+            queued.decrementAndGet();
+            inFlight.incrementAndGet();
+            try {
+                updateJob(sauceREST, sessionId, parameters);
+                succeeded.incrementAndGet();
+            } catch (IOException e) {
+                retryOrFail(e);
+            } catch (RuntimeException e) {
+                failed.incrementAndGet();
+                logger.error("Failed to update Sauce job for session id: " + sessionId + " user: " + username, e);
+            } finally {
+                inFlight.decrementAndGet();
+            }
+        }
+
+        private void retryOrFail(IOException e) {
+            if (attempt >= maxAttempts) {
+                failed.incrementAndGet();
+                logger.error("Failed to update Sauce job after " + attempt + " attempt(s) for session id: " + sessionId + " user: " + username, e);
+                return;
+            }
+            long delay = backoffMillis << (attempt - 1);
+            queued.incrementAndGet();
+            try {
+                executor.schedule(new Update(sauceREST, sessionId, parameters, username, attempt + 1), delay, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException rejected) {
+                queued.decrementAndGet();
+                failed.incrementAndGet();
+                logger.error("Sauce job updater is shut down, failed to update Sauce job after " + attempt + " attempt(s) for session id: " + sessionId + " user: " + username, e);
+                return;
+            }
+            logger.warn("Failed to update Sauce job for session id: " + sessionId + ", retrying in " + delay + "ms: " + e.getMessage());
+        }
+    }
+}
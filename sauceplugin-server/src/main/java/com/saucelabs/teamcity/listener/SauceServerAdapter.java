@@ -1,23 +1,35 @@
 package com.saucelabs.teamcity.listener;
 
-import com.saucelabs.saucerest.DataCenter;
 import com.saucelabs.saucerest.SauceREST;
-import com.saucelabs.saucerest.api.HttpClientConfig;
 import com.saucelabs.saucerest.model.jobs.UpdateJobParameter;
 import com.saucelabs.teamcity.Constants;
-import com.saucelabs.teamcity.ParametersProvider;
-import com.saucelabs.teamcity.UserAgentInterceptor;
+import com.saucelabs.teamcity.JobTestResults;
+import com.saucelabs.teamcity.SauceFeatureConfig;
+import com.saucelabs.teamcity.SessionIdCollector;
+import com.saucelabs.teamcity.SessionIdsFile;
+import com.saucelabs.teamcity.client.SauceRESTClientRegistry;
+import jetbrains.buildServer.messages.BuildMessage1;
 import jetbrains.buildServer.serverSide.BuildServerAdapter;
+import jetbrains.buildServer.serverSide.SBuild;
 import jetbrains.buildServer.serverSide.SBuildFeatureDescriptor;
 import jetbrains.buildServer.serverSide.SBuildServer;
 import jetbrains.buildServer.serverSide.SRunningBuild;
+import jetbrains.buildServer.serverSide.STestRun;
+import jetbrains.buildServer.serverSide.TeamCityProperties;
 import jetbrains.buildServer.serverSide.buildLog.LogMessage;
-import org.apache.commons.lang3.StringUtils;
 import org.apache.log4j.Logger;
+import org.jetbrains.annotations.NotNull;
 
 import java.io.IOException;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * Server-side adapter which invokes post-build logic.
@@ -26,13 +38,42 @@ import java.util.Iterator;
  */
 public class SauceServerAdapter extends BuildServerAdapter {
 
-    private static final String SAUCE_ON_DEMAND_SESSION_ID = "SauceOnDemandSessionID";
+    /**
+     * Internal property which can be used to turn off scanning of build messages as they arrive, in which case the
+     * whole build log is scanned once the build has finished.
+     */
+    static final String STREAM_SESSION_IDS_PROPERTY = "saucePlugin.streamSessionIds";
+
+    /**
+     * Internal property which bounds the number of session ids kept per build.
+     */
+    static final String MAX_SESSION_IDS_PROPERTY = "saucePlugin.sessionIds.maxPerBuild";
+
     private final SBuildServer myBuildServer;
 
+    private final SauceJobUpdater jobUpdater;
+
+    private final SauceRESTClientRegistry clientRegistry;
+
+    private final LiveJobTagger liveJobTagger;
+
+    /**
+     * Session ids collected while the build is running, keyed by build id.
+     */
+    private final ConcurrentMap<Long, SessionIdCollector> runningBuildSessionIds = new ConcurrentHashMap<Long, SessionIdCollector>();
+
+    /**
+     * The running builds whose agent reports the session ids, so that their build messages aren't scanned.
+     */
+    private final Set<Long> agentReportedBuilds = Collections.newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
+
     private static final Logger logger = Logger.getLogger(SauceServerAdapter.class);
 
-    public SauceServerAdapter(SBuildServer sBuildServer) {
+    public SauceServerAdapter(SBuildServer sBuildServer, SauceJobUpdater jobUpdater, SauceRESTClientRegistry clientRegistry, LiveJobTagger liveJobTagger) {
         myBuildServer = sBuildServer;
+        this.jobUpdater = jobUpdater;
+        this.clientRegistry = clientRegistry;
+        this.liveJobTagger = liveJobTagger;
     }
 
     public void register() {
@@ -40,8 +81,80 @@ public class SauceServerAdapter extends BuildServerAdapter {
     }
 
     /**
-     * Invoked when a build is finished.  Iterates over the build output and identifies lines which contains 'SauceOnDemandSessionID',
-     * and for each line, invokes the Sauce REST API to associate the TeamCity build number with the Sauce Job.
+     * Starts collecting session ids for builds which have the Sauce build feature enabled, and tagging their jobs
+     * while the build runs if live tagging is turned on.
+     *
+     * @param build
+     */
+    @Override
+    public void buildStarted(@NotNull SRunningBuild build) {
+        super.buildStarted(build);
+        if (isStreamingEnabled() && hasSauceBuildFeature(build)) {
+            runningBuildSessionIds.put(build.getBuildId(), newCollector());
+            liveJobTagger.start(build);
+        }
+    }
+
+    /**
+     * Scans each build message for 'SauceOnDemandSessionID' as it arrives, so that the build log doesn't have to be
+     * rescanned once the build has finished. The messages of builds whose agent reports the session ids aren't scanned.
+     *
+     * @param build
+     * @param message
+     */
+    @Override
+    public void messageReceived(@NotNull SRunningBuild build, @NotNull BuildMessage1 message) {
+        if (agentReportedBuilds.contains(build.getBuildId())) {
+            return;
+        }
+        SessionIdCollector collector = runningBuildSessionIds.get(build.getBuildId());
+        if (collector == null) {
+            return;
+        }
+        String text = SessionIdCollector.getText(message.getValue());
+        String sessionId = SessionIdCollector.extractSessionId(text);
+        if (sessionId != null && collector.add(sessionId, SessionIdCollector.extractJobName(text))) {
+            liveJobTagger.add(build, sessionId);
+        }
+    }
+
+    /**
+     * Collects the session ids picked out of the build output by the agent. The agent reports an empty list of
+     * session ids when the build starts, from then on the build messages aren't scanned on the server.
+     *
+     * @param build
+     * @param sessionIds the job names by session id, null for the sessions logged without a job name
+     * @param duplicates the number of duplicate session ids the agent removed since its last report
+     */
+    public void sessionIdsReported(@NotNull SRunningBuild build, @NotNull Map<String, String> sessionIds, long duplicates) {
+        SessionIdCollector collector = runningBuildSessionIds.get(build.getBuildId());
+        if (collector == null) {
+            return;
+        }
+        agentReportedBuilds.add(build.getBuildId());
+        collector.addDuplicateCount(duplicates);
+        for (Map.Entry<String, String> sessionId : sessionIds.entrySet()) {
+            if (collector.add(sessionId.getKey(), sessionId.getValue())) {
+                liveJobTagger.add(build, sessionId.getKey());
+            }
+        }
+    }
+
+    @Override
+    public void buildInterrupted(@NotNull SRunningBuild build) {
+        super.buildInterrupted(build);
+        runningBuildSessionIds.remove(build.getBuildId());
+        agentReportedBuilds.remove(build.getBuildId());
+        liveJobTagger.finish(build);
+    }
+
+    /**
+     * Invoked when a build is finished.  For each session id logged by the build (identified by lines which contain
+     * 'SauceOnDemandSessionID'), invokes the Sauce REST API to associate the TeamCity build number with the Sauce Job.
+     * <p>
+     * If the session ids weren't collected while the build was running (eg. the server was restarted during the build,
+     * or streaming is turned off), the build output is scanned instead. A build whose streamed messages held no session
+     * id isn't scanned again. The jobs already tagged while the build was running only get their status.
      *
      * @param build
      */
@@ -49,77 +162,179 @@ public class SauceServerAdapter extends BuildServerAdapter {
     public void buildFinished(SRunningBuild build) {
         super.buildFinished(build);
 
+        SessionIdCollector collector = runningBuildSessionIds.remove(build.getBuildId());
+        agentReportedBuilds.remove(build.getBuildId());
+        Set<String> tagged = liveJobTagger.finish(build);
+        if (collector == null) {
+            if (!hasSauceBuildFeature(build)) {
+                return;
+            }
+            collector = scanBuildLog(build);
+        }
+        storeSessionIds(build, collector.getSessionIds());
+        storeBuildNumberInSauce(build, collector, tagged);
+        if (!collector.isEmpty()) {
+            logger.info("Queued Sauce job updates for " + collector.size() + " unique session(s) of build " + build.getBuildId()
+                    + ", " + collector.getDuplicateCount() + " duplicate session id(s) removed (" + jobUpdater + ")");
+        }
+        if (collector.getDroppedCount() > 0) {
+            logger.warn("Dropped " + collector.getDroppedCount() + " session id(s) of build " + build.getBuildId()
+                    + " beyond the limit of " + getMaxSessionIds() + " set by " + MAX_SESSION_IDS_PROPERTY);
+        }
+    }
+
+    /**
+     * Stores the session ids as a hidden artifact of the build, so that the Sauce Labs Results tab can retrieve the
+     * jobs without looking up the Sauce build by name.
+     *
+     * @param build
+     * @param sessionIds
+     */
+    private void storeSessionIds(SRunningBuild build, List<String> sessionIds) {
+        if (sessionIds.isEmpty()) {
+            return;
+        }
+        try {
+            SessionIdsFile.write(build.getArtifactsDirectory(), sessionIds);
+        } catch (IOException e) {
+            logger.error("Failed to store session ids for build " + build.getBuildId(), e);
+        }
+    }
+
+    /**
+     * Iterates over the build output and collects the session ids from lines which contain 'SauceOnDemandSessionID'.
+     *
+     * @param build
+     * @return
+     */
+    SessionIdCollector scanBuildLog(SRunningBuild build) {
+        SessionIdCollector collector = newCollector();
         Iterator<LogMessage> iterator = build.getBuildLog().getMessagesIterator();
         while (iterator.hasNext()) {
             LogMessage logMessage = iterator.next();
-            String line = logMessage.getText();
-            if (StringUtils.containsIgnoreCase(line, SAUCE_ON_DEMAND_SESSION_ID)) {
-                //extract session id
-                String sessionId = StringUtils.substringBetween(line, SAUCE_ON_DEMAND_SESSION_ID + "=", " ");
-                if (sessionId == null) {
-                    //we might not have a space separating the session id and job-name, so retrieve the text up to the end of the string
-                    sessionId = StringUtils.substringAfter(line, SAUCE_ON_DEMAND_SESSION_ID + "=");
-                }
-                if (sessionId != null && !sessionId.equalsIgnoreCase("null")) {
-                    storeBuildNumberInSauce(build, sessionId);
-                    //build.getTags().add(sessionId);
-                }
+            collector.accept(logMessage.getText());
+        }
+        return collector;
+    }
+
+    private SessionIdCollector newCollector() {
+        return new SessionIdCollector(getMaxSessionIds());
+    }
+
+    private int getMaxSessionIds() {
+        return TeamCityProperties.getInteger(MAX_SESSION_IDS_PROPERTY, SessionIdCollector.DEFAULT_MAX_SESSION_IDS);
+    }
+
+    private boolean isStreamingEnabled() {
+        return TeamCityProperties.getBooleanOrTrue(STREAM_SESSION_IDS_PROPERTY);
+    }
+
+    private boolean hasSauceBuildFeature(SRunningBuild build) {
+        if (build.getBuildType() == null) return false;
+        for (SBuildFeatureDescriptor feature : build.getBuildType().getBuildFeatures()) {
+            if (feature.getType().equals(Constants.BUILD_FEATURE_TYPE)) {
+                return true;
             }
         }
+        return false;
     }
 
     /**
-     * Invokes the Sauce REST API to store the TeamCity build number and pass/fail status within
-     * Sauce.
+     * Queues an invocation of the Sauce REST API for each session, to store the TeamCity build number and pass/fail
+     * status within Sauce. The settings of each feature are resolved once for all the sessions.
+     * <p>
+     * A job gets the status of the TeamCity tests matching the job name logged with its session id. Jobs without a job
+     * name, without a matching test, or whose matching tests disagree, get the status of the build.
      *
      * @param build
-     * @param sessionId
+     * @param sessionIds the session ids of the build, with the job names logged with them
+     * @param tagged     the session ids whose job was already tagged with the build number while the build was running
      */
-    private void storeBuildNumberInSauce(SRunningBuild build, String sessionId) {
-        String agentName = build.getAgentName();
-        Collection<SBuildFeatureDescriptor> features = build.getBuildType().getBuildFeatures();
-        if (features.isEmpty()) return;
-        for (SBuildFeatureDescriptor feature : features) {
-            if (feature.getType().equals(Constants.BUILD_FEATURE_TYPE)) {
-                HttpClientConfig config = HttpClientConfig.defaultConfig().interceptor(new UserAgentInterceptor());
-                SauceREST sauceREST = new SauceREST(
-                        getUsername(feature, agentName),
-                        getAccessKey(feature, agentName),
-                        getDataCenter(feature, agentName),
-                        config
-                );
-
-                try {
-                    String buildNumber = build.getBuildTypeExternalId() + build.getBuildNumber();
-                    logger.info("Setting build number " + buildNumber + " for job " + sessionId + " user: " + getUsername(feature, agentName));
-                    UpdateJobParameter.Builder parameters = new UpdateJobParameter.Builder().setBuild(buildNumber);
-
-                    if (build.getStatusDescriptor().getStatus().isSuccessful()) {
-                        parameters.setPassed(true);
-                    } else if (build.getStatusDescriptor().getStatus().isFailed()) {
-                        parameters.setPassed(false);
-                    }
+    private void storeBuildNumberInSauce(SRunningBuild build, SessionIdCollector sessionIds, Set<String> tagged) {
+        if (sessionIds.isEmpty() || build.getBuildType() == null) return;
+        String buildNumber = getSauceBuildNumber(build);
+        Boolean buildPassed = null;
+        if (build.getStatusDescriptor().getStatus().isSuccessful()) {
+            buildPassed = true;
+        } else if (build.getStatusDescriptor().getStatus().isFailed()) {
+            buildPassed = false;
+        }
+        JobTestResults testResults = getTestResults(build, sessionIds.getLoggedJobNames());
+
+        for (SBuildFeatureDescriptor feature : build.getBuildType().getBuildFeatures()) {
+            if (!feature.getType().equals(Constants.BUILD_FEATURE_TYPE)) {
+                continue;
+            }
+            SauceFeatureConfig config = SauceFeatureConfig.parse(feature.getParameters(), build.getAgentName());
+            SauceREST sauceREST = clientRegistry.getClient(config.getUsername(), config.getAccessKey(), config.getSauceRESTDataCenter());
+            //one set of parameters per combination of build number and status, shared by the jobs
+            Map<Boolean, UpdateJobParameter> updates = new HashMap<Boolean, UpdateJobParameter>();
+            Map<Boolean, UpdateJobParameter> statusUpdates = new HashMap<Boolean, UpdateJobParameter>();
 
-                    sauceREST.getJobsEndpoint().updateJob(sessionId, parameters.build());
-                } catch (IOException e) {
-                    logger.error("Failed to parse JSON for session id: " + sessionId + " user: " + getUsername(feature, agentName), e);
+            logger.info("Setting build number " + buildNumber + " for " + (sessionIds.size() - tagged.size()) + " job(s)"
+                    + (tagged.isEmpty() ? "" : " and status for " + tagged.size() + " tagged job(s)") + " user: " + config.getUsername());
+            for (String sessionId : sessionIds) {
+                Boolean passed = testResults.getPassed(sessionIds.getJobName(sessionId));
+                if (passed == null) {
+                    passed = buildPassed;
+                }
+                if (!tagged.contains(sessionId)) {
+                    UpdateJobParameter update = updates.get(passed);
+                    if (update == null) {
+                        update = newUpdate(buildNumber, passed);
+                        updates.put(passed, update);
+                    }
+                    jobUpdater.submit(sauceREST, sessionId, update, config.getUsername());
+                } else if (passed != null) {
+                    UpdateJobParameter update = statusUpdates.get(passed);
+                    if (update == null) {
+                        update = newUpdate(null, passed);
+                        statusUpdates.put(passed, update);
+                    }
+                    jobUpdater.submit(sauceREST, sessionId, update, config.getUsername());
                 }
             }
         }
     }
 
-    private String getAccessKey(SBuildFeatureDescriptor feature, String agentName) {
-        ParametersProvider provider = new ParametersProvider(feature.getParameters(), agentName);
-        return provider.getAccessKey();
+    private static UpdateJobParameter newUpdate(String buildNumber, Boolean passed) {
+        UpdateJobParameter.Builder parameters = new UpdateJobParameter.Builder();
+        if (buildNumber != null) {
+            parameters.setBuild(buildNumber);
+        }
+        if (passed != null) {
+            parameters.setPassed(passed);
+        }
+        return parameters.build();
     }
 
-    private String getUsername(SBuildFeatureDescriptor feature, String agentName) {
-        ParametersProvider provider = new ParametersProvider(feature.getParameters(), agentName);
-        return provider.getUsername();
+    /**
+     * Reads the test results of the build once, matching them to the job names of the sessions.
+     *
+     * @param build
+     * @param jobNames the job names logged with the session ids
+     * @return the status of the tests of each job name
+     */
+    private JobTestResults getTestResults(SRunningBuild build, Collection<String> jobNames) {
+        JobTestResults testResults = new JobTestResults(jobNames);
+        if (!testResults.hasJobNames()) {
+            return testResults;
+        }
+        List<STestRun> testRuns = build.getFullStatistics().getAllTests();
+        for (STestRun testRun : testRuns) {
+            if (testRun.isIgnored()) {
+                continue;
+            }
+            testResults.accept(testRun.getTest().getName().getNameWithoutSuite(), testRun.getStatus().isSuccessful());
+        }
+        logger.debug("Matched " + testResults.getMatchedCount() + " Sauce job name(s) to the " + testRuns.size() + " test(s) of build " + build.getBuildId());
+        return testResults;
     }
 
-    private DataCenter getDataCenter(SBuildFeatureDescriptor feature, String agentName) {
-        ParametersProvider provider = new ParametersProvider(feature.getParameters(), agentName);
-        return provider.getSauceRESTDataCenter();
+    /**
+     * @return the build number stored in the Sauce jobs of the build
+     */
+    static String getSauceBuildNumber(SBuild build) {
+        return build.getBuildTypeExternalId() + build.getBuildNumber();
     }
 }
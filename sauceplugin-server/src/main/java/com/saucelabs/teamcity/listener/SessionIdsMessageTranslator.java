@@ -0,0 +1,81 @@
+package com.saucelabs.teamcity.listener;
+
+import com.saucelabs.teamcity.Constants;
+import jetbrains.buildServer.messages.BuildMessage1;
+import jetbrains.buildServer.messages.serviceMessages.ServiceMessage;
+import jetbrains.buildServer.messages.serviceMessages.ServiceMessagesRegister;
+import jetbrains.buildServer.serverSide.SRunningBuild;
+import jetbrains.buildServer.serverSide.ServiceMessageTranslator;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Handles the {@code saucePluginSessionIds} service messages sent by the agent, which carry the session ids picked
+ * out of the build output on the agent, one per line, each followed by a space and its job name if one was logged.
+ * The session ids are in the {@code sessions} attribute, or the argument of the empty message sent at build start,
+ * and the {@code duplicates} attribute has the number of duplicate session ids the agent removed since its last
+ * report.
+ * <p>
+ * The session ids are passed to the {@link SauceServerAdapter}, and the service message is left out of the build log.
+ */
+public class SessionIdsMessageTranslator implements ServiceMessageTranslator {
+
+    private final ServiceMessagesRegister serviceMessagesRegister;
+
+    private final SauceServerAdapter serverAdapter;
+
+    public SessionIdsMessageTranslator(ServiceMessagesRegister serviceMessagesRegister, SauceServerAdapter serverAdapter) {
+        this.serviceMessagesRegister = serviceMessagesRegister;
+        this.serverAdapter = serverAdapter;
+    }
+
+    public void register() {
+        serviceMessagesRegister.registerHandler(getServiceMessageName(), this);
+    }
+
+    public void unregister() {
+        serviceMessagesRegister.removeHandler(getServiceMessageName());
+    }
+
+    @NotNull
+    @Override
+    public String getServiceMessageName() {
+        return Constants.SESSION_IDS_SERVICE_MESSAGE;
+    }
+
+    @NotNull
+    @Override
+    public List<BuildMessage1> translate(@NotNull SRunningBuild build, @NotNull BuildMessage1 originalMessage, @NotNull ServiceMessage serviceMessage) {
+        String argument = serviceMessage.getArgument();
+        long duplicates = 0;
+        if (argument == null) {
+            Map<String, String> attributes = serviceMessage.getAttributes();
+            argument = attributes.get(Constants.SESSION_IDS_SESSIONS_ATTRIBUTE);
+            try {
+                String count = attributes.get(Constants.SESSION_IDS_DUPLICATES_ATTRIBUTE);
+                duplicates = count == null ? 0 : Long.parseLong(count);
+            } catch (NumberFormatException e) {
+                duplicates = 0;
+            }
+        }
+        Map<String, String> sessionIds = new LinkedHashMap<String, String>();
+        if (argument != null && !argument.isEmpty()) {
+            for (String session : argument.split("\n")) {
+                int space = session.indexOf(' ');
+                if (space == -1) {
+                    if (!session.isEmpty()) {
+                        sessionIds.put(session, null);
+                    }
+                } else if (space > 0) {
+                    sessionIds.put(session.substring(0, space), session.substring(space + 1));
+                }
+            }
+        }
+        serverAdapter.sessionIdsReported(build, sessionIds, duplicates);
+        return Collections.emptyList();
+    }
+}
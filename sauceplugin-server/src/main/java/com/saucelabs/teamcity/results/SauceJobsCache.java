@@ -0,0 +1,154 @@
+package com.saucelabs.teamcity.results;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded cache of the Sauce job information displayed on the Sauce Labs Results tab, keyed by TeamCity build.
+ * <p>
+ * The jobs of a running build can still change, so those entries expire after a short time. The jobs of a finished
+ * build don't change, so those entries are kept until they are evicted as the least recently used entry.
+ *
+ * @param <V> the cached value
+ */
+public class SauceJobsCache<V> {
+
+    private final int maxSize;
+    private final long runningBuildTtlMillis;
+    private final Map<String, Entry<V>> entries;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * @param maxSize               maximum number of entries
+     * @param runningBuildTtlMillis how long the entries of running builds are kept
+     */
+    public SauceJobsCache(int maxSize, long runningBuildTtlMillis) {
+        this.maxSize = maxSize;
+        this.runningBuildTtlMillis = runningBuildTtlMillis;
+        this.entries = new LinkedHashMap<String, Entry<V>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry<V>> eldest) {
+                if (size() > SauceJobsCache.this.maxSize) {
+                    evictions.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * @param key identifies the build, and the jobs of the build
+     * @return the cached entry, or null if there is no entry or the entry of a running build has expired
+     */
+    public Entry<V> get(String key) {
+        return get(key, System.currentTimeMillis());
+    }
+
+    Entry<V> get(String key, long now) {
+        Entry<V> entry;
+        synchronized (entries) {
+            entry = entries.get(key);
+            if (entry != null && entry.isExpired(now)) {
+                entries.remove(key);
+                entry = null;
+            }
+        }
+        if (entry == null) {
+            misses.incrementAndGet();
+        } else {
+            hits.incrementAndGet();
+        }
+        return entry;
+    }
+
+    /**
+     * @param key           identifies the build, and the jobs of the build
+     * @param value         the value to cache
+     * @param buildFinished whether the build has finished, in which case the entry doesn't expire
+     */
+    public void put(String key, V value, boolean buildFinished) {
+        put(key, value, buildFinished, System.currentTimeMillis());
+    }
+
+    void put(String key, V value, boolean buildFinished, long now) {
+        long expiresAt = buildFinished ? Long.MAX_VALUE : now + runningBuildTtlMillis;
+        synchronized (entries) {
+            entries.put(key, new Entry<V>(value, expiresAt, currentHour(now)));
+        }
+    }
+
+    public void invalidate(String key) {
+        synchronized (entries) {
+            entries.remove(key);
+        }
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    @Override
+    public String toString() {
+        return "size=" + size() + ", hits=" + getHitCount() + ", misses=" + getMissCount() + ", evictions=" + getEvictionCount();
+    }
+
+    private static long currentHour(long now) {
+        return TimeUnit.MILLISECONDS.toHours(now);
+    }
+
+    /**
+     * A cached value.
+     */
+    public static final class Entry<V> {
+        private final V value;
+        private final long expiresAt;
+        private final long createdHour;
+
+        Entry(V value, long expiresAt, long createdHour) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+            this.createdHour = createdHour;
+        }
+
+        public V getValue() {
+            return value;
+        }
+
+        /**
+         * The HMAC used to embed a job report is only valid for the hour it was calculated in.
+         *
+         * @return true if the entry was cached in the current hour
+         */
+        public boolean isFromCurrentHour() {
+            return isFromCurrentHour(System.currentTimeMillis());
+        }
+
+        boolean isFromCurrentHour(long now) {
+            return createdHour == currentHour(now);
+        }
+
+        private boolean isExpired(long now) {
+            return now >= expiresAt;
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package com.saucelabs.teamcity.results;
+
+import com.saucelabs.ci.JobInformation;
+import jetbrains.buildServer.controllers.BaseController;
+import jetbrains.buildServer.serverSide.SBuild;
+import jetbrains.buildServer.serverSide.SBuildServer;
+import jetbrains.buildServer.serverSide.auth.Permission;
+import jetbrains.buildServer.users.SUser;
+import jetbrains.buildServer.web.openapi.WebControllerManager;
+import jetbrains.buildServer.web.util.SessionUser;
+import org.apache.log4j.Logger;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.json.simple.JSONObject;
+import org.json.simple.JSONStreamAware;
+import org.springframework.web.servlet.ModelAndView;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Returns a page of the Sauce jobs recorded against a TeamCity build as JSON, used by the Sauce Labs Results tab to
+ * load the job table as it is scrolled.
+ * <p>
+ * The page is loaded by {@link SauceJobsLoader}. If it isn't loaded in time, the response has "pending" set and a
+ * message, and the tab retries the request.
+ * <p>
+ * Parameters: buildId, offset (default 0) and limit (default {@link #DEFAULT_PAGE_SIZE}, at most {@link #MAX_PAGE_SIZE}).
+ */
+public class SauceJobsController extends BaseController {
+
+    public static final String PATH = "/saucePlugin/jobs.html";
+    public static final int DEFAULT_PAGE_SIZE = 50;
+    static final int MAX_PAGE_SIZE = 200;
+
+    private static final Logger logger = Logger.getLogger(SauceJobsController.class);
+
+    private final SBuildServer buildServer;
+    private final SauceJobsService jobsService;
+    private final SauceJobsLoader jobsLoader;
+
+    public SauceJobsController(SBuildServer buildServer, WebControllerManager manager, SauceJobsService jobsService, SauceJobsLoader jobsLoader) {
+        super(buildServer);
+        this.buildServer = buildServer;
+        this.jobsService = jobsService;
+        this.jobsLoader = jobsLoader;
+        manager.registerController(PATH, this);
+    }
+
+    @Nullable
+    @Override
+    protected ModelAndView doHandle(@NotNull HttpServletRequest request, @NotNull HttpServletResponse response) throws Exception {
+        SBuild build = findBuild(request);
+        if (build == null || !jobsService.isResultsEnabled(build)) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return null;
+        }
+        int offset = Math.max(0, getIntParameter(request, "offset", 0));
+        int limit = Math.min(MAX_PAGE_SIZE, Math.max(1, getIntParameter(request, "limit", DEFAULT_PAGE_SIZE)));
+
+        JSONObject json = new JSONObject();
+        try {
+            SauceJobsPage page = jobsLoader.load(build, offset, limit);
+            json.put("total", page.getTotal());
+            json.put("offset", page.getOffset());
+            json.put("jobs", toJSON(page));
+        } catch (TimeoutException e) {
+            //the load carries on in the background, and its result will be cached for the next request
+            json.put("pending", Boolean.TRUE);
+            json.put("offset", offset);
+            json.put("message", "Sauce Labs is taking longer than " + jobsLoader.getTimeoutMillis() / 1000 + "s to respond, results shown so far may be partial. Retrying...");
+        } catch (ExecutionException e) {
+            logger.error("Error retrieving job information", e.getCause());
+            json.put("error", "Unable to retrieve jobs from Sauce Labs: " + e.getCause().getMessage());
+        }
+        writeJSON(response, json);
+        return null;
+    }
+
+    /**
+     * @return the jobs of the page as a JSON array, serialized job by job as the response is written
+     */
+    static JSONStreamAware toJSON(final SauceJobsPage page) {
+        return new JSONStreamAware() {
+            @Override
+            public void writeJSONString(Writer out) throws IOException {
+                out.write('[');
+                Map<String, Object> jobJSON = new LinkedHashMap<String, Object>();
+                boolean first = true;
+                for (JobInformation job : page.getJobs()) {
+                    if (!first) {
+                        out.write(',');
+                    }
+                    first = false;
+                    jobJSON.put("jobId", job.getJobId());
+                    jobJSON.put("name", job.getName());
+                    jobJSON.put("status", job.getStatus());
+                    jobJSON.put("hmac", job.getHmac());
+                    jobJSON.put("logUrl", job.getLogUrl());
+                    JSONObject.writeJSONString(jobJSON, out);
+                }
+                out.write(']');
+            }
+        };
+    }
+
+    /**
+     * Writes the JSON straight to the response, without serializing it to a String first.
+     */
+    static void writeJSON(HttpServletResponse response, JSONObject json) throws IOException {
+        response.setContentType("application/json");
+        response.setCharacterEncoding("UTF-8");
+        response.setHeader("Cache-Control", "no-cache");
+        Writer writer = response.getWriter();
+        json.writeJSONString(writer);
+        writer.flush();
+    }
+
+    /**
+     * @param request
+     * @return the build identified by the buildId parameter, or null if it doesn't exist or the user isn't allowed to view it
+     */
+    @Nullable
+    private SBuild findBuild(HttpServletRequest request) {
+        long buildId;
+        try {
+            buildId = Long.parseLong(request.getParameter("buildId"));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        SBuild build = buildServer.findBuildInstanceById(buildId);
+        SUser user = getUser(request);
+        if (build == null || user == null || !user.isPermissionGrantedForProject(build.getProjectId(), Permission.VIEW_PROJECT)) {
+            return null;
+        }
+        return build;
+    }
+
+    /**
+     * @param request
+     * @return the user logged in, or null
+     */
+    @Nullable
+    SUser getUser(HttpServletRequest request) {
+        return SessionUser.getUser(request);
+    }
+
+    private static int getIntParameter(HttpServletRequest request, String name, int defaultValue) {
+        String value = request.getParameter(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+}
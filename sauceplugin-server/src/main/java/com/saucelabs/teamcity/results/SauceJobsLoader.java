@@ -0,0 +1,100 @@
+package com.saucelabs.teamcity.results;
+
+import jetbrains.buildServer.serverSide.SBuild;
+import jetbrains.buildServer.serverSide.TeamCityProperties;
+import org.apache.log4j.Logger;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Loads pages of Sauce jobs on a bounded pool of worker threads, so that a slow Sauce API doesn't tie up the web
+ * request threads of the server.
+ * <p>
+ * Concurrent requests for the same page share a single load, and a request waits at most
+ * {@link #getTimeoutMillis()} for it. A load which times out keeps running, and its result is cached by
+ * {@link SauceJobsService} for the next request.
+ */
+public class SauceJobsLoader {
+
+    static final String WORKERS_PROPERTY = "saucePlugin.results.workers";
+    static final String QUEUE_CAPACITY_PROPERTY = "saucePlugin.results.queueCapacity";
+    static final String TIMEOUT_PROPERTY = "saucePlugin.results.timeoutMillis";
+
+    private static final Logger logger = Logger.getLogger(SauceJobsLoader.class);
+
+    private final SauceJobsService jobsService;
+    private final ThreadPoolExecutor executor;
+    private final long timeoutMillis;
+    private final ConcurrentMap<String, CompletableFuture<SauceJobsPage>> inFlight = new ConcurrentHashMap<String, CompletableFuture<SauceJobsPage>>();
+
+    public SauceJobsLoader(SauceJobsService jobsService) {
+        this.jobsService = jobsService;
+        this.timeoutMillis = TeamCityProperties.getLong(TIMEOUT_PROPERTY, 10000);
+        int workers = Math.max(1, TeamCityProperties.getInteger(WORKERS_PROPERTY, 4));
+        int queueCapacity = Math.max(1, TeamCityProperties.getInteger(QUEUE_CAPACITY_PROPERTY, 100));
+        this.executor = new ThreadPoolExecutor(workers, workers, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(queueCapacity), new ThreadFactory() {
+            private final AtomicInteger threadNumber = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "sauce-results-loader-" + threadNumber.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * @param build
+     * @param offset position of the first job to return
+     * @param limit  maximum number of jobs to return
+     * @return the page of jobs
+     * @throws TimeoutException   if the page wasn't loaded within {@link #getTimeoutMillis()}
+     * @throws ExecutionException if loading the page failed
+     */
+    public SauceJobsPage load(final SBuild build, final int offset, final int limit) throws TimeoutException, ExecutionException, InterruptedException {
+        final String key = build.getBuildId() + ":" + offset + ":" + limit;
+        CompletableFuture<SauceJobsPage> future = inFlight.get(key);
+        if (future == null) {
+            final CompletableFuture<SauceJobsPage> created = new CompletableFuture<SauceJobsPage>();
+            future = inFlight.putIfAbsent(key, created);
+            if (future == null) {
+                future = created;
+                submit(key, created, build, offset, limit);
+            }
+        }
+        return future.get(timeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public long getTimeoutMillis() {
+        return timeoutMillis;
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private void submit(final String key, final CompletableFuture<SauceJobsPage> future, final SBuild build, final int offset, final int limit) {
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        future.complete(jobsService.getJobs(build, offset, limit));
+                    } catch (Throwable t) {
+                        future.completeExceptionally(t);
+                    } finally {
+                        inFlight.remove(key, future);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            logger.warn("Too many pending Sauce results requests, rejecting request for build " + build.getBuildId());
+            inFlight.remove(key, future);
+            future.completeExceptionally(e);
+        }
+    }
+}
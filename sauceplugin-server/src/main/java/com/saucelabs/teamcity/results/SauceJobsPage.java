@@ -0,0 +1,59 @@
+package com.saucelabs.teamcity.results;
+
+import com.saucelabs.ci.JobInformation;
+import com.saucelabs.saucerest.model.jobs.Job;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A window of the Sauce jobs recorded against a TeamCity build.
+ */
+public class SauceJobsPage {
+
+    private final int total;
+    private final int offset;
+    private final List<JobInformation> jobs;
+
+    /**
+     * The job details retrieved from Sauce, kept so that the jobs can be rebuilt with new HMACs.
+     */
+    private final List<Job> details;
+
+    public SauceJobsPage(int total, int offset, List<JobInformation> jobs) {
+        this(total, offset, jobs, Collections.<Job>emptyList());
+    }
+
+    SauceJobsPage(int total, int offset, List<JobInformation> jobs, List<Job> details) {
+        this.total = total;
+        this.offset = offset;
+        this.jobs = jobs;
+        this.details = details;
+    }
+
+    public static SauceJobsPage empty(int offset) {
+        return new SauceJobsPage(0, offset, Collections.<JobInformation>emptyList());
+    }
+
+    /**
+     * @return the number of Sauce jobs recorded against the build
+     */
+    public int getTotal() {
+        return total;
+    }
+
+    /**
+     * @return the position of the first job of the page within all the jobs of the build
+     */
+    public int getOffset() {
+        return offset;
+    }
+
+    public List<JobInformation> getJobs() {
+        return jobs;
+    }
+
+    List<Job> getDetails() {
+        return details;
+    }
+}
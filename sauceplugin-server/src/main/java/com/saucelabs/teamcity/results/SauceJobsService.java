@@ -0,0 +1,305 @@
+package com.saucelabs.teamcity.results;
+
+import com.saucelabs.ci.JobInformation;
+import com.saucelabs.saucerest.DataCenter;
+import com.saucelabs.saucerest.JobSource;
+import com.saucelabs.saucerest.SauceREST;
+import com.saucelabs.saucerest.model.builds.*;
+import com.saucelabs.saucerest.model.jobs.Job;
+import com.saucelabs.teamcity.Constants;
+import com.saucelabs.teamcity.HmacCalculator;
+import com.saucelabs.teamcity.SauceFeatureConfig;
+import com.saucelabs.teamcity.SessionIdsFile;
+import com.saucelabs.teamcity.SingleFlight;
+import com.saucelabs.teamcity.client.SauceRESTClientRegistry;
+import jetbrains.buildServer.serverSide.SBuild;
+import jetbrains.buildServer.serverSide.SBuildFeatureDescriptor;
+import jetbrains.buildServer.serverSide.TeamCityProperties;
+import org.apache.log4j.Logger;
+
+import java.io.IOException;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.stream.Collectors;
+
+/**
+ * Retrieves the Sauce jobs recorded against a TeamCity build, one page at a time, so that job details are only
+ * requested for the jobs being displayed.
+ */
+public class SauceJobsService {
+
+    static final String MAX_SIZE_PROPERTY = "saucePlugin.resultsCache.maxSize";
+    static final String RUNNING_BUILD_TTL_PROPERTY = "saucePlugin.resultsCache.runningBuildTtlMillis";
+
+    private static final Logger logger = Logger.getLogger(SauceJobsService.class);
+
+    private final SauceRESTClientRegistry clientRegistry;
+
+    private final HmacCalculator hmacCalculator = new HmacCalculator();
+
+    /**
+     * Job ids of a build, keyed by build id.
+     */
+    private final SauceJobsCache<List<String>> jobIdsCache;
+
+    /**
+     * Pages of job details, keyed by build id, offset and limit.
+     */
+    private final SauceJobsCache<SauceJobsPage> pagesCache;
+
+    /**
+     * Lookups of job ids by Sauce build name, keyed by username, data center and build name.
+     */
+    private final SingleFlight<String, List<String>> jobIdLookups = new SingleFlight<String, List<String>>();
+
+    public SauceJobsService(SauceRESTClientRegistry clientRegistry) {
+        this.clientRegistry = clientRegistry;
+        int maxSize = TeamCityProperties.getInteger(MAX_SIZE_PROPERTY, 500);
+        long runningBuildTtlMillis = TeamCityProperties.getLong(RUNNING_BUILD_TTL_PROPERTY, 30000);
+        this.jobIdsCache = new SauceJobsCache<List<String>>(maxSize, runningBuildTtlMillis);
+        this.pagesCache = new SauceJobsCache<SauceJobsPage>(maxSize * 4, runningBuildTtlMillis);
+    }
+
+    /**
+     * Returns a page of the Sauce jobs recorded against the TeamCity build, from the cache if possible.
+     *
+     * @param build
+     * @param offset position of the first job to return
+     * @param limit  maximum number of jobs to return
+     * @return
+     * @throws IOException
+     * @throws InvalidKeyException
+     * @throws NoSuchAlgorithmException
+     */
+    public SauceJobsPage getJobs(SBuild build, int offset, int limit) throws IOException, InvalidKeyException, NoSuchAlgorithmException {
+        SBuildFeatureDescriptor sauceBuildFeature = getSauceBuildFeature(build);
+        if (sauceBuildFeature == null) {
+            return SauceJobsPage.empty(offset);
+        }
+        SauceFeatureConfig config = SauceFeatureConfig.parse(sauceBuildFeature.getParameters(), build.getAgentName());
+        String username = config.getUsername();
+        String accessKey = config.getAccessKey();
+        DataCenter dataCenter = config.getSauceRESTDataCenter();
+
+        String pageKey = build.getBuildId() + ":" + offset + ":" + limit;
+        SauceJobsCache.Entry<SauceJobsPage> cached = pagesCache.get(pageKey);
+        if (cached != null) {
+            if (!cached.isFromCurrentHour()) {
+                //the HMACs are only valid for the hour they were calculated in, the cached page may still be in use
+                //so a new page is cached in its place
+                SauceJobsPage page = withNewHmacs(cached.getValue(), username, accessKey, dataCenter);
+                pagesCache.put(pageKey, page, build.isFinished());
+                return page;
+            }
+            return cached.getValue();
+        }
+
+        SauceREST sauceREST = clientRegistry.getClient(username, accessKey, dataCenter);
+        List<String> jobIds = getJobIds(build, sauceREST, username, dataCenter);
+        int from = Math.min(Math.max(offset, 0), jobIds.size());
+        int to = Math.min(from + limit, jobIds.size());
+        List<Job> details = retrieveJobDetails(sauceREST, jobIds.subList(from, to));
+
+        SauceJobsPage page = new SauceJobsPage(jobIds.size(), from, toJobInformation(details, username, accessKey, dataCenter), details);
+        //don't keep an empty page forever, the Sauce build might not have been found yet
+        pagesCache.put(pageKey, page, build.isFinished() && !jobIds.isEmpty());
+        logger.debug("Sauce results cache: pages " + pagesCache + ", job ids " + jobIdsCache);
+        return page;
+    }
+
+    /**
+     * Returns the ids of the Sauce jobs recorded against the TeamCity build, first job first.
+     *
+     * @param build
+     * @param sauceREST
+     * @param username
+     * @param dataCenter
+     * @return
+     * @throws IOException
+     */
+    private List<String> getJobIds(SBuild build, SauceREST sauceREST, String username, DataCenter dataCenter) throws IOException {
+        String key = String.valueOf(build.getBuildId());
+        SauceJobsCache.Entry<List<String>> cached = jobIdsCache.get(key);
+        if (cached != null) {
+            return cached.getValue();
+        }
+
+        //the session ids stored when the build finished are in the order they were logged
+        List<String> jobIds = SessionIdsFile.read(build.getArtifactsDirectory());
+        if (jobIds == null || jobIds.isEmpty()) {
+            String buildNumber = build.getBuildTypeExternalId() + build.getBuildNumber();
+            jobIds = lookupJobIds(sauceREST, username, dataCenter, buildNumber);
+        }
+        jobIdsCache.put(key, jobIds, build.isFinished() && !jobIds.isEmpty());
+        return jobIds;
+    }
+
+    /**
+     * Looks up the Sauce build by name and retrieves the ids of its jobs. Concurrent lookups of the same build, eg. by
+     * everyone opening the results of a failed build, share a single set of REST calls.
+     *
+     * @param sauceREST
+     * @param username
+     * @param dataCenter
+     * @param buildNumber The build name on Sauce
+     * @return the job ids, first job first
+     * @throws IOException
+     */
+    private List<String> lookupJobIds(final SauceREST sauceREST, String username, DataCenter dataCenter, final String buildNumber) throws IOException {
+        List<String> jobIds = jobIdLookups.execute(username + ":" + dataCenter + ":" + buildNumber, new SingleFlight.Call<List<String>>() {
+            @Override
+            public List<String> call() throws IOException {
+                List<String> jobIds = new ArrayList<String>();
+                String buildId = retrieveBuildInformationFromSauce(sauceREST, buildNumber);
+                if (!buildId.isEmpty()) {
+                    logger.info("Retrieving jobs for  " + buildId);
+                    jobIds.addAll(getJobIdsForBuild(sauceREST, buildId));
+                    //the list of results retrieved from the Sauce REST API is last-first, so reverse the list
+                    Collections.reverse(jobIds);
+                }
+                return Collections.unmodifiableList(jobIds);
+            }
+        });
+        logger.debug("Sauce job id lookups: " + jobIdLookups);
+        return jobIds;
+    }
+
+    /**
+     * @return the lookups of job ids by Sauce build name, including how many concurrent lookups were collapsed
+     */
+    public SingleFlight<String, List<String>> getJobIdLookups() {
+        return jobIdLookups;
+    }
+
+    private List<Job> retrieveJobDetails(SauceREST sauceREST, List<String> jobIds) throws IOException {
+        if (jobIds.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<Job> response = sauceREST.getJobsEndpoint().getJobDetails(new ArrayList<String>(jobIds));
+        if (response.isEmpty()) {
+            logger.error("Unable to get jobs for IDs: `" + jobIds + "`");
+        }
+        return response;
+    }
+
+    private List<JobInformation> toJobInformation(List<Job> details, String username, String accessKey, DataCenter dataCenter) throws InvalidKeyException, NoSuchAlgorithmException {
+        List<JobInformation> jobInformation = new ArrayList<JobInformation>();
+        for (Job job : details) {
+            JobInformation information = new JobInformation(job.id, calcHMAC(username, accessKey, job.id));
+            information.populate(job);
+            information.setLogUrl(getLogUrl(dataCenter));
+            jobInformation.add(information);
+        }
+        return jobInformation;
+    }
+
+    /**
+     * @param page a page of jobs whose HMACs were calculated in an earlier hour
+     * @return a copy of the page with the HMACs for the current hour, the page itself is left as it is
+     */
+    SauceJobsPage withNewHmacs(SauceJobsPage page, String username, String accessKey, DataCenter dataCenter) throws InvalidKeyException, NoSuchAlgorithmException {
+        return new SauceJobsPage(page.getTotal(), page.getOffset(),
+                toJobInformation(page.getDetails(), username, accessKey, dataCenter), page.getDetails());
+    }
+
+    /**
+     * Invokes the Sauce REST API to retrieve the build information.
+     *
+     * @param sauceREST   Sauce Rest object/credentials to use
+     * @param buildNumber The build name on Sauce
+     * @return Teamcity Build information
+     * @throws IOException
+     */
+    public String retrieveBuildInformationFromSauce(
+            SauceREST sauceREST, String buildNumber)
+            throws IOException {
+        logger.info("Performing Sauce REST retrieve results for " + buildNumber);
+
+        List<Build> response = sauceREST.getBuildsEndpoint().lookupBuilds(JobSource.VDC, new LookupBuildsParameters.Builder().setName(buildNumber).setLimit(1).build());
+
+        if (response.isEmpty()) {
+            logger.error("Unable to find build for name: `" + buildNumber + "`");
+            return "";
+        }
+
+        return response.get(0).id;
+    }
+
+    protected static List<String> getJobIdsForBuild(SauceREST sauceREST, String buildId) throws IOException {
+        JobsInBuild response = sauceREST.getBuildsEndpoint().lookupJobsForBuild(JobSource.VDC, buildId, new LookupJobsParameters.Builder().build());
+        if (response.jobs.isEmpty()) {
+            logger.error("Build without jobs id=`" + buildId + "`");
+            return new ArrayList<>();
+        }
+
+        return response.jobs.stream()
+                .map(job -> job.id)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * @param build
+     * @return true if the build has the Sauce build feature, and the embedded results haven't been disabled
+     */
+    public boolean isResultsEnabled(SBuild build) {
+        SBuildFeatureDescriptor sauceBuildFeature = getSauceBuildFeature(build);
+        if (sauceBuildFeature == null) {
+            return false;
+        }
+        return !SauceFeatureConfig.parse(sauceBuildFeature.getParameters(), build.getAgentName()).isResultsDisabled();
+    }
+
+    /**
+     * Returns the Sauce-specific {@link SBuildFeatureDescriptor} instance.
+     *
+     * @param build
+     * @return
+     */
+    private SBuildFeatureDescriptor getSauceBuildFeature(SBuild build) {
+        if (build.getBuildType() == null) return null;
+        Collection<SBuildFeatureDescriptor> features = build.getBuildType().getBuildFeatures();
+        if (features.isEmpty()) return null;
+        for (SBuildFeatureDescriptor feature : features) {
+            if (feature.getType().equals(Constants.BUILD_FEATURE_TYPE)) {
+                return feature;
+            }
+
+        }
+        return null;
+    }
+
+    /**
+     * Returns the HMAC to be used for authentication of the embedded Sauce job report.
+     *
+     * @param username
+     * @param accessKey
+     * @param jobId
+     * @return
+     * @throws NoSuchAlgorithmException
+     * @throws InvalidKeyException
+     */
+    public String calcHMAC(String username, String accessKey, String jobId) throws NoSuchAlgorithmException, InvalidKeyException {
+        return hmacCalculator.calculate(username, accessKey, jobId);
+    }
+
+    /**
+     * @param build
+     * @return the Sauce site which embeds the job details for the data center of the build feature, or null if the
+     * build doesn't have the Sauce build feature
+     */
+    public String getLogUrl(SBuild build) {
+        SBuildFeatureDescriptor sauceBuildFeature = getSauceBuildFeature(build);
+        if (sauceBuildFeature == null) {
+            return null;
+        }
+        return getLogUrl(SauceFeatureConfig.parse(sauceBuildFeature.getParameters(), build.getAgentName()).getSauceRESTDataCenter());
+    }
+
+    private String getLogUrl(DataCenter dataCenter) {
+        if (dataCenter == DataCenter.EU_CENTRAL) {
+            return "https://app.eu-central-1.saucelabs.com";
+        }
+        return "https://app.saucelabs.com";
+    }
+}
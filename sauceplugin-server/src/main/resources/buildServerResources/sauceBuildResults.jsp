@@ -1,41 +1,138 @@
 <%@ taglib prefix="props" tagdir="/WEB-INF/tags/props" %>
 <%@ taglib prefix="l" tagdir="/WEB-INF/tags/layout" %>
 <%@ taglib prefix="c" uri="http://java.sun.com/jsp/jstl/core" %>
+<%@ taglib prefix="fn" uri="http://java.sun.com/jsp/jstl/functions" %>
 <%@ taglib prefix="forms" tagdir="/WEB-INF/tags/forms" %>
 
 <jsp:useBean id="build" scope="request" type="jetbrains.buildServer.serverSide.SBuild"/>
-<jsp:useBean id="jobs" scope="request" type="java.util.ArrayList"/>
+<jsp:useBean id="jobsPath" scope="request" type="java.lang.String"/>
+<jsp:useBean id="pageSize" scope="request" type="java.lang.Integer"/>
 
-<div id="sauce-job-list" class="groupBox">
+<c:url var="jobsUrl" value="${jobsPath}"/>
+
+<div id="sauce-job-list" class="groupBox"
+     data-jobs-url="<c:out value='${jobsUrl}'/>"
+     data-build-id="${build.buildId}"
+     data-page-size="${pageSize}">
     <table>
+        <thead>
         <tr>
             <th>Job Id</th>
             <th>Name</th>
             <th>Status</th>
         </tr>
-        <c:forEach var="jobIter" items="${jobs}">
-            <tr>
-                <td>
-                    <a href="<%=request.getAttribute("javax.servlet.forward.request_uri")%>?buildId=<%=request.getParameter("buildId")%>&buildTypeId=<%=request.getParameter("buildTypeId")%>&tab=<%=request.getParameter("tab")%>&jobId=${jobIter.jobId}&logUrl=${jobIter.logUrl}&hmac=${jobIter.hmac}">${jobIter.jobId}</a>
-                </td>
-                <td>
-                        ${jobIter.name}
-                </td>
-                <td>
-                        ${jobIter.status}
-                </td>
-            </tr>
-        </c:forEach>
+        </thead>
+        <tbody id="sauce-job-rows">
+        </tbody>
     </table>
+    <div id="sauce-job-list-status">Loading Sauce jobs...</div>
 </div>
 
+<script type="text/javascript">
+    (function () {
+        var container = document.getElementById('sauce-job-list');
+        var rows = document.getElementById('sauce-job-rows');
+        var status = document.getElementById('sauce-job-list-status');
+        var jobsUrl = container.getAttribute('data-jobs-url');
+        var buildId = container.getAttribute('data-build-id');
+        var pageSize = parseInt(container.getAttribute('data-page-size'), 10);
+        var nextOffset = 0;
+        var total = -1;
+        var loading = false;
+
+        function jobLink(job) {
+            var params = new URLSearchParams(window.location.search);
+            params.set('jobId', job.jobId);
+            params.set('hmac', job.hmac);
+            var link = document.createElement('a');
+            link.href = window.location.pathname + '?' + params.toString();
+            link.textContent = job.jobId;
+            return link;
+        }
+
+        function addCell(row, content) {
+            var cell = document.createElement('td');
+            if (typeof content === 'string' || content == null) {
+                cell.textContent = content == null ? '' : content;
+            } else {
+                cell.appendChild(content);
+            }
+            row.appendChild(cell);
+        }
+
+        function hasMore() {
+            return total < 0 || nextOffset < total;
+        }
+
+        function loadNextPage() {
+            if (loading || !hasMore()) {
+                return;
+            }
+            loading = true;
+            var url = jobsUrl + '?buildId=' + encodeURIComponent(buildId) + '&offset=' + nextOffset + '&limit=' + pageSize;
+            fetch(url, {credentials: 'same-origin'})
+                .then(function (response) {
+                    return response.json();
+                })
+                .then(function (page) {
+                    loading = false;
+                    if (page.error) {
+                        status.textContent = page.error;
+                        return;
+                    }
+                    if (page.pending) {
+                        status.textContent = page.message;
+                        setTimeout(loadNextPage, 2000);
+                        return;
+                    }
+                    total = page.total;
+                    page.jobs.forEach(function (job) {
+                        var row = document.createElement('tr');
+                        addCell(row, jobLink(job));
+                        addCell(row, job.name);
+                        addCell(row, job.status);
+                        rows.appendChild(row);
+                    });
+                    nextOffset = page.offset + pageSize;
+                    if (total === 0) {
+                        status.textContent = 'No Sauce jobs found for this build';
+                    } else if (hasMore()) {
+                        status.textContent = 'Showing ' + rows.children.length + ' of ' + total + ' jobs';
+                        loadIfVisible();
+                    } else {
+                        status.textContent = '';
+                    }
+                })
+                .catch(function () {
+                    loading = false;
+                    status.textContent = 'Unable to load Sauce jobs';
+                });
+        }
+
+        function loadIfVisible() {
+            if (status.getBoundingClientRect().top <= window.innerHeight) {
+                loadNextPage();
+            }
+        }
+
+        window.addEventListener('scroll', loadIfVisible);
+        loadNextPage();
+    })();
+</script>
+
 <c:choose>
-    <c:when test="${param.jobId != null}">
+    <c:when test="${not empty param.jobId and not empty logUrl
+            and not fn:contains(param.jobId, '/') and not fn:contains(param.jobId, '?')
+            and not fn:contains(param.jobId, '#') and not fn:contains(param.jobId, '%')}">
+        <%-- the Sauce site is derived from the build feature, only the job id and its HMAC come from the request --%>
+        <c:url var="jobEmbedUrl" value="${logUrl}/job-embed/${param.jobId}.js">
+            <c:param name="auth" value="${param.hmac}"/>
+        </c:url>
         <div id="sauce-job" class="groupBox">
-           <h2>Details for ${param.jobId}</h2>
-            <script 
+           <h2>Details for <c:out value="${param.jobId}"/></h2>
+            <script
                 type="text/javascript"
-                src="${param.logUrl}/job-embed/${param.jobId}.js?auth=${param.hmac}"
+                src="<c:out value='${jobEmbedUrl}'/>"
             >
             </script>
         </div>
@@ -51,4 +148,4 @@
 
 
     </c:otherwise>
-</c:choose>
\ No newline at end of file
+</c:choose>
@@ -92,6 +92,15 @@
     </td>
 </tr>
 
+<tr id="saucePlugin.browsersFile.container">
+    <th><label for="saucePlugin.browsersFile">Write Selected Browsers to a File:</label></th>
+    <td>
+        <props:checkboxProperty name="saucePlugin.browsersFile" treatFalseValuesCorrectly="${true}"
+                                uncheckedValue="false"/>
+        <span class="smallNote">Exports the path of the file as SAUCE_ONDEMAND_BROWSERS_FILE instead of the browsers as SAUCE_ONDEMAND_BROWSERS, for large browser matrices.</span>
+    </td>
+</tr>
+
 <tr id="saucePlugin.embedResults.container">
     <th><label for="saucePlugin.disableResults">Disable Embedded Sauce Results:</label></th>
     <td>
@@ -108,6 +117,38 @@
     </td>
 </tr>
 
+<tr id="saucePlugin.sauceConnectTunnels.container">
+    <th><label for="saucePlugin.sauceConnectTunnels">Number of Sauce Connect tunnels:</label></th>
+    <td>
+        <props:textProperty name="saucePlugin.sauceConnectTunnels"/>
+        <span class="smallNote">Defaults to 1. Several tunnels are named after the tunnel name followed by -0, -1, ..., and listed in the TUNNEL_IDENTIFIER_0, TUNNEL_IDENTIFIER_1, ... and TUNNEL_IDENTIFIERS (JSON) environment variables.</span>
+    </td>
+</tr>
+
+<tr id="saucePlugin.startSauceConnectInBackground.container">
+    <th><label for="saucePlugin.startSauceConnectInBackground">Start Sauce Connect in the background:</label></th>
+    <td>
+        <props:checkboxProperty name="saucePlugin.startSauceConnectInBackground" treatFalseValuesCorrectly="${true}"
+                                uncheckedValue="false"/>
+    </td>
+</tr>
+
+<tr id="saucePlugin.sauceConnectSteps.container">
+    <th><label for="saucePlugin.sauceConnectSteps">Build steps which wait for Sauce Connect:</label></th>
+    <td>
+        <props:textProperty name="saucePlugin.sauceConnectSteps"/>
+        <span class="smallNote">Comma-separated step names, when Sauce Connect is started in the background. If empty, the first step waits.</span>
+    </td>
+</tr>
+
+<tr id="saucePlugin.keepSauceConnectWarm.container">
+    <th><label for="saucePlugin.keepSauceConnectWarm">Keep Sauce Connect open for the next build on the agent:</label></th>
+    <td>
+        <props:checkboxProperty name="saucePlugin.keepSauceConnectWarm" treatFalseValuesCorrectly="${true}"
+                                uncheckedValue="false"/>
+    </td>
+</tr>
+
 <tr id="saucePlugin.embedResults.container">
     <th><label for="saucePlugin.debugMode">Debug Mode:</label></th>
     <td>
@@ -0,0 +1,102 @@
+package com.saucelabs.teamcity.client;
+
+import com.saucelabs.saucerest.DataCenter;
+import com.saucelabs.saucerest.SauceREST;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class SauceRESTClientRegistryTest {
+
+    private CountingRegistry registry;
+
+    @After
+    public void tearDown() {
+        if (registry != null) {
+            registry.shutdown();
+        }
+        System.clearProperty(SauceRESTClientRegistry.IDLE_TIMEOUT_PROPERTY);
+        System.clearProperty(SauceRESTClientRegistry.MAX_CLIENTS_PROPERTY);
+    }
+
+    @Test
+    public void testSharesClientPerUsernameAndDataCenter() {
+        registry = new CountingRegistry();
+        SauceREST client = registry.getClient("user", "key", DataCenter.US_WEST);
+
+        Assert.assertSame(client, registry.getClient("user", "key", DataCenter.US_WEST));
+        Assert.assertNotSame(client, registry.getClient("user", "key", DataCenter.EU_CENTRAL));
+        Assert.assertNotSame(client, registry.getClient("other", "key", DataCenter.US_WEST));
+        Assert.assertEquals(3, registry.size());
+        Assert.assertEquals(3, registry.created.get());
+    }
+
+    @Test
+    public void testRebuildsClientWhenAccessKeyChanges() {
+        registry = new CountingRegistry();
+        SauceREST client = registry.getClient("user", "key", DataCenter.US_WEST);
+        SauceREST rotated = registry.getClient("user", "new key", DataCenter.US_WEST);
+
+        Assert.assertNotSame(client, rotated);
+        Assert.assertSame(rotated, registry.getClient("user", "new key", DataCenter.US_WEST));
+        Assert.assertEquals(1, registry.size());
+        Assert.assertEquals(2, registry.created.get());
+    }
+
+    @Test
+    public void testEvictsIdleClients() {
+        System.setProperty(SauceRESTClientRegistry.IDLE_TIMEOUT_PROPERTY, "1000");
+        registry = new CountingRegistry();
+        SauceREST idle = registry.getClient("idle", "key", DataCenter.US_WEST, 0);
+        SauceREST used = registry.getClient("used", "key", DataCenter.US_WEST, 0);
+        registry.getClient("used", "key", DataCenter.US_WEST, 500);
+
+        registry.evictIdleClients(1200);
+        Assert.assertEquals(1, registry.size());
+        Assert.assertSame(used, registry.getClient("used", "key", DataCenter.US_WEST, 1200));
+        Assert.assertNotSame(idle, registry.getClient("idle", "key", DataCenter.US_WEST, 1200));
+        Assert.assertEquals(3, registry.created.get());
+    }
+
+    @Test
+    public void testEvictsLeastRecentlyUsedClientsBeyondMaxClients() {
+        System.setProperty(SauceRESTClientRegistry.MAX_CLIENTS_PROPERTY, "2");
+        registry = new CountingRegistry();
+        SauceREST first = registry.getClient("first", "key", DataCenter.US_WEST, 1);
+        SauceREST second = registry.getClient("second", "key", DataCenter.US_WEST, 2);
+        registry.getClient("first", "key", DataCenter.US_WEST, 3);
+        SauceREST third = registry.getClient("third", "key", DataCenter.US_WEST, 4);
+
+        Assert.assertEquals(2, registry.size());
+        Assert.assertSame(first, registry.getClient("first", "key", DataCenter.US_WEST, 5));
+        Assert.assertSame(third, registry.getClient("third", "key", DataCenter.US_WEST, 6));
+        Assert.assertNotSame(second, registry.getClient("second", "key", DataCenter.US_WEST, 7));
+        Assert.assertEquals(2, registry.size());
+        Assert.assertEquals(4, registry.created.get());
+    }
+
+    @Test
+    public void testShutdownClearsClients() {
+        registry = new CountingRegistry();
+        registry.getClient("user", "key", DataCenter.US_WEST);
+        registry.shutdown();
+
+        Assert.assertEquals(0, registry.size());
+    }
+
+    /**
+     * Counts the clients it builds.
+     */
+    private static class CountingRegistry extends SauceRESTClientRegistry {
+
+        final AtomicInteger created = new AtomicInteger();
+
+        @Override
+        SauceREST createSauceREST(String username, String accessKey, DataCenter dataCenter) {
+            created.incrementAndGet();
+            return super.createSauceREST(username, accessKey, dataCenter);
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package com.saucelabs.teamcity.listener;
+
+import com.saucelabs.saucerest.DataCenter;
+import com.saucelabs.saucerest.SauceREST;
+import com.saucelabs.saucerest.model.jobs.UpdateJobParameter;
+import com.saucelabs.teamcity.Constants;
+import com.saucelabs.teamcity.Stubs;
+import com.saucelabs.teamcity.client.SauceRESTClientRegistry;
+import jetbrains.buildServer.serverSide.SBuildFeatureDescriptor;
+import jetbrains.buildServer.serverSide.SBuildType;
+import jetbrains.buildServer.serverSide.SRunningBuild;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+public class LiveJobTaggerTest {
+
+    private final RecordingUpdater jobUpdater = new RecordingUpdater();
+
+    private final SauceRESTClientRegistry clientRegistry = new SauceRESTClientRegistry() {
+        @Override
+        public SauceREST getClient(String username, String accessKey, DataCenter dataCenter) {
+            return null;
+        }
+    };
+
+    private LiveJobTagger tagger;
+
+    @Before
+    public void setUp() {
+        System.setProperty(LiveJobTagger.ENABLED_PROPERTY, "true");
+        System.setProperty(LiveJobTagger.WINDOW_PROPERTY, "100");
+        tagger = new LiveJobTagger(jobUpdater, clientRegistry);
+    }
+
+    @After
+    public void tearDown() {
+        tagger.shutdown();
+        jobUpdater.shutdown();
+        clientRegistry.shutdown();
+        System.clearProperty(LiveJobTagger.ENABLED_PROPERTY);
+        System.clearProperty(LiveJobTagger.WINDOW_PROPERTY);
+    }
+
+    @Test
+    public void testTagsSessionIdsCollectedWithinWindowTogether() throws InterruptedException {
+        SRunningBuild build = build(1, feature(Constants.BUILD_FEATURE_TYPE, "user"));
+        tagger.start(build);
+        tagger.add(build, "session1");
+        tagger.add(build, "session2");
+        Assert.assertEquals(Collections.emptyList(), jobUpdater.submitted);
+
+        awaitSubmitted(2);
+        Assert.assertEquals(Arrays.asList("user:session1", "user:session2"), jobUpdater.submitted);
+
+        tagger.add(build, "session3");
+        awaitSubmitted(3);
+        Assert.assertEquals("user:session3", jobUpdater.submitted.get(2));
+
+        Assert.assertEquals(new HashSet<String>(Arrays.asList("session1", "session2", "session3")), tagger.finish(build));
+    }
+
+    @Test
+    public void testTagsJobsOfEveryFeature() throws InterruptedException {
+        SRunningBuild build = build(1, feature(Constants.BUILD_FEATURE_TYPE, "a"),
+                feature("other", "c"), feature(Constants.BUILD_FEATURE_TYPE, "b"));
+        tagger.start(build);
+        tagger.add(build, "session1");
+
+        awaitSubmitted(2);
+        Assert.assertEquals(Arrays.asList("a:session1", "b:session1"), jobUpdater.submitted);
+        Assert.assertEquals(Collections.singleton("session1"), tagger.finish(build));
+    }
+
+    @Test
+    public void testDropsSessionIdsPendingWhenBuildFinishes() throws InterruptedException {
+        System.setProperty(LiveJobTagger.WINDOW_PROPERTY, "200");
+        SRunningBuild build = build(1, feature(Constants.BUILD_FEATURE_TYPE, "user"));
+        tagger.start(build);
+        tagger.add(build, "session1");
+
+        Assert.assertEquals(Collections.emptySet(), tagger.finish(build));
+        tagger.add(build, "session2");
+        Thread.sleep(400);
+        Assert.assertEquals(Collections.emptyList(), jobUpdater.submitted);
+    }
+
+    @Test
+    public void testKeepsBuildsApart() throws InterruptedException {
+        SRunningBuild first = build(1, feature(Constants.BUILD_FEATURE_TYPE, "a"));
+        SRunningBuild second = build(2, feature(Constants.BUILD_FEATURE_TYPE, "b"));
+        tagger.start(first);
+        tagger.start(second);
+        tagger.add(first, "session1");
+        tagger.add(second, "session2");
+
+        awaitSubmitted(2);
+        Assert.assertEquals(new HashSet<String>(Arrays.asList("a:session1", "b:session2")), new HashSet<String>(jobUpdater.submitted));
+        Assert.assertEquals(Collections.singleton("session1"), tagger.finish(first));
+        Assert.assertEquals(Collections.singleton("session2"), tagger.finish(second));
+    }
+
+    @Test
+    public void testDoesNotTagUnlessEnabled() throws InterruptedException {
+        System.clearProperty(LiveJobTagger.ENABLED_PROPERTY);
+        SRunningBuild build = build(1, feature(Constants.BUILD_FEATURE_TYPE, "user"));
+        tagger.start(build);
+        tagger.add(build, "session1");
+
+        Thread.sleep(300);
+        Assert.assertEquals(Collections.emptyList(), jobUpdater.submitted);
+        Assert.assertEquals(Collections.emptySet(), tagger.finish(build));
+    }
+
+    @Test
+    public void testDoesNotTagWithoutSauceFeature() throws InterruptedException {
+        SRunningBuild build = build(1, feature("other", "user"));
+        tagger.start(build);
+        tagger.add(build, "session1");
+
+        Thread.sleep(300);
+        Assert.assertEquals(Collections.emptyList(), jobUpdater.submitted);
+        Assert.assertEquals(Collections.emptySet(), tagger.finish(build));
+    }
+
+    private void awaitSubmitted(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(10);
+        while (jobUpdater.submitted.size() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(count, jobUpdater.submitted.size());
+    }
+
+    static SBuildFeatureDescriptor feature(String type, String username) {
+        return Stubs.stub(SBuildFeatureDescriptor.class, Stubs.answers(
+                "getType", type,
+                "getParameters", Collections.singletonMap(Constants.SAUCE_USER_ID_KEY, username)));
+    }
+
+    static SRunningBuild build(long buildId, SBuildFeatureDescriptor... features) {
+        final List<SBuildFeatureDescriptor> buildFeatures = Arrays.asList(features);
+        SBuildType buildType = Stubs.stub(SBuildType.class, Stubs.answers(
+                "getBuildFeatures", buildFeatures));
+        return Stubs.stub(SRunningBuild.class, Stubs.answers(
+                "getBuildId", buildId,
+                "getBuildType", buildType,
+                "getBuildTypeExternalId", "Project_Build",
+                "getBuildNumber", String.valueOf(buildId),
+                "getAgentName", "agent"));
+    }
+
+    /**
+     * Records the jobs it's asked to update, as username:sessionId, instead of updating them.
+     */
+    static class RecordingUpdater extends SauceJobUpdater {
+
+        final List<String> submitted = new CopyOnWriteArrayList<String>();
+
+        @Override
+        public boolean submit(SauceREST sauceREST, String sessionId, UpdateJobParameter parameters, String username) {
+            submitted.add(username + ":" + sessionId);
+            return true;
+        }
+    }
+}
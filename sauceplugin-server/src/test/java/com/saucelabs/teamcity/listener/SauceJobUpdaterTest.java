@@ -0,0 +1,178 @@
+package com.saucelabs.teamcity.listener;
+
+import com.saucelabs.saucerest.SauceREST;
+import com.saucelabs.saucerest.model.jobs.UpdateJobParameter;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+public class SauceJobUpdaterTest {
+
+    private RecordingUpdater updater;
+
+    @After
+    public void tearDown() {
+        if (updater != null) {
+            updater.gate.countDown();
+            updater.shutdown();
+        }
+        System.clearProperty(SauceJobUpdater.CONCURRENCY_PROPERTY);
+        System.clearProperty(SauceJobUpdater.QUEUE_CAPACITY_PROPERTY);
+        System.clearProperty(SauceJobUpdater.MAX_ATTEMPTS_PROPERTY);
+        System.clearProperty(SauceJobUpdater.BACKOFF_PROPERTY);
+    }
+
+    @Test
+    public void testUpdatesJob() throws InterruptedException {
+        updater = new RecordingUpdater();
+        updater.gate.countDown();
+
+        Assert.assertTrue(updater.submit(null, "session1", null, "user"));
+        await(() -> updater.getSucceededCount() == 1 && updater.getInFlightCount() == 0);
+        Assert.assertEquals(1, updater.attempts.size());
+        assertCounts(0, 0, 1, 0);
+    }
+
+    @Test
+    public void testRetriesWithBackoffUntilUpdated() throws InterruptedException {
+        System.setProperty(SauceJobUpdater.MAX_ATTEMPTS_PROPERTY, "3");
+        System.setProperty(SauceJobUpdater.BACKOFF_PROPERTY, "100");
+        updater = new RecordingUpdater();
+        updater.gate.countDown();
+        updater.failures.add(new IOException("first"));
+        updater.failures.add(new IOException("second"));
+
+        updater.submit(null, "session1", null, "user");
+        await(() -> updater.getSucceededCount() == 1 && updater.getInFlightCount() == 0);
+        Assert.assertEquals(3, updater.attempts.size());
+        Assert.assertTrue(updater.attempts.get(1) - updater.attempts.get(0) >= 100);
+        Assert.assertTrue(updater.attempts.get(2) - updater.attempts.get(1) >= 200);
+        assertCounts(0, 0, 1, 0);
+    }
+
+    @Test
+    public void testFailsAfterMaxAttempts() throws InterruptedException {
+        System.setProperty(SauceJobUpdater.MAX_ATTEMPTS_PROPERTY, "2");
+        System.setProperty(SauceJobUpdater.BACKOFF_PROPERTY, "10");
+        updater = new RecordingUpdater();
+        updater.gate.countDown();
+        for (int i = 0; i < 3; i++) {
+            updater.failures.add(new IOException("down"));
+        }
+
+        updater.submit(null, "session1", null, "user");
+        await(() -> updater.getFailedCount() == 1 && updater.getInFlightCount() == 0);
+        Thread.sleep(100);
+        Assert.assertEquals(2, updater.attempts.size());
+        assertCounts(0, 0, 0, 1);
+    }
+
+    @Test
+    public void testDoesNotRetryUnexpectedFailure() throws InterruptedException {
+        System.setProperty(SauceJobUpdater.BACKOFF_PROPERTY, "10");
+        updater = new RecordingUpdater();
+        updater.gate.countDown();
+        updater.failures.add(new IllegalStateException("bug"));
+
+        updater.submit(null, "session1", null, "user");
+        await(() -> updater.getFailedCount() == 1 && updater.getInFlightCount() == 0);
+        Thread.sleep(100);
+        Assert.assertEquals(1, updater.attempts.size());
+        assertCounts(0, 0, 0, 1);
+    }
+
+    @Test
+    public void testDropsUpdatesBeyondQueueCapacity() throws InterruptedException {
+        System.setProperty(SauceJobUpdater.CONCURRENCY_PROPERTY, "1");
+        System.setProperty(SauceJobUpdater.QUEUE_CAPACITY_PROPERTY, "2");
+        updater = new RecordingUpdater();
+
+        Assert.assertTrue(updater.submit(null, "session1", null, "user"));
+        await(() -> updater.getInFlightCount() == 1);
+        Assert.assertTrue(updater.submit(null, "session2", null, "user"));
+        Assert.assertTrue(updater.submit(null, "session3", null, "user"));
+        Assert.assertFalse(updater.submit(null, "session4", null, "user"));
+        assertCounts(2, 1, 0, 1);
+
+        updater.gate.countDown();
+        await(() -> updater.getSucceededCount() == 3 && updater.getInFlightCount() == 0);
+        assertCounts(0, 0, 3, 1);
+    }
+
+    @Test
+    public void testDropsUpdatesOnceShutDown() {
+        updater = new RecordingUpdater();
+        updater.shutdown();
+
+        Assert.assertFalse(updater.submit(null, "session1", null, "user"));
+        Assert.assertEquals(0, updater.attempts.size());
+        assertCounts(0, 0, 0, 1);
+    }
+
+    @Test
+    public void testCountsRetryOnceShutDownAsFailed() throws InterruptedException {
+        System.setProperty(SauceJobUpdater.MAX_ATTEMPTS_PROPERTY, "3");
+        updater = new RecordingUpdater();
+
+        updater.submit(null, "session1", null, "user");
+        await(() -> updater.getInFlightCount() == 1);
+        updater.shutdown();
+        await(() -> updater.getFailedCount() == 1 && updater.getInFlightCount() == 0);
+        Assert.assertEquals(1, updater.attempts.size());
+        assertCounts(0, 0, 0, 1);
+    }
+
+    private void assertCounts(int queued, int inFlight, long succeeded, long failed) {
+        Assert.assertEquals(updater.toString(), queued, updater.getQueuedCount());
+        Assert.assertEquals(updater.toString(), inFlight, updater.getInFlightCount());
+        Assert.assertEquals(updater.toString(), succeeded, updater.getSucceededCount());
+        Assert.assertEquals(updater.toString(), failed, updater.getFailedCount());
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(10);
+        while (!condition.getAsBoolean() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Assert.assertTrue(condition.getAsBoolean());
+    }
+
+    /**
+     * Records the time of each attempt instead of calling Sauce, and fails with the failures it's given, one per
+     * attempt. Attempts wait until its gate is opened.
+     */
+    private static class RecordingUpdater extends SauceJobUpdater {
+
+        final CountDownLatch gate = new CountDownLatch(1);
+
+        final List<Long> attempts = new CopyOnWriteArrayList<Long>();
+
+        final Queue<Exception> failures = new ConcurrentLinkedQueue<Exception>();
+
+        @Override
+        void updateJob(SauceREST sauceREST, String sessionId, UpdateJobParameter parameters) throws IOException {
+            attempts.add(System.currentTimeMillis());
+            try {
+                gate.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException(e);
+            }
+            Exception failure = failures.poll();
+            if (failure instanceof IOException) {
+                throw (IOException) failure;
+            } else if (failure != null) {
+                throw (RuntimeException) failure;
+            }
+        }
+    }
+}
@@ -0,0 +1,213 @@
+package com.saucelabs.teamcity.listener;
+
+import com.saucelabs.saucerest.DataCenter;
+import com.saucelabs.saucerest.SauceREST;
+import com.saucelabs.teamcity.Constants;
+import com.saucelabs.teamcity.SessionIdCollector;
+import com.saucelabs.teamcity.SessionIdsFile;
+import com.saucelabs.teamcity.Stubs;
+import com.saucelabs.teamcity.client.SauceRESTClientRegistry;
+import jetbrains.buildServer.StatusDescriptor;
+import jetbrains.buildServer.messages.DefaultMessagesInfo;
+import jetbrains.buildServer.messages.Status;
+import jetbrains.buildServer.serverSide.SBuildFeatureDescriptor;
+import jetbrains.buildServer.serverSide.SBuildServer;
+import jetbrains.buildServer.serverSide.SBuildType;
+import jetbrains.buildServer.serverSide.SRunningBuild;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+public class SauceServerAdapterTest {
+
+    private static final String SESSION_1 = "0123456789abcdef0123456789abcdef";
+    private static final String SESSION_2 = "fedcba9876543210fedcba9876543210";
+    private static final String SESSION_3 = "00000000000000000000000000000003";
+
+    private final LiveJobTaggerTest.RecordingUpdater jobUpdater = new LiveJobTaggerTest.RecordingUpdater();
+
+    private final SauceRESTClientRegistry clientRegistry = new SauceRESTClientRegistry() {
+        @Override
+        public SauceREST getClient(String username, String accessKey, DataCenter dataCenter) {
+            return null;
+        }
+    };
+
+    private final LiveJobTagger liveJobTagger = new LiveJobTagger(jobUpdater, clientRegistry);
+
+    private final ScanningAdapter adapter = new ScanningAdapter();
+
+    private File artifactsDirectory;
+
+    @Before
+    public void setUp() throws IOException {
+        artifactsDirectory = Files.createTempDirectory("artifacts").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        liveJobTagger.shutdown();
+        jobUpdater.shutdown();
+        clientRegistry.shutdown();
+        delete(artifactsDirectory);
+        System.clearProperty(SauceServerAdapter.STREAM_SESSION_IDS_PROPERTY);
+    }
+
+    @Test
+    public void testUpdatesJobsOfStreamedSessionIds() throws IOException {
+        SRunningBuild build = build(Constants.BUILD_FEATURE_TYPE);
+        adapter.buildStarted(build);
+        adapter.messageReceived(build, DefaultMessagesInfo.createTextMessage("Starting tests"));
+        adapter.messageReceived(build, DefaultMessagesInfo.createTextMessage(sessionLine(SESSION_1)));
+        adapter.messageReceived(build, DefaultMessagesInfo.createTextMessage(sessionLine(SESSION_2)));
+        adapter.messageReceived(build, DefaultMessagesInfo.createTextMessage(sessionLine(SESSION_1)));
+        adapter.buildFinished(build);
+
+        Assert.assertEquals(0, adapter.scans);
+        Assert.assertEquals(Arrays.asList("user:" + SESSION_1, "user:" + SESSION_2), jobUpdater.submitted);
+        Assert.assertEquals(Arrays.asList(SESSION_1, SESSION_2), SessionIdsFile.read(artifactsDirectory));
+    }
+
+    @Test
+    public void testIgnoresStreamedMessagesOnceAgentReportsSessionIds() throws IOException {
+        SRunningBuild build = build(Constants.BUILD_FEATURE_TYPE);
+        adapter.buildStarted(build);
+        adapter.sessionIdsReported(build, Collections.<String, String>emptyMap(), 0);
+        adapter.messageReceived(build, DefaultMessagesInfo.createTextMessage(sessionLine(SESSION_3)));
+        Map<String, String> reported = new LinkedHashMap<String, String>();
+        reported.put(SESSION_1, null);
+        reported.put(SESSION_2, null);
+        adapter.sessionIdsReported(build, reported, 2);
+        adapter.sessionIdsReported(build, Collections.<String, String>singletonMap(SESSION_1, null), 0);
+        adapter.buildFinished(build);
+
+        Assert.assertEquals(0, adapter.scans);
+        Assert.assertEquals(Arrays.asList("user:" + SESSION_1, "user:" + SESSION_2), jobUpdater.submitted);
+        Assert.assertEquals(Arrays.asList(SESSION_1, SESSION_2), SessionIdsFile.read(artifactsDirectory));
+    }
+
+    @Test
+    public void testDoesNotScanBuildLogWhenNoSessionIdsWereStreamed() {
+        SRunningBuild build = build(Constants.BUILD_FEATURE_TYPE);
+        adapter.buildLog.add(sessionLine(SESSION_3));
+        adapter.buildStarted(build);
+        adapter.messageReceived(build, DefaultMessagesInfo.createTextMessage("No Sauce sessions"));
+        adapter.buildFinished(build);
+
+        Assert.assertEquals(0, adapter.scans);
+        Assert.assertEquals(Collections.emptyList(), jobUpdater.submitted);
+    }
+
+    @Test
+    public void testScansBuildLogOfBuildStartedBeforeServer() {
+        SRunningBuild build = build(Constants.BUILD_FEATURE_TYPE);
+        adapter.buildLog.add(sessionLine(SESSION_3));
+        adapter.messageReceived(build, DefaultMessagesInfo.createTextMessage(sessionLine(SESSION_1)));
+        adapter.sessionIdsReported(build, Collections.<String, String>singletonMap(SESSION_2, null), 0);
+        adapter.buildFinished(build);
+
+        Assert.assertEquals(1, adapter.scans);
+        Assert.assertEquals(Collections.singletonList("user:" + SESSION_3), jobUpdater.submitted);
+    }
+
+    @Test
+    public void testScansBuildLogWhenStreamingIsTurnedOff() {
+        System.setProperty(SauceServerAdapter.STREAM_SESSION_IDS_PROPERTY, "false");
+        SRunningBuild build = build(Constants.BUILD_FEATURE_TYPE);
+        adapter.buildLog.add(sessionLine(SESSION_3));
+        adapter.buildStarted(build);
+        adapter.messageReceived(build, DefaultMessagesInfo.createTextMessage(sessionLine(SESSION_1)));
+        adapter.buildFinished(build);
+
+        Assert.assertEquals(1, adapter.scans);
+        Assert.assertEquals(Collections.singletonList("user:" + SESSION_3), jobUpdater.submitted);
+    }
+
+    @Test
+    public void testDoesNothingWithoutSauceFeature() {
+        SRunningBuild build = build("other");
+        adapter.buildLog.add(sessionLine(SESSION_3));
+        adapter.buildStarted(build);
+        adapter.messageReceived(build, DefaultMessagesInfo.createTextMessage(sessionLine(SESSION_1)));
+        adapter.buildFinished(build);
+
+        Assert.assertEquals(0, adapter.scans);
+        Assert.assertEquals(Collections.emptyList(), jobUpdater.submitted);
+        Assert.assertEquals(0, artifactsDirectory.list().length);
+    }
+
+    @Test
+    public void testForgetsInterruptedBuild() {
+        SRunningBuild build = build(Constants.BUILD_FEATURE_TYPE);
+        adapter.buildStarted(build);
+        adapter.messageReceived(build, DefaultMessagesInfo.createTextMessage(sessionLine(SESSION_1)));
+        adapter.buildInterrupted(build);
+        adapter.buildFinished(build);
+
+        Assert.assertEquals(1, adapter.scans);
+        Assert.assertEquals(Collections.emptyList(), jobUpdater.submitted);
+    }
+
+    private static String sessionLine(String sessionId) {
+        return SessionIdCollector.SAUCE_ON_DEMAND_SESSION_ID + "=" + sessionId;
+    }
+
+    private SRunningBuild build(String featureType) {
+        SBuildFeatureDescriptor feature = LiveJobTaggerTest.feature(featureType, "user");
+        SBuildType buildType = Stubs.stub(SBuildType.class, Stubs.answers(
+                "getBuildFeatures", Collections.singletonList(feature)));
+        return Stubs.stub(SRunningBuild.class, Stubs.answers(
+                "getBuildId", 1L,
+                "getBuildType", buildType,
+                "getBuildTypeExternalId", "Project_Build",
+                "getBuildNumber", "1",
+                "getAgentName", "agent",
+                "getArtifactsDirectory", artifactsDirectory,
+                "getStatusDescriptor", new StatusDescriptor(Status.NORMAL, "Success")));
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    /**
+     * Counts the scans of the build log, which holds the lines it's given.
+     */
+    private class ScanningAdapter extends SauceServerAdapter {
+
+        final List<String> buildLog = new ArrayList<String>();
+
+        int scans;
+
+        ScanningAdapter() {
+            super(Stubs.stub(SBuildServer.class, Stubs.answers()), jobUpdater, clientRegistry, liveJobTagger);
+        }
+
+        @Override
+        SessionIdCollector scanBuildLog(SRunningBuild build) {
+            scans++;
+            SessionIdCollector collector = new SessionIdCollector();
+            for (String line : buildLog) {
+                collector.accept(line);
+            }
+            return collector;
+        }
+    }
+}
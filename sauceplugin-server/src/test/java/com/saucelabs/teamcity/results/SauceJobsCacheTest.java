@@ -0,0 +1,74 @@
+package com.saucelabs.teamcity.results;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+public class SauceJobsCacheTest {
+
+    private static final long HOUR = TimeUnit.HOURS.toMillis(1);
+
+    private final SauceJobsCache<String> cache = new SauceJobsCache<String>(2, 1000);
+
+    @Test
+    public void testEvictsLeastRecentlyUsedEntryBeyondMaxSize() {
+        cache.put("1", "first", true, 0);
+        cache.put("2", "second", true, 0);
+        Assert.assertEquals("first", cache.get("1", 0).getValue());
+        cache.put("3", "third", true, 0);
+
+        Assert.assertEquals(2, cache.size());
+        Assert.assertNull(cache.get("2", 0));
+        Assert.assertEquals("first", cache.get("1", 0).getValue());
+        Assert.assertEquals("third", cache.get("3", 0).getValue());
+        Assert.assertEquals(1, cache.getEvictionCount());
+    }
+
+    @Test
+    public void testEntriesOfRunningBuildsExpire() {
+        cache.put("running", "jobs", false, 0);
+
+        Assert.assertEquals("jobs", cache.get("running", 999).getValue());
+        Assert.assertNull(cache.get("running", 1000));
+        Assert.assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testEntriesOfFinishedBuildsDoNotExpire() {
+        cache.put("finished", "jobs", true, 0);
+
+        Assert.assertEquals("jobs", cache.get("finished", 10 * HOUR).getValue());
+    }
+
+    @Test
+    public void testCountsHitsAndMisses() {
+        cache.get("1", 0);
+        cache.put("1", "first", false, 0);
+        cache.get("1", 0);
+        cache.get("1", 500);
+        cache.get("1", 2000);
+
+        Assert.assertEquals(2, cache.getHitCount());
+        Assert.assertEquals(2, cache.getMissCount());
+        Assert.assertEquals(0, cache.getEvictionCount());
+    }
+
+    @Test
+    public void testInvalidate() {
+        cache.put("1", "first", true, 0);
+        cache.invalidate("1");
+
+        Assert.assertNull(cache.get("1", 0));
+        Assert.assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testEntryKnowsWhetherItIsFromCurrentHour() {
+        cache.put("1", "first", true, HOUR + 10);
+        SauceJobsCache.Entry<String> entry = cache.get("1", HOUR + 20);
+
+        Assert.assertTrue(entry.isFromCurrentHour(2 * HOUR - 1));
+        Assert.assertFalse(entry.isFromCurrentHour(2 * HOUR));
+    }
+}
@@ -0,0 +1,208 @@
+package com.saucelabs.teamcity.results;
+
+import com.saucelabs.ci.JobInformation;
+import com.saucelabs.teamcity.Stubs;
+import jetbrains.buildServer.serverSide.SBuild;
+import jetbrains.buildServer.serverSide.SBuildServer;
+import jetbrains.buildServer.serverSide.auth.Permission;
+import jetbrains.buildServer.users.SUser;
+import jetbrains.buildServer.web.openapi.WebControllerManager;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeoutException;
+
+public class SauceJobsControllerTest {
+
+    private final SBuild build = SauceJobsLoaderTest.build(1);
+
+    private final RecordingLoader loader = new RecordingLoader();
+
+    private final Map<String, String> parameters = new HashMap<String, String>();
+
+    private final StringWriter body = new StringWriter();
+
+    private Integer error;
+
+    private boolean resultsEnabled = true;
+
+    private boolean viewProject = true;
+
+    private SUser user;
+
+    private SauceJobsController controller;
+
+    @Before
+    public void setUp() {
+        user = Stubs.stub(SUser.class, Stubs.answers(
+                "isPermissionGrantedForProject", (Stubs.Answer) args -> viewProject
+                        && "project".equals(args[0]) && args[1] == Permission.VIEW_PROJECT));
+        SBuildServer buildServer = Stubs.stub(SBuildServer.class, Stubs.answers(
+                "findBuildInstanceById", (Stubs.Answer) args -> (Long) args[0] == 1 ? build : null));
+        SauceJobsService jobsService = new SauceJobsService(null) {
+            @Override
+            public boolean isResultsEnabled(SBuild build) {
+                return resultsEnabled;
+            }
+        };
+        controller = new SauceJobsController(buildServer, Stubs.stub(WebControllerManager.class, Stubs.answers()), jobsService, loader) {
+            @Override
+            SUser getUser(HttpServletRequest request) {
+                return user;
+            }
+        };
+        parameters.put("buildId", "1");
+    }
+
+    @Test
+    public void testReturnsPageOfJobs() throws Exception {
+        loader.page = new SauceJobsPage(120, 50, Arrays.asList(
+                new JobInformation("job1", "hmac1"),
+                new JobInformation("job2", "hmac2")));
+        parameters.put("offset", "50");
+
+        JSONObject json = handle();
+        Assert.assertEquals(120L, json.get("total"));
+        Assert.assertEquals(50L, json.get("offset"));
+        JSONArray jobs = (JSONArray) json.get("jobs");
+        Assert.assertEquals(2, jobs.size());
+        Assert.assertEquals("job1", ((JSONObject) jobs.get(0)).get("jobId"));
+        Assert.assertEquals("hmac2", ((JSONObject) jobs.get(1)).get("hmac"));
+        Assert.assertEquals(Arrays.asList(50, SauceJobsController.DEFAULT_PAGE_SIZE), loader.requested);
+    }
+
+    @Test
+    public void testClampsPaging() throws Exception {
+        parameters.put("offset", "-10");
+        parameters.put("limit", "100000");
+        handle();
+        Assert.assertEquals(Arrays.asList(0, SauceJobsController.MAX_PAGE_SIZE), loader.requested);
+
+        parameters.put("offset", "ten");
+        parameters.put("limit", "0");
+        handle();
+        Assert.assertEquals(Arrays.asList(0, 1), loader.requested);
+
+        parameters.put("limit", "twenty");
+        handle();
+        Assert.assertEquals(Arrays.asList(0, SauceJobsController.DEFAULT_PAGE_SIZE), loader.requested);
+    }
+
+    @Test
+    public void testNotFoundForUnknownBuild() throws Exception {
+        parameters.put("buildId", "2");
+        assertNotFound();
+
+        parameters.put("buildId", "build");
+        assertNotFound();
+
+        parameters.remove("buildId");
+        assertNotFound();
+    }
+
+    @Test
+    public void testNotFoundWithoutPermissionToViewProject() throws Exception {
+        viewProject = false;
+        assertNotFound();
+    }
+
+    @Test
+    public void testNotFoundForAnonymousUser() throws Exception {
+        user = null;
+        assertNotFound();
+    }
+
+    @Test
+    public void testNotFoundWhenResultsDisabled() throws Exception {
+        resultsEnabled = false;
+        assertNotFound();
+    }
+
+    @Test
+    public void testPendingWhenLoadTimesOut() throws Exception {
+        loader.failure = new TimeoutException();
+        parameters.put("offset", "100");
+
+        JSONObject json = handle();
+        Assert.assertEquals(Boolean.TRUE, json.get("pending"));
+        Assert.assertEquals(100L, json.get("offset"));
+        Assert.assertNotNull(json.get("message"));
+        Assert.assertNull(json.get("jobs"));
+    }
+
+    @Test
+    public void testErrorWhenLoadFails() throws Exception {
+        loader.failure = new ExecutionException(new IOException("Sauce is down"));
+
+        JSONObject json = handle();
+        Assert.assertEquals("Unable to retrieve jobs from Sauce Labs: Sauce is down", json.get("error"));
+        Assert.assertNull(json.get("jobs"));
+    }
+
+    private void assertNotFound() throws Exception {
+        error = null;
+        Assert.assertNull(controller.doHandle(request(), response()));
+        Assert.assertEquals(Integer.valueOf(HttpServletResponse.SC_NOT_FOUND), error);
+        Assert.assertNull(loader.requested);
+    }
+
+    private JSONObject handle() throws Exception {
+        body.getBuffer().setLength(0);
+        Assert.assertNull(controller.doHandle(request(), response()));
+        Assert.assertNull(error);
+        return (JSONObject) new JSONParser().parse(body.toString());
+    }
+
+    private HttpServletRequest request() {
+        return Stubs.stub(HttpServletRequest.class, Stubs.answers(
+                "getParameter", (Stubs.Answer) args -> parameters.get(args[0])));
+    }
+
+    private HttpServletResponse response() {
+        final PrintWriter writer = new PrintWriter(body);
+        return Stubs.stub(HttpServletResponse.class, Stubs.answers(
+                "getWriter", writer,
+                "sendError", (Stubs.Answer) args -> error = (Integer) args[0]));
+    }
+
+    /**
+     * Returns the page, or throws the failure, it's given.
+     */
+    private static class RecordingLoader extends SauceJobsLoader {
+
+        SauceJobsPage page = SauceJobsPage.empty(0);
+
+        Exception failure;
+
+        List<Integer> requested;
+
+        RecordingLoader() {
+            super(null);
+        }
+
+        @Override
+        public SauceJobsPage load(SBuild build, int offset, int limit) throws TimeoutException, ExecutionException {
+            requested = Arrays.asList(offset, limit);
+            if (failure instanceof TimeoutException) {
+                throw (TimeoutException) failure;
+            } else if (failure instanceof ExecutionException) {
+                throw (ExecutionException) failure;
+            }
+            return page;
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package com.saucelabs.teamcity.results;
+
+import com.saucelabs.teamcity.Stubs;
+import jetbrains.buildServer.serverSide.SBuild;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class SauceJobsLoaderTest {
+
+    private final BlockingJobsService jobsService = new BlockingJobsService();
+
+    private final ExecutorService requests = Executors.newCachedThreadPool();
+
+    private SauceJobsLoader loader;
+
+    @After
+    public void tearDown() {
+        jobsService.gate.countDown();
+        requests.shutdownNow();
+        if (loader != null) {
+            loader.shutdown();
+        }
+        System.clearProperty(SauceJobsLoader.TIMEOUT_PROPERTY);
+        System.clearProperty(SauceJobsLoader.WORKERS_PROPERTY);
+        System.clearProperty(SauceJobsLoader.QUEUE_CAPACITY_PROPERTY);
+    }
+
+    @Test
+    public void testConcurrentRequestsForSamePageShareOneLoad() throws Exception {
+        loader = new SauceJobsLoader(jobsService);
+        final SBuild build = build(1);
+
+        List<Future<SauceJobsPage>> pages = new ArrayList<Future<SauceJobsPage>>();
+        for (int i = 0; i < 5; i++) {
+            pages.add(requests.submit(load(build, 0, 50)));
+        }
+        jobsService.awaitCalls(1);
+        Thread.sleep(100);
+        jobsService.gate.countDown();
+
+        SauceJobsPage page = pages.get(0).get(10, TimeUnit.SECONDS);
+        for (Future<SauceJobsPage> other : pages) {
+            Assert.assertSame(page, other.get(10, TimeUnit.SECONDS));
+        }
+        Assert.assertEquals(1, jobsService.calls.get());
+
+        //other pages are loaded separately
+        Assert.assertNotSame(page, loader.load(build, 50, 50));
+        Assert.assertEquals(2, jobsService.calls.get());
+    }
+
+    @Test
+    public void testTimedOutLoadKeepsRunningForTheNextRequest() throws Exception {
+        System.setProperty(SauceJobsLoader.TIMEOUT_PROPERTY, "300");
+        loader = new SauceJobsLoader(jobsService);
+        SBuild build = build(1);
+
+        try {
+            loader.load(build, 0, 50);
+            Assert.fail("Expected the load to time out");
+        } catch (TimeoutException e) {
+            //still loading
+        }
+
+        Future<SauceJobsPage> retry = requests.submit(load(build, 0, 50));
+        Thread.sleep(50);
+        jobsService.gate.countDown();
+        Assert.assertNotNull(retry.get(10, TimeUnit.SECONDS));
+        Assert.assertEquals(1, jobsService.calls.get());
+    }
+
+    @Test
+    public void testReportsFailedLoad() throws Exception {
+        jobsService.gate.countDown();
+        jobsService.failure = new IOException("Sauce is down");
+        loader = new SauceJobsLoader(jobsService);
+
+        try {
+            loader.load(build(1), 0, 50);
+            Assert.fail("Expected the load to fail");
+        } catch (ExecutionException e) {
+            Assert.assertEquals("Sauce is down", e.getCause().getMessage());
+        }
+    }
+
+    @Test
+    public void testRejectsLoadsBeyondQueueCapacity() throws Exception {
+        System.setProperty(SauceJobsLoader.TIMEOUT_PROPERTY, "100");
+        System.setProperty(SauceJobsLoader.WORKERS_PROPERTY, "1");
+        System.setProperty(SauceJobsLoader.QUEUE_CAPACITY_PROPERTY, "1");
+        loader = new SauceJobsLoader(jobsService);
+
+        assertTimesOut(build(1));
+        jobsService.awaitCalls(1);
+        assertTimesOut(build(2));
+        try {
+            loader.load(build(3), 0, 50);
+            Assert.fail("Expected the load to be rejected");
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof RejectedExecutionException);
+        }
+
+        //the queued load is shared, and once it's done there is room for another
+        jobsService.gate.countDown();
+        Assert.assertNotNull(loader.load(build(2), 0, 50));
+        Assert.assertNotNull(loader.load(build(3), 0, 50));
+    }
+
+    private void assertTimesOut(SBuild build) throws Exception {
+        try {
+            loader.load(build, 0, 50);
+            Assert.fail("Expected the load to time out");
+        } catch (TimeoutException e) {
+            //queued or loading
+        }
+    }
+
+    private Callable<SauceJobsPage> load(final SBuild build, final int offset, final int limit) {
+        return () -> loader.load(build, offset, limit);
+    }
+
+    static SBuild build(long buildId) {
+        return Stubs.stub(SBuild.class, Stubs.answers(
+                "getBuildId", buildId,
+                "getProjectId", "project"));
+    }
+
+    /**
+     * Loads empty pages once its gate is opened.
+     */
+    static class BlockingJobsService extends SauceJobsService {
+
+        final CountDownLatch gate = new CountDownLatch(1);
+
+        final AtomicInteger calls = new AtomicInteger();
+
+        volatile IOException failure;
+
+        BlockingJobsService() {
+            super(null);
+        }
+
+        @Override
+        public SauceJobsPage getJobs(SBuild build, int offset, int limit) throws IOException {
+            calls.incrementAndGet();
+            try {
+                gate.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException(e);
+            }
+            if (failure != null) {
+                throw failure;
+            }
+            return SauceJobsPage.empty(offset);
+        }
+
+        void awaitCalls(int count) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(10);
+            while (calls.get() < count && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package com.saucelabs.teamcity.results;
+
+import com.saucelabs.ci.JobInformation;
+import com.saucelabs.saucerest.DataCenter;
+import com.saucelabs.saucerest.model.jobs.Job;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Collections;
+
+public class SauceJobsServiceTest {
+
+    private final SauceJobsService service = new SauceJobsService(null);
+
+    @Test
+    public void testNewHmacsAreCalculatedForCopyOfPage() throws Exception {
+        Job job = new Job();
+        job.id = "job1";
+        JobInformation cachedJob = new JobInformation("job1", "expired");
+        SauceJobsPage cached = new SauceJobsPage(10, 5, Collections.singletonList(cachedJob), Collections.singletonList(job));
+
+        SauceJobsPage page = service.withNewHmacs(cached, "user", "key", DataCenter.EU_CENTRAL);
+
+        Assert.assertNotSame(cached, page);
+        Assert.assertEquals(10, page.getTotal());
+        Assert.assertEquals(5, page.getOffset());
+        Assert.assertEquals(1, page.getJobs().size());
+        Assert.assertEquals("job1", page.getJobs().get(0).getJobId());
+        Assert.assertEquals(service.calcHMAC("user", "key", "job1"), page.getJobs().get(0).getHmac());
+        Assert.assertEquals("https://app.eu-central-1.saucelabs.com", page.getJobs().get(0).getLogUrl());
+        Assert.assertEquals("expired", cachedJob.getHmac());
+    }
+}